@@ -26,6 +26,7 @@ import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VertexMatch;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -64,6 +65,29 @@ public interface CollationAlgorithm {
         }
 
         protected void merge(VariantGraph into, Iterable<Token> witnessTokens, Map<Token, VariantGraph.Vertex> alignments) {
+            final List<Token> tokens = new ArrayList<>();
+            witnessTokens.forEach(tokens::add);
+            final VariantGraph.Vertex[] aligned = new VariantGraph.Vertex[tokens.size()];
+            for (int position = 0; position < aligned.length; position++) {
+                aligned[position] = alignments.get(tokens.get(position));
+            }
+            final VariantGraph.Vertex[] merged = new VariantGraph.Vertex[tokens.size()];
+            merge(into, tokens, aligned, merged, 0);
+
+            witnessTokenVertices = new HashMap<>();
+            for (int position = 0; position < merged.length; position++) {
+                witnessTokenVertices.put(tokens.get(position), merged[position]);
+            }
+        }
+
+        /**
+         * Merges a witness with alignments given by token position instead of by token, so neither the alignments
+         * nor the resulting vertices have to be looked up by hashing tokens.
+         *
+         * @param alignments     the vertex the token at each position of the witness is aligned with, or <code>null</code>
+         * @param mergedVertices receives the vertex of the token at each position of the witness, starting at <code>offset</code>
+         */
+        protected void merge(VariantGraph into, Iterable<Token> witnessTokens, VariantGraph.Vertex[] alignments, VariantGraph.Vertex[] mergedVertices, int offset) {
             final Witness witness = StreamUtil.stream(witnessTokens)
                     .findFirst()
                     .map(Token::getWitness)
@@ -72,20 +96,20 @@ public interface CollationAlgorithm {
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.log(Level.FINE, "{0} + {1}: Merge comparand into graph", new Object[]{into, witness});
             }
-            witnessTokenVertices = new HashMap<>();
             VariantGraph.Vertex last = into.getStart();
             final Set<Witness> witnessSet = Collections.singleton(witness);
+            int position = 0;
             for (Token token : witnessTokens) {
-                VariantGraph.Vertex matchingVertex = alignments.get(token);
+                VariantGraph.Vertex matchingVertex = alignments[position];
                 if (matchingVertex == null) {
                     matchingVertex = into.add(token);
                 } else {
                     if (LOG.isLoggable(Level.FINE)) {
                         LOG.log(Level.FINE, "Match: {0} to {1}", new Object[]{matchingVertex, token});
                     }
-                    matchingVertex.add(Collections.singleton(token));
+                    matchingVertex.tokens().add(token);
                 }
-                witnessTokenVertices.put(token, matchingVertex);
+                mergedVertices[offset + position++] = matchingVertex;
 
                 into.connect(last, matchingVertex, witnessSet);
                 last = matchingVertex;
@@ -121,6 +145,23 @@ public interface CollationAlgorithm {
             }
         }
 
+        /**
+         * @param mergedVertex the vertex the token of a match has been merged into
+         */
+        protected void mergeTranspositions(VariantGraph into, List<List<Match>> transpositions, Function<Match, VariantGraph.Vertex> mergedVertex) {
+            for (List<Match> transposedPhrase : transpositions) {
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Transposition: {0}", transposedPhrase);
+                }
+                final Set<VariantGraph.Vertex> transposed = new HashSet<>();
+                for (Match match : transposedPhrase) {
+                    transposed.add(mergedVertex.apply(match));
+                    transposed.add(match.getVertex());
+                }
+                into.transpose(transposed);
+            }
+        }
+
         protected void merge(VariantGraph graph, VariantGraph.Vertex[][] vertices, Token[] tokens, SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches) {
             @SuppressWarnings("unchecked") final SortedSet<VertexMatch.WithTokenIndex>[] matchesVertexOrder = matches.toArray(new SortedSet[matches.size()]);
             final SortedSet<VertexMatch.WithTokenIndex>[] matchesTokenOrder = Arrays.copyOf(matchesVertexOrder, matchesVertexOrder.length);
@@ -23,6 +23,8 @@ import eu.interedition.collatex.dekker.DekkerAlgorithm;
 import eu.interedition.collatex.dekker.editgraphaligner.EditGraphAligner;
 import eu.interedition.collatex.medite.MediteAlgorithm;
 import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschAlgorithm;
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.SuffixArrays;
 import eu.interedition.collatex.util.GreedyStringTilingAlgorithm;
 import eu.interedition.collatex.util.VertexMatch;
 
@@ -41,6 +43,13 @@ public class CollationAlgorithmFactory {
         return new DekkerAlgorithm(comparator);
     }
 
+    /**
+     * @param suffixArrayBuilder builds the suffix array of the token index, see {@link SuffixArrays#builder(String)}
+     */
+    public static CollationAlgorithm dekker(Comparator<Token> comparator, ISuffixArrayBuilder suffixArrayBuilder) {
+        return new DekkerAlgorithm(comparator, suffixArrayBuilder);
+    }
+
     /* TODO: THIS SHOULD NOT BE THE DEFAULT! */
     // THIS WAS INSPIRED BY THE PYTHON VERSION OF COLLATEX
     // HOWEVER IT DOES NOT HAVE TRANSPOSITION DETECTION!
@@ -48,6 +57,10 @@ public class CollationAlgorithmFactory {
         return new EditGraphAligner(comparator);
     }
 
+    public static CollationAlgorithm editGraphDekker(Comparator<Token> comparator, ISuffixArrayBuilder suffixArrayBuilder) {
+        return new EditGraphAligner(comparator, suffixArrayBuilder);
+    }
+
     public static CollationAlgorithm needlemanWunsch(Comparator<Token> comparator) {
         return new NeedlemanWunschAlgorithm(comparator);
     }
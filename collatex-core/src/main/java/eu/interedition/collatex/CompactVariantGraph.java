@@ -0,0 +1,349 @@
+package eu.interedition.collatex;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, immutable snapshot of a {@link VariantGraph}, as returned by {@link VariantGraph#freeze()}.
+ * <p>
+ * Vertices are numbered densely in topological order, the adjacency of the graph is stored
+ * in compressed sparse row (CSR) arrays, and the witnesses of every edge and vertex are stored as a
+ * bit mask over witness ordinals. Ranks, tokens and transpositions are captured as well, so the
+ * snapshot answers all queries by array lookups.
+ * <p>
+ * The snapshot is a read-only view for consumers of a finished alignment, such as the
+ * {@link eu.interedition.collatex.simple.SimpleVariantGraphSerializer serializers} and the
+ * {@link eu.interedition.collatex.simple.MappedVariantGraph memory-mapped format}. The aligners keep working on the
+ * mutable {@link VariantGraph}, which they need to merge witnesses into.
+ * <p>
+ * The snapshot is not affected by later changes to the graph it has been created from, and as it is
+ * never modified, any number of threads can read it concurrently without locking. The
+ * {@link VariantGraph.Vertex vertices} it returns only serve as handles into the original graph.
+ */
+public class CompactVariantGraph {
+
+    private final VariantGraph.Vertex[] vertices;
+    private final int[] compactIds;
+    private final Witness[] witnesses;
+    private final Set<Witness> graphWitnesses;
+    private final int start;
+    private final int end;
+
+    private final int[] outgoingOffsets;
+    private final int[] targets;
+    private final int[] incomingOffsets;
+    private final int[] sources;
+    private final int[] incomingEdges;
+
+    private final int maskWords;
+    private final long[] edgeWitnesses;
+    private final long[] vertexWitnesses;
+
+    private final int[] ranks;
+    private final List<List<Token>> tokens;
+
+    private final int[][] transpositions;
+    private final int[] transpositionOffsets;
+    private final int[] vertexTranspositions;
+
+    private CompactVariantGraph(VariantGraph graph) {
+        final List<VariantGraph.Vertex> order = graph.topologicalOrder();
+        this.vertices = order.toArray(new VariantGraph.Vertex[order.size()]);
+        this.compactIds = new int[graph.vertexIdBound()];
+        Arrays.fill(compactIds, -1);
+        for (int v = 0; v < vertices.length; v++) {
+            compactIds[vertices[v].id()] = v;
+        }
+        this.start = compactIds[graph.getStart().id()];
+        this.end = compactIds[graph.getEnd().id()];
+
+        this.witnesses = new Witness[graph.witnessOrdinalBound()];
+        for (int w = 0; w < witnesses.length; w++) {
+            witnesses[w] = graph.witness(w);
+        }
+        this.graphWitnesses = Collections.unmodifiableSet(new LinkedHashSet<>(graph.witnesses()));
+        this.maskWords = Math.max(1, (witnesses.length + 63) >>> 6);
+
+        this.outgoingOffsets = new int[vertices.length + 1];
+        this.incomingOffsets = new int[vertices.length + 1];
+        for (int v = 0; v < vertices.length; v++) {
+            for (VariantGraph.Vertex target : vertices[v].outgoingEdges().keySet()) {
+                outgoingOffsets[v + 1]++;
+                incomingOffsets[compactIds[target.id()] + 1]++;
+            }
+        }
+        for (int v = 0; v < vertices.length; v++) {
+            outgoingOffsets[v + 1] += outgoingOffsets[v];
+            incomingOffsets[v + 1] += incomingOffsets[v];
+        }
+
+        final int edges = outgoingOffsets[vertices.length];
+        this.targets = new int[edges];
+        this.sources = new int[edges];
+        this.incomingEdges = new int[edges];
+        this.edgeWitnesses = new long[edges * maskWords];
+        this.vertexWitnesses = new long[vertices.length * maskWords];
+        final int[] incomingFill = Arrays.copyOf(incomingOffsets, vertices.length);
+
+        int edge = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            for (Map.Entry<VariantGraph.Vertex, VariantGraph.Edge> e : vertices[v].outgoingEdges().entrySet()) {
+                final int target = compactIds[e.getKey().id()];
+                targets[edge] = target;
+                final int in = incomingFill[target]++;
+                sources[in] = v;
+                incomingEdges[in] = edge;
+                final long[] mask = e.getValue().witnessMask().toLongArray();
+                for (int w = 0; w < mask.length && w < maskWords; w++) {
+                    edgeWitnesses[edge * maskWords + w] = mask[w];
+                    vertexWitnesses[target * maskWords + w] |= mask[w];
+                }
+                edge++;
+            }
+        }
+
+        this.ranks = new int[vertices.length];
+        this.tokens = new ArrayList<>(vertices.length);
+        for (int v = 0; v < vertices.length; v++) {
+            ranks[v] = graph.rank(vertices[v]);
+            tokens.add(Collections.unmodifiableList(Arrays.asList(vertices[v].tokens().toArray(new Token[0]))));
+        }
+
+        final List<int[]> transpositions = new ArrayList<>();
+        this.transpositionOffsets = new int[vertices.length + 1];
+        for (Set<VariantGraph.Vertex> transposition : graph.transpositions()) {
+            final int[] transposed = transposition.stream().mapToInt(this::id).filter(v -> v >= 0).sorted().toArray();
+            for (int v : transposed) {
+                transpositionOffsets[v + 1]++;
+            }
+            transpositions.add(transposed);
+        }
+        this.transpositions = transpositions.toArray(new int[transpositions.size()][]);
+        for (int v = 0; v < vertices.length; v++) {
+            transpositionOffsets[v + 1] += transpositionOffsets[v];
+        }
+        this.vertexTranspositions = new int[transpositionOffsets[vertices.length]];
+        final int[] transpositionFill = Arrays.copyOf(transpositionOffsets, vertices.length);
+        for (int t = 0; t < this.transpositions.length; t++) {
+            for (int v : this.transpositions[t]) {
+                vertexTranspositions[transpositionFill[v]++] = t;
+            }
+        }
+    }
+
+    public static CompactVariantGraph of(VariantGraph graph) {
+        return new CompactVariantGraph(graph);
+    }
+
+    /**
+     * @return the number of vertices, which are numbered <code>0 .. size() - 1</code> in topological order
+     */
+    public int size() {
+        return vertices.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public VariantGraph.Vertex vertex(int v) {
+        return vertices[v];
+    }
+
+    /**
+     * @return the compact identifier of the given vertex or <code>-1</code> if it is not part of this snapshot
+     */
+    public int id(VariantGraph.Vertex vertex) {
+        final int id = vertex.id();
+        return (id < compactIds.length ? compactIds[id] : -1);
+    }
+
+    public List<Token> tokens(int v) {
+        return tokens.get(v);
+    }
+
+    public int witnessCount() {
+        return witnesses.length;
+    }
+
+    public Witness witness(int ordinal) {
+        return witnesses[ordinal];
+    }
+
+    public int outDegree(int v) {
+        return outgoingOffsets[v + 1] - outgoingOffsets[v];
+    }
+
+    public int inDegree(int v) {
+        return incomingOffsets[v + 1] - incomingOffsets[v];
+    }
+
+    /**
+     * Outgoing edges of a vertex are numbered <code>firstOutgoingEdge(v) .. firstOutgoingEdge(v + 1) - 1</code>.
+     */
+    public int firstOutgoingEdge(int v) {
+        return outgoingOffsets[v];
+    }
+
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /**
+     * Incoming edges of a vertex are addressed by <code>incomingOffset(v) .. incomingOffset(v + 1) - 1</code>.
+     */
+    public int incomingOffset(int v) {
+        return incomingOffsets[v];
+    }
+
+    public int source(int incoming) {
+        return sources[incoming];
+    }
+
+    public int incomingEdge(int incoming) {
+        return incomingEdges[incoming];
+    }
+
+    /**
+     * @return the witnesses of the graph, as by {@link VariantGraph#witnesses()}
+     */
+    public Set<Witness> witnesses() {
+        return graphWitnesses;
+    }
+
+    /**
+     * @return the length of the longest path from the start vertex to the given vertex
+     */
+    public int rank(int v) {
+        return ranks[v];
+    }
+
+    /**
+     * @return whether the witness with the given ordinal passes through the given vertex
+     */
+    public boolean vertexHasWitness(int v, int ordinal) {
+        return (vertexWitnesses[v * maskWords + (ordinal >>> 6)] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * @return the ordinal of the first witness passing through the given vertex or <code>-1</code>
+     */
+    public int firstVertexWitness(int v) {
+        for (int w = 0; w < maskWords; w++) {
+            final long mask = vertexWitnesses[v * maskWords + w];
+            if (mask != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(mask);
+            }
+        }
+        return -1;
+    }
+
+    public int transpositionCount() {
+        return transpositions.length;
+    }
+
+    public int transpositionSize(int transposition) {
+        return transpositions[transposition].length;
+    }
+
+    /**
+     * @return the <code>i</code>-th vertex of a transposition, in topological order
+     */
+    public int transposed(int transposition, int i) {
+        return transpositions[transposition][i];
+    }
+
+    /**
+     * The transpositions a vertex is part of are addressed by <code>transpositionOffset(v) .. transpositionOffset(v + 1) - 1</code>.
+     */
+    public int transpositionOffset(int v) {
+        return transpositionOffsets[v];
+    }
+
+    public int vertexTransposition(int i) {
+        return vertexTranspositions[i];
+    }
+
+    public boolean hasWitness(int edge, int ordinal) {
+        return (edgeWitnesses[edge * maskWords + (ordinal >>> 6)] & (1L << ordinal)) != 0;
+    }
+
+    /**
+     * @return a live view of the witnesses of an edge, for callers expecting the object API
+     */
+    public Set<Witness> witnesses(int edge) {
+        return new AbstractSet<Witness>() {
+            @Override
+            public Iterator<Witness> iterator() {
+                return new Iterator<Witness>() {
+                    int next = nextWitness(edge, 0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    @Override
+                    public Witness next() {
+                        if (next < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        final Witness witness = witnesses[next];
+                        next = nextWitness(edge, next + 1);
+                        return witness;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (int w = 0; w < maskWords; w++) {
+                    size += Long.bitCount(edgeWitnesses[edge * maskWords + w]);
+                }
+                return size;
+            }
+        };
+    }
+
+    private int nextWitness(int edge, int from) {
+        for (int ordinal = from; ordinal < witnesses.length; ordinal++) {
+            if (hasWitness(edge, ordinal)) {
+                return ordinal;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of bytes held by the primitive arrays of this snapshot
+     */
+    public long footprint() {
+        return 4L * (compactIds.length + outgoingOffsets.length + targets.length
+                + incomingOffsets.length + sources.length + incomingEdges.length + ranks.length
+                + transpositionOffsets.length + vertexTranspositions.length)
+                + 8L * (edgeWitnesses.length + vertexWitnesses.length)
+                + 4L * (vertices.length + witnesses.length);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + size() + " vertices, " + edgeCount() + " edges, " + witnessCount() + " witnesses}";
+    }
+}
@@ -33,6 +33,15 @@ public class VariantGraph {
     final VariantGraph.Vertex start;
     final VariantGraph.Vertex end;
     final Map<Vertex, Set<Set<Vertex>>> transpositionIndex = new HashMap<>();
+    private int vertexIdBound = 0;
+    private final List<Witness> witnessRegistry = new ArrayList<>();
+    private final Map<Witness, Integer> witnessOrdinals = new HashMap<>();
+    private List<Vertex> topologicalOrder;
+    private int modifications = 0;
+    private int[] ranks = new int[16];
+    private boolean ranksValid = true;
+    private Vertex[] vertexById = new Vertex[16];
+    private final List<int[]> successors = new ArrayList<>();
 
     public VariantGraph() {
         super();
@@ -42,6 +51,7 @@ public class VariantGraph {
         Edge edge = new Edge();
         this.start.outgoing.put(this.end, edge);
         this.end.incoming.put(this.start, edge);
+        this.ranks[end.id] = 1;
     }
 
     public Vertex getStart() {
@@ -56,13 +66,185 @@ public class VariantGraph {
         return transpositionIndex.values().stream().flatMap(Set::stream).collect(Collectors.toSet());
     }
 
+    /**
+     * Every vertex of this graph carries a dense identifier in the range <code>[0, vertexIdBound())</code>,
+     * so per-vertex data can be kept in plain arrays instead of hash maps.
+     */
+    public int vertexIdBound() {
+        return vertexIdBound;
+    }
+
+    /**
+     * Counts the structural changes of this graph, i.e. vertices added, edges connected and vertices joined, so
+     * callers keeping data derived from the graph can tell whether it is still up to date.
+     */
+    public int modifications() {
+        return modifications;
+    }
+
+    /**
+     * Witnesses are registered with the graph the first time they are put on an edge; from then on
+     * they are identified by a dense ordinal, and sets of witnesses are stored as bit sets of ordinals.
+     *
+     * @return the ordinal of the given witness or <code>-1</code> if it is not part of this graph
+     */
+    public int witnessOrdinal(Witness witness) {
+        return witnessOrdinals.getOrDefault(witness, -1);
+    }
+
+    public int witnessOrdinalBound() {
+        return witnessRegistry.size();
+    }
+
+    public Witness witness(int ordinal) {
+        return witnessRegistry.get(ordinal);
+    }
+
+    /**
+     * @return the ordinals of the given witnesses or <code>null</code> if any of them is not part of this graph
+     */
+    public BitSet witnessMask(Collection<Witness> witnesses) {
+        final BitSet mask = new BitSet(witnessRegistry.size());
+        for (Witness witness : witnesses) {
+            final int ordinal = witnessOrdinal(witness);
+            if (ordinal < 0) {
+                return null;
+            }
+            mask.set(ordinal);
+        }
+        return mask;
+    }
+
+    private int register(Witness witness) {
+        return witnessOrdinals.computeIfAbsent(witness, w -> {
+            witnessRegistry.add(w);
+            return witnessRegistry.size() - 1;
+        });
+    }
+
     public Iterable<Vertex> vertices() {
         return VariantGraphTraversal.of(this);
     }
 
+    /**
+     * The topological order of the vertices is computed once and cached until the graph's structure
+     * changes via {@link #add(Token)}, {@link #connect(Vertex, Vertex, Set)} or {@link #JOIN}.
+     *
+     * @return all vertices in topological order, as a read-only list
+     */
+    public List<Vertex> topologicalOrder() {
+        if (topologicalOrder == null) {
+            topologicalOrder = Collections.unmodifiableList(VariantGraphTraversal.sort(this));
+        }
+        return topologicalOrder;
+    }
+
+    /**
+     * Ranks are kept up to date while vertices are connected: a new edge can only raise the rank of its
+     * target, so only the vertices downstream of it are revisited. After {@link #JOIN} all ranks are
+     * recomputed once, lazily.
+     *
+     * @return the length of the longest path from the start vertex to the given vertex
+     */
+    public int rank(Vertex vertex) {
+        if (!ranksValid) {
+            ranks = new int[Math.max(16, vertexIdBound)];
+            for (Vertex v : topologicalOrder()) {
+                int rank = -1;
+                for (Vertex incoming : v.incoming.keySet()) {
+                    rank = Math.max(rank, ranks[incoming.id]);
+                }
+                ranks[v.id] = rank + 1;
+            }
+            ranksValid = true;
+        }
+        return ranks[vertex.id];
+    }
+
+    private void raiseRanks(Vertex from, Vertex to) {
+        if (ranks[from.id] + 1 <= ranks[to.id]) {
+            return;
+        }
+        ranks[to.id] = ranks[from.id] + 1;
+        final Deque<Vertex> raised = new ArrayDeque<>();
+        raised.push(to);
+        while (!raised.isEmpty()) {
+            final Vertex vertex = raised.pop();
+            final int successorRank = ranks[vertex.id] + 1;
+            for (Vertex successor : vertex.outgoing.keySet()) {
+                if (ranks[successor.id] < successorRank) {
+                    ranks[successor.id] = successorRank;
+                    raised.push(successor);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every witness takes a single path through the graph. Its successor of each vertex is indexed by
+     * vertex id when vertices are connected, so a witness can be followed without inspecting any edge.
+     *
+     * @return the vertex following the given one in the given witness or <code>null</code> if there is none
+     */
+    public Vertex successor(Vertex vertex, Witness witness) {
+        final int ordinal = witnessOrdinal(witness);
+        if (ordinal < 0) {
+            return null;
+        }
+        final int[] witnessSuccessors = successors.get(ordinal);
+        final int successor = (vertex.id < witnessSuccessors.length ? witnessSuccessors[vertex.id] : -1);
+        return (successor < 0 ? null : vertexById[successor]);
+    }
+
+    /**
+     * @return the vertices the given witness passes through, from the start to the end vertex
+     */
+    public List<Vertex> path(Witness witness) {
+        final List<Vertex> path = new ArrayList<>();
+        for (Vertex vertex = start; vertex != null; vertex = successor(vertex, witness)) {
+            path.add(vertex);
+        }
+        return path;
+    }
+
+    /**
+     * @return the vertex containing the given token or <code>null</code> if it has not been merged into this graph
+     */
+    public Vertex vertex(Token token) {
+        for (Vertex vertex = successor(start, token.getWitness()); vertex != null; vertex = successor(vertex, token.getWitness())) {
+            if (vertex.tokens.contains(token)) {
+                return vertex;
+            }
+        }
+        return null;
+    }
+
+    private void setSuccessor(int ordinal, int vertex, int successor) {
+        while (successors.size() <= ordinal) {
+            successors.add(new int[0]);
+        }
+        int[] witnessSuccessors = successors.get(ordinal);
+        if (vertex >= witnessSuccessors.length) {
+            final int length = witnessSuccessors.length;
+            witnessSuccessors = Arrays.copyOf(witnessSuccessors, Math.max(vertexIdBound, Math.max(16, vertex + 1)));
+            Arrays.fill(witnessSuccessors, length, witnessSuccessors.length, -1);
+            successors.set(ordinal, witnessSuccessors);
+        }
+        witnessSuccessors[vertex] = successor;
+    }
+
+    /**
+     * @return an immutable snapshot of this graph, which can be shared between threads
+     */
+    public CompactVariantGraph freeze() {
+        return CompactVariantGraph.of(this);
+    }
+
     public Vertex add(Token token) {
         final VariantGraph.Vertex vertex = new VariantGraph.Vertex(this);
         vertex.tokens.add(token);
+        topologicalOrder = null;
+        modifications++;
         return vertex;
     }
 
@@ -74,12 +256,31 @@ public class VariantGraph {
         // First get existing edge or create new one
         // Outgoing and incoming edge is the same
         VariantGraph.Edge edge = from.outgoingEdges().getOrDefault(to, new Edge());
-        edge.sigla.addAll(witnesses);
+        for (Witness witness : witnesses) {
+            final int ordinal = register(witness);
+            edge.witnesses.set(ordinal);
+            to.witnesses.set(ordinal);
+            setSuccessor(ordinal, from.id, to.id);
+        }
         from.outgoingEdges().put(to, edge);
         to.incomingEdges().put(from, edge);
+        if (ranksValid) {
+            raiseRanks(from, to);
+        }
 
-        start.outgoing.remove(end);
-        end.incoming.remove(start);
+        if (start.outgoing.remove(end) != null) {
+            end.incoming.remove(start);
+            if (ranksValid) {
+                // the end vertex has no successors, so its rank is the only one this removal can lower
+                int rank = -1;
+                for (Vertex incoming : end.incoming.keySet()) {
+                    rank = Math.max(rank, ranks[incoming.id]);
+                }
+                ranks[end.id] = rank + 1;
+            }
+        }
+        topologicalOrder = null;
+        modifications++;
     }
 
     public Set<Vertex> transpose(Set<Vertex> vertices) {
@@ -99,7 +300,9 @@ public class VariantGraph {
     }
 
     public Set<Witness> witnesses() {
-        return start.outgoing().values().stream().flatMap(Collection::stream).collect(Collectors.toSet());
+        final BitSet witnesses = new BitSet(witnessRegistry.size());
+        start.outgoing.values().forEach(edge -> witnesses.or(edge.witnesses));
+        return new WitnessSet(witnesses);
     }
 
     @Override
@@ -114,12 +317,26 @@ public class VariantGraph {
      */
     public static class Vertex {
         private final VariantGraph graph;
-        private final Set<Token> tokens = new HashSet<>();
+        private final int id;
+        private final TokenSet tokens = new TokenSet();
         private final Map<VariantGraph.Vertex, VariantGraph.Edge> outgoing = new HashMap<>();
         private final Map<VariantGraph.Vertex, VariantGraph.Edge> incoming = new HashMap<>();
+        private final BitSet witnesses = new BitSet();
 
         public Vertex(VariantGraph graph) {
             this.graph = graph;
+            this.id = graph.vertexIdBound++;
+            if (id >= graph.ranks.length) {
+                graph.ranks = Arrays.copyOf(graph.ranks, Math.max(graph.ranks.length * 2, id + 1));
+            }
+            if (id >= graph.vertexById.length) {
+                graph.vertexById = Arrays.copyOf(graph.vertexById, Math.max(graph.vertexById.length * 2, id + 1));
+            }
+            graph.vertexById[id] = this;
+        }
+
+        public int id() {
+            return id;
         }
 
         //NOTE: legacy method!
@@ -148,8 +365,23 @@ public class VariantGraph {
             return tokens;
         }
 
+        /**
+         * @return the witnesses of all incoming edges, as a read-only view
+         */
         public Set<Witness> witnesses() {
-            return incoming().values().stream().flatMap(Set::stream).collect(Collectors.toSet());
+            return graph.new WitnessSet(witnesses);
+        }
+
+        /**
+         * @return whether all witnesses of the given mask (see {@link VariantGraph#witnessMask(Collection)}) pass through this vertex
+         */
+        public boolean hasWitnesses(BitSet mask) {
+            for (int ordinal = mask.nextSetBit(0); ordinal >= 0; ordinal = mask.nextSetBit(ordinal + 1)) {
+                if (!witnesses.get(ordinal)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         public void add(Iterable<Token> tokens) {
@@ -170,54 +402,266 @@ public class VariantGraph {
      * Note: not a value object
      */
     public class Edge {
+        /**
+         * The witnesses of this edge, as a read-only view; witnesses are added by {@link VariantGraph#connect(Vertex, Vertex, Set)},
+         * which also updates the witnesses of the target vertex and the witness paths.
+         */
         public final Set<Witness> sigla;
+        private final BitSet witnesses = new BitSet();
 
         public Edge() {
-            this.sigla = new HashSet<>();
+            this.sigla = new WitnessSet(witnesses);
+        }
+
+        public BitSet witnessMask() {
+            return witnesses;
         }
     }
 
-    public static final Function<VariantGraph, VariantGraph> JOIN = graph -> {
-        final Set<Vertex> processed = new HashSet<>();
-        final Deque<Vertex> queue = new ArrayDeque<>(graph.start.outgoing.keySet());
-
-        while (!queue.isEmpty()) {
-            final Vertex vertex = queue.pop();
-            final Set<Set<Vertex>> transpositions = new HashSet<>(vertex.transpositions());
-            if (vertex.outgoing.size() == 1) {
-                final Vertex joinCandidateVertex = vertex.outgoing.keySet().iterator().next();
-                final Set<Set<Vertex>> joinCandidateTranspositions = new HashSet<>(joinCandidateVertex.transpositions());
-
-                boolean canJoin = !graph.end.equals(joinCandidateVertex) && //
-                    joinCandidateVertex.incoming.size() == 1 && //
-                    transpositions.equals(joinCandidateTranspositions);
-                if (canJoin) {
-                    vertex.add(joinCandidateVertex.tokens());
-                    for (Set<Vertex> t : new HashSet<>(joinCandidateVertex.transpositions())) {
-                        final Set<Vertex> transposed = new HashSet<>(t);
-                        transposed.remove(joinCandidateVertex);
-                        transposed.add(vertex);
-                        for (Vertex tv : t) {
-                            graph.transpositionIndex.getOrDefault(tv, Collections.emptySet()).remove(t);
-                        }
-                        graph.transpose(transposed);
+    /**
+     * The tokens of a vertex, stored in a plain array. Most vertices hold one token per witness, so membership is
+     * tested by a linear scan; only vertices holding many tokens, i.e. after chains have been joined, get a hash index.
+     */
+    static class TokenSet extends AbstractSet<Token> {
+        private static final Token[] EMPTY = new Token[0];
+        private static final int LINEAR_SCAN_LIMIT = 8;
+
+        private Token[] tokens = EMPTY;
+        private int size;
+        private Set<Token> index;
+
+        @Override
+        public boolean add(Token token) {
+            if (contains(token)) {
+                return false;
+            }
+            if (size == tokens.length) {
+                tokens = Arrays.copyOf(tokens, Math.max(1, size * 2));
+            }
+            tokens[size++] = token;
+            if (index != null) {
+                index.add(token);
+            } else if (size > LINEAR_SCAN_LIMIT) {
+                index = new HashSet<>(Arrays.asList(tokens).subList(0, size));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (index != null) {
+                return index.contains(o);
+            }
+            for (int t = 0; t < size; t++) {
+                if (tokens[t].equals(o)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<Token> iterator() {
+            return new Iterator<Token>() {
+                int next = 0;
+                int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public Token next() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
                     }
+                    last = next;
+                    return tokens[next++];
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+                    if (index != null) {
+                        index.remove(tokens[last]);
+                    }
+                    System.arraycopy(tokens, last + 1, tokens, last, size - last - 1);
+                    tokens[--size] = null;
+                    next = last;
+                    last = -1;
+                }
+            };
+        }
 
-                    vertex.outgoing.clear();
-                    vertex.outgoing.putAll(joinCandidateVertex.outgoing);
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 
-                    vertex.outgoing.keySet().forEach(v -> v.incoming.put(vertex, v.incoming.remove(joinCandidateVertex)));
+    /**
+     * A set of witnesses backed by a bit set of their ordinals in this graph.
+     */
+    private class WitnessSet extends AbstractSet<Witness> {
+        final BitSet witnesses;
 
-                    queue.push(vertex);
-                    continue;
+        WitnessSet(BitSet witnesses) {
+            this.witnesses = witnesses;
+        }
+
+        @Override
+        public Iterator<Witness> iterator() {
+            return new Iterator<Witness>() {
+                int next = witnesses.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
                 }
+
+                @Override
+                public Witness next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    final Witness witness = witnessRegistry.get(next);
+                    next = witnesses.nextSetBit(next + 1);
+                    return witness;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return witnesses.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            final Integer ordinal = witnessOrdinals.get(o);
+            return ordinal != null && witnesses.get(ordinal);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof WitnessSet && ((WitnessSet) o).graph() == VariantGraph.this) {
+                return witnesses.equals(((WitnessSet) o).witnesses);
             }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
 
-            // FIXME: Why do we run out of memory in some cases here, if this is not checked?
-            processed.add(vertex);
-            vertex.outgoing.keySet().stream().filter(v -> !processed.contains(v)).forEach(queue::push);
+        private VariantGraph graph() {
+            return VariantGraph.this;
         }
+    }
 
+    public static final Function<VariantGraph, VariantGraph> JOIN = graph -> {
+        graph.join();
         return graph;
     };
+
+    /**
+     * Joins all maximal chains of vertices, in which every vertex but the last has a single successor, every
+     * vertex but the first has a single predecessor and all vertices are part of the same transpositions.
+     * <p>
+     * Chains are found in one topological sweep and collapsed into their first vertex in place; transpositions
+     * are rewritten afterwards by mapping each joined vertex to the vertex it has been joined into.
+     *
+     * @return the number of vertices, which have been joined into others and removed from the graph
+     */
+    public int join() {
+        final List<Vertex> vertices = topologicalOrder();
+        final Vertex[] joinedInto = new Vertex[vertexIdBound];
+        int joined = 0;
+        for (Vertex vertex : vertices) {
+            if (vertex == start || joinedInto[vertex.id] != null) {
+                continue;
+            }
+            while (vertex.outgoing.size() == 1) {
+                final Vertex candidate = vertex.outgoing.keySet().iterator().next();
+                if (candidate == end || candidate.incoming.size() != 1 || !sameTranspositions(vertex, candidate, joinedInto)) {
+                    break;
+                }
+                vertex.tokens.addAll(candidate.tokens);
+                for (int ordinal = candidate.witnesses.nextSetBit(0); ordinal >= 0; ordinal = candidate.witnesses.nextSetBit(ordinal + 1)) {
+                    final int[] witnessSuccessors = successors.get(ordinal);
+                    witnessSuccessors[vertex.id] = (candidate.id < witnessSuccessors.length ? witnessSuccessors[candidate.id] : -1);
+                    if (candidate.id < witnessSuccessors.length) {
+                        witnessSuccessors[candidate.id] = -1;
+                    }
+                }
+
+                vertex.outgoing.clear();
+                for (Map.Entry<Vertex, Edge> outgoing : candidate.outgoing.entrySet()) {
+                    final Vertex successor = outgoing.getKey();
+                    successor.incoming.remove(candidate);
+                    successor.incoming.put(vertex, outgoing.getValue());
+                    vertex.outgoing.put(successor, outgoing.getValue());
+                }
+                candidate.outgoing.clear();
+                candidate.incoming.clear();
+
+                joinedInto[candidate.id] = vertex;
+                vertexById[candidate.id] = null;
+                joined++;
+            }
+        }
+
+        if (joined > 0) {
+            if (!transpositionIndex.isEmpty()) {
+                final Set<Set<Vertex>> transpositions = new HashSet<>();
+                for (Set<Set<Vertex>> vertexTranspositions : transpositionIndex.values()) {
+                    for (Set<Vertex> transposition : vertexTranspositions) {
+                        transpositions.add(remap(transposition, joinedInto));
+                    }
+                }
+                transpositionIndex.clear();
+                for (Set<Vertex> transposition : transpositions) {
+                    for (Vertex vertex : transposition) {
+                        transpositionIndex.computeIfAbsent(vertex, v -> new HashSet<>()).add(transposition);
+                    }
+                }
+            }
+            topologicalOrder = null;
+            ranksValid = false;
+            modifications++;
+        }
+        return joined;
+    }
+
+    private static boolean sameTranspositions(Vertex a, Vertex b, Vertex[] joinedInto) {
+        final Set<Set<Vertex>> aTranspositions = a.transpositions();
+        final Set<Set<Vertex>> bTranspositions = b.transpositions();
+        if (aTranspositions.isEmpty() || bTranspositions.isEmpty()) {
+            return aTranspositions.isEmpty() && bTranspositions.isEmpty();
+        }
+        return remapAll(aTranspositions, joinedInto).equals(remapAll(bTranspositions, joinedInto));
+    }
+
+    private static Set<Set<Vertex>> remapAll(Set<Set<Vertex>> transpositions, Vertex[] joinedInto) {
+        final Set<Set<Vertex>> remapped = new HashSet<>();
+        for (Set<Vertex> transposition : transpositions) {
+            remapped.add(remap(transposition, joinedInto));
+        }
+        return remapped;
+    }
+
+    private static Set<Vertex> remap(Set<Vertex> transposition, Vertex[] joinedInto) {
+        final Set<Vertex> remapped = new HashSet<>();
+        for (Vertex vertex : transposition) {
+            while (joinedInto[vertex.id] != null) {
+                vertex = joinedInto[vertex.id];
+            }
+            remapped.add(vertex);
+        }
+        return remapped;
+    }
 }
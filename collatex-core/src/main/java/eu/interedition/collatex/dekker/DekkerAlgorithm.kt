@@ -22,21 +22,44 @@ import eu.interedition.collatex.CollationAlgorithm
 import eu.interedition.collatex.Token
 import eu.interedition.collatex.VariantGraph
 import eu.interedition.collatex.Witness
+import eu.interedition.collatex.dekker.island.AnchoredConflictResolver
 import eu.interedition.collatex.dekker.island.Island
 import eu.interedition.collatex.dekker.island.IslandCollection
 import eu.interedition.collatex.dekker.island.IslandConflictResolver
+import eu.interedition.collatex.dekker.token_index.CandidatePruning
+import eu.interedition.collatex.dekker.token_index.IncrementalTokenIndex
+import eu.interedition.collatex.dekker.token_index.MappedTokenIndex
 import eu.interedition.collatex.dekker.token_index.TokenIndex
 import eu.interedition.collatex.dekker.token_index.TokenIndexToMatches
 import eu.interedition.collatex.matching.EqualityTokenComparator
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder
+import eu.interedition.collatex.suffixarray.SAIS
 import eu.interedition.collatex.util.StreamUtil
 import eu.interedition.collatex.util.VariantGraphRanking
 import java.util.*
+import java.util.concurrent.ForkJoinPool
 import java.util.logging.Level
 import java.util.stream.Collectors
 
-class DekkerAlgorithm @JvmOverloads constructor(private val comparator: Comparator<Token> = EqualityTokenComparator()) : CollationAlgorithm.Base(), InspectableCollationAlgorithm {
+class DekkerAlgorithm @JvmOverloads constructor(private val comparator: Comparator<Token> = EqualityTokenComparator(), private val suffixArrayBuilder: ISuffixArrayBuilder = SAIS()) : CollationAlgorithm.Base(), InspectableCollationAlgorithm {
     var tokenIndex: TokenIndex? = null
 
+    // a prepared token index of a corpus, which witnesses to collate are looked up in instead of being indexed anew
+    var corpusIndex: MappedTokenIndex? = null
+
+    // limits the graph instances of high-frequency blocks matched with each witness instance, counting the pruned ones
+    var candidatePruning: CandidatePruning? = null
+
+    // anchored mode: islands of blocks occurring at most once in every witness, of at least this many tokens, are
+    // committed first and the islands between them selected in parallel on the anchor pool; 0 selects all islands at once
+    var minimumAnchorSize = 0
+    var anchorPool: ForkJoinPool = ForkJoinPool.commonPool()
+
+    // progressive alignment: the index of the witnesses aligned one at a time with the graph
+    private var incrementalIndex: IncrementalTokenIndex? = null
+    private var progressiveGraph: VariantGraph? = null
+    private var progressiveModifications = 0
+
     // tokens are mapped to vertices by their position in the token array
     @JvmField
     var vertex_array: Array<VariantGraph.Vertex?>? = null
@@ -61,8 +84,15 @@ class DekkerAlgorithm @JvmOverloads constructor(private val comparator: Comparat
         if (LOG.isLoggable(Level.FINE)) {
             LOG.fine("Building token index from the tokens of all witnesses")
         }
-        tokenIndex = TokenIndex(comparator, witnesses)
-        tokenIndex!!.prepare()
+        progressiveGraph = null
+        val corpusIndex = corpusIndex
+        if (corpusIndex != null) {
+            tokenIndex = corpusIndex.tokenIndex(comparator, witnesses)
+        } else {
+            tokenIndex = TokenIndex(comparator, witnesses, suffixArrayBuilder)
+            tokenIndex!!.prepare()
+        }
+        tokenIndex!!.releaseLCP()
 
         // phase 2: alignment phase
         vertex_array = arrayOfNulls(tokenIndex!!.token_array!!.size)
@@ -72,11 +102,12 @@ class DekkerAlgorithm @JvmOverloads constructor(private val comparator: Comparat
                 .findFirst()
                 .map { obj: Token -> obj.witness }
                 .orElseThrow { IllegalArgumentException("Empty witness") }
+            val witnessStart = tokenIndex!!.getStartTokenPositionForWitness(witness)
+            val witnessLength = tokenIndex!!.getEndTokenPositionForWitness(witness) - witnessStart
 
             // first witness has a fast path
             if (firstWitness) {
-                super.merge(graph, tokens, emptyMap())
-                updateTokenToVertexArray(tokens, witness)
+                merge(graph, tokens, arrayOfNulls(witnessLength), vertex_array!!, witnessStart)
                 firstWitness = false
                 continue
             }
@@ -90,110 +121,187 @@ class DekkerAlgorithm @JvmOverloads constructor(private val comparator: Comparat
             if (LOG.isLoggable(Level.FINE)) {
                 LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from token index", arrayOf(graph, witness))
             }
-            allPossibleIslands = TokenIndexToMatches.createMatches(tokenIndex!!, vertex_array!!, graph, tokens)
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Aligning witness and graph", arrayOf(graph, witness))
-            }
+            allPossibleIslands = TokenIndexToMatches.createMatches(tokenIndex!!, vertex_array!!, graph, tokens, candidatePruning)
+            align(graph, tokens, witness, witnessStart, witnessLength, tokenIndex!!.token_array!!.asList())
+        }
+    }
 
-            // Phase 2b: do the actual alignment
-            val resolver = IslandConflictResolver(IslandCollection(allPossibleIslands))
-            preferredIslands = resolver.createNonConflictingVersion().islands
+    // Phase 2b-d: align the witness to the graph by the possible islands, detect transpositions and merge
+    private fun align(graph: VariantGraph, tokens: Iterable<Token>, witness: Witness, witnessStart: Int, witnessLength: Int, indexTokens: List<Token>) {
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Aligning witness and graph", arrayOf(graph, witness))
+        }
 
-            // we need to convert the islands into Map<Token, Vertex> for further processing
-            val alignments: MutableMap<Token, VariantGraph.Vertex> = HashMap()
-            for (island in preferredIslands!!.listIterator()) {
-                for (c in island) {
-                    alignments[c.match.token!!] = c.match.vertex
-                }
+        // Phase 2b: do the actual alignment
+        preferredIslands = if (minimumAnchorSize > 0) {
+            AnchoredConflictResolver(allPossibleIslands!!, minimumAnchorSize, anchorPool).createNonConflictingVersion()
+        } else {
+            IslandConflictResolver(IslandCollection(allPossibleIslands)).createNonConflictingVersion().islands
+        }
+
+        // we need to convert the islands into the vertex aligned with each position in the witness for further processing
+        val alignments = arrayOfNulls<VariantGraph.Vertex>(witnessLength)
+        for (island in preferredIslands!!.listIterator()) {
+            for (c in island) {
+                alignments[c.row] = c.match.vertex
             }
-            if (LOG.isLoggable(Level.FINER)) {
-                for ((key, value) in alignments) {
-                    LOG.log(Level.FINER, "{0} + {1}: Aligned token (incl transposed): {2} = {3}", arrayOf(graph, witness, value, key))
+        }
+        // a vertex is aligned with one token at most, so we can find the position of its token again
+        val alignedPosition = IntArray(graph.vertexIdBound())
+        for ((position, vertex) in alignments.withIndex()) {
+            if (vertex != null) {
+                alignedPosition[vertex.id()] = position
+                if (LOG.isLoggable(Level.FINER)) {
+                    LOG.log(Level.FINER, "{0} + {1}: Aligned token (incl transposed): {2} = {3}", arrayOf(graph, witness, vertex, indexTokens[witnessStart + position]))
                 }
             }
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Detect phrase matches", arrayOf(graph, witness))
-            }
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Detect phrase matches", arrayOf(graph, witness))
+        }
 
-            // Phase 2c: detect phrases and transpositions
-            phraseMatches = phraseMatchDetector.detect(alignments, graph, tokens)
-            if (LOG.isLoggable(Level.FINER)) {
-                for (phraseMatch in phraseMatches!!.listIterator()) {
-                    LOG.log(Level.FINER, "{0} + {1}: Phrase match: {2}", arrayOf(graph, witness, phraseMatch))
-                }
+        // Phase 2c: detect phrases and transpositions
+        phraseMatches = phraseMatchDetector.detect(alignments, graph, tokens)
+        if (LOG.isLoggable(Level.FINER)) {
+            for (phraseMatch in phraseMatches!!.listIterator()) {
+                LOG.log(Level.FINER, "{0} + {1}: Phrase match: {2}", arrayOf(graph, witness, phraseMatch))
             }
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Detect transpositions", arrayOf(graph, witness))
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Detect transpositions", arrayOf(graph, witness))
+        }
+        transpositions = transpositionDetector.detect(phraseMatches, graph)
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "transpositions:{0}", transpositions)
+        }
+        if (LOG.isLoggable(Level.FINER)) {
+            for (transposition in transpositions!!.listIterator()) {
+                LOG.log(Level.FINER, "{0} + {1}: Transposition: {2}", arrayOf(graph, witness, transposition))
             }
-            transpositions = transpositionDetector.detect(phraseMatches, graph)
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "transpositions:{0}", transpositions)
+        }
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "{0} + {1}: Determine aligned tokens by filtering transpositions", arrayOf(graph, witness))
+        }
+
+        // Filter out transposed tokens from aligned tokens
+        for (transposedPhrase in transpositions!!.listIterator()) {
+            for (match in transposedPhrase) {
+                alignments[alignedPosition[match.vertex.id()]] = null
             }
-            if (LOG.isLoggable(Level.FINER)) {
-                for (transposition in transpositions!!.listIterator()) {
-                    LOG.log(Level.FINER, "{0} + {1}: Transposition: {2}", arrayOf(graph, witness, transposition))
+        }
+        if (LOG.isLoggable(Level.FINER)) {
+            for ((position, vertex) in alignments.withIndex()) {
+                if (vertex != null) {
+                    LOG.log(Level.FINER, "{0} + {1}: Alignment: {2} = {3}", arrayOf(graph, witness, vertex, indexTokens[witnessStart + position]))
                 }
             }
-            if (LOG.isLoggable(Level.FINE)) {
-                LOG.log(Level.FINE, "{0} + {1}: Determine aligned tokens by filtering transpositions", arrayOf(graph, witness))
-            }
+        }
 
-            // Filter out transposed tokens from aligned tokens
-            for (transposedPhrase in transpositions!!.listIterator()) {
-                for (match in transposedPhrase) {
-                    alignments.remove(match.token)
-                }
+        // Phase 2d: and merge
+        merge(graph, tokens, alignments, vertex_array!!, witnessStart)
+        val mergedVertex = { match: Match -> vertex_array!![witnessStart + alignedPosition[match.vertex.id()]]!! }
+
+        // we filter out small transposed phrases over large distances
+        val falseTranspositions: MutableList<List<Match>> = ArrayList()
+
+        // rank the variant graph
+        val ranking = VariantGraphRanking.of(graph)
+        for (transposedPhrase in transpositions!!.listIterator()) {
+            val match = transposedPhrase[0]
+            val v1 = mergedVertex(match)
+            val v2 = match.vertex
+            val distance = Math.abs(ranking.rank(v1) - ranking.rank(v2)) - 1
+            if (distance > transposedPhrase.size * 3) {
+                falseTranspositions.add(transposedPhrase)
             }
-            if (LOG.isLoggable(Level.FINER)) {
-                for ((key, value) in alignments) {
-                    LOG.log(Level.FINER, "{0} + {1}: Alignment: {2} = {3}", arrayOf(graph, witness, value, key))
-                }
+        }
+        transpositions!!.removeAll(falseTranspositions)
+
+        // merge transpositions
+        if (mergeTranspositions) {
+            mergeTranspositions(graph, transpositions, mergedVertex)
+        }
+        if (LOG.isLoggable(Level.FINER)) {
+            LOG.log(Level.FINER, "!{0}: {1}", arrayOf(graph, StreamUtil.stream(graph.vertices()).map { obj: VariantGraph.Vertex -> obj.toString() }.collect(Collectors.joining(", "))))
+        }
+    }
+
+    /**
+     * Aligns a single witness with the graph. The witnesses are indexed one at a time by an [IncrementalTokenIndex],
+     * which is kept as long as witnesses are added to the same graph and the graph is not changed in between; the
+     * witnesses already in a graph are indexed from the graph when progressive alignment (re)starts.
+     */
+    override fun collate(graph: VariantGraph, tokens: Iterable<Token>) {
+        val witness = StreamUtil.stream(tokens)
+            .findFirst()
+            .map { obj: Token -> obj.witness }
+            .orElseThrow { IllegalArgumentException("Empty witness") }
+        if (graph !== progressiveGraph || graph.modifications() != progressiveModifications) {
+            // the graph has been changed since the last witness was aligned with it, e.g. by joining vertices
+            indexGraph(graph)
+        }
+        val index = incrementalIndex!!
+        index.add(tokens)
+        ensureVertexArrayCapacity(index.size())
+        val witnessStart = index.getStartTokenPositionForWitness(witness)
+        val witnessLength = index.getEndTokenPositionForWitness(witness) - witnessStart
+
+        // first witness has a fast path
+        if (index.witnessCount() == 1) {
+            merge(graph, tokens, arrayOfNulls(witnessLength), vertex_array!!, witnessStart)
+        } else {
+            if (LOG.isLoggable(Level.FINE)) {
+                LOG.log(Level.FINE, "{0} + {1}: Gather matches between variant graph and witness from incremental token index", arrayOf(graph, witness))
             }
+            allPossibleIslands = TokenIndexToMatches.createMatches(index, vertex_array!!, graph, tokens, candidatePruning)
+            align(graph, tokens, witness, witnessStart, witnessLength, index.tokens())
+        }
+        progressiveModifications = graph.modifications()
+    }
 
-            // Phase 2d: and merge
-            merge(graph, tokens, alignments)
-
-            // we filter out small transposed phrases over large distances
-            val falseTranspositions: MutableList<List<Match>> = ArrayList()
-
-            // rank the variant graph
-            val ranking = VariantGraphRanking.of(graph)
-            for (transposedPhrase in transpositions!!.listIterator()) {
-                val match = transposedPhrase[0]
-                val v1 = witnessTokenVertices[match.token]
-                val v2 = match.vertex
-                val distance = Math.abs(ranking.apply(v1) - ranking.apply(v2)) - 1
-                if (distance > transposedPhrase.size * 3) {
-                    falseTranspositions.add(transposedPhrase)
+    // starts progressive alignment with a new incremental token index of the witnesses in the graph
+    private fun indexGraph(graph: VariantGraph) {
+        val index = IncrementalTokenIndex(comparator)
+        incrementalIndex = index
+        progressiveGraph = graph
+        tokenIndex = null
+        vertex_array = arrayOfNulls(0)
+        // the path of a witness visits its vertices in topological order
+        val witnesses = graph.witnesses()
+        for (ordinal in 0 until graph.witnessOrdinalBound()) {
+            val witness = graph.witness(ordinal)
+            if (!witnesses.contains(witness)) {
+                continue
+            }
+            val witnessTokens: MutableList<Token> = ArrayList()
+            val vertices: MutableList<VariantGraph.Vertex> = ArrayList()
+            for (vertex in graph.path(witness)) {
+                for (token in vertex.tokens()) {
+                    if (token.witness == witness) {
+                        witnessTokens.add(token)
+                        vertices.add(vertex)
+                    }
                 }
             }
-            transpositions!!.removeAll(falseTranspositions)
-
-            // merge transpositions
-            if (mergeTranspositions) {
-                mergeTranspositions(graph, transpositions)
+            if (witnessTokens.isEmpty()) {
+                continue
             }
-            updateTokenToVertexArray(tokens, witness)
-            if (LOG.isLoggable(Level.FINER)) {
-                LOG.log(Level.FINER, "!{0}: {1}", arrayOf(graph, StreamUtil.stream(graph.vertices()).map { obj: VariantGraph.Vertex -> obj.toString() }.collect(Collectors.joining(", "))))
+            val witnessStart = index.size()
+            index.add(witnessTokens)
+            ensureVertexArrayCapacity(index.size())
+            for ((position, vertex) in vertices.withIndex()) {
+                vertex_array!![witnessStart + position] = vertex
             }
         }
     }
 
-    private fun updateTokenToVertexArray(tokens: Iterable<Token>, witness: Witness) {
-        // we need to update the token -> vertex map
-        // that information is stored in protected map
-        var tokenPosition = tokenIndex!!.getStartTokenPositionForWitness(witness)
-        for (token in tokens) {
-            val vertex = witnessTokenVertices[token]
-            vertex_array!![tokenPosition] = vertex
-            tokenPosition++
+    private fun ensureVertexArrayCapacity(size: Int) {
+        val vertices = vertex_array!!
+        if (vertices.size < size) {
+            vertex_array = vertices.copyOf(Math.max(size, 2 * vertices.size))
         }
     }
 
-    override fun collate(graph: VariantGraph, tokens: Iterable<Token>) {
-        throw RuntimeException("Progressive alignment is not supported!")
-    }
 
     override fun getPhraseMatches(): List<List<Match>> {
         return Collections.unmodifiableList(phraseMatches)
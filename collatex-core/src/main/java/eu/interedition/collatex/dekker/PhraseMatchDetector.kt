@@ -28,25 +28,36 @@ import java.util.*
  */
 class PhraseMatchDetector {
     fun detect(linkedTokens: Map<Token, VariantGraph.Vertex>, base: VariantGraph, tokens: Iterable<Token>): List<List<Match>> {
+        return detect(base, tokens) { token, _ -> linkedTokens[token] }
+    }
+
+    /**
+     * @param linkedTokens the vertex the token at each position of the witness is linked to, or `null`
+     */
+    fun detect(linkedTokens: Array<VariantGraph.Vertex?>, base: VariantGraph, tokens: Iterable<Token>): List<List<Match>> {
+        return detect(base, tokens) { _, position -> linkedTokens[position] }
+    }
+
+    private inline fun detect(base: VariantGraph, tokens: Iterable<Token>, linkedVertex: (Token, Int) -> VariantGraph.Vertex?): List<List<Match>> {
         val phraseMatches: MutableList<List<Match>> = ArrayList()
         val basePhrase: MutableList<VariantGraph.Vertex> = ArrayList()
         val witnessPhrase: MutableList<Token> = ArrayList()
         var previous = base.start
-        for (token in tokens) {
-            if (!linkedTokens.containsKey(token)) {
+        for ((position, token) in tokens.withIndex()) {
+            val baseVertex = linkedVertex(token, position)
+            if (baseVertex == null) {
                 addNewPhraseMatchAndClearBuffer(phraseMatches, basePhrase, witnessPhrase)
                 continue
             }
-            val baseVertex = linkedTokens[token]
             // requirements:
             // - previous and base vertex should have the same witnesses
             // - previous and base vertex should either be in the same transposition(s) or both aren't in any transpositions
             // - there should be a directed edge between previous and base vertex
             // - there may not be a longer path between previous and base vertex
-            val sameTranspositions = HashSet(previous!!.transpositions()) == HashSet(baseVertex!!.transpositions())
+            val sameTranspositions = HashSet(previous!!.transpositions()) == HashSet(baseVertex.transpositions())
             val sameWitnesses = previous.witnesses() == baseVertex.witnesses()
-            val directedEdge = previous.outgoing().containsKey(baseVertex)
-            val isNear = sameTranspositions && sameWitnesses && directedEdge && (previous.outgoing().size == 1 || baseVertex.incoming().size == 1)
+            val directedEdge = previous.outgoingEdges().containsKey(baseVertex)
+            val isNear = sameTranspositions && sameWitnesses && directedEdge && (previous.outgoingEdges().size == 1 || baseVertex.incomingEdges().size == 1)
             if (!isNear) {
                 addNewPhraseMatchAndClearBuffer(phraseMatches, basePhrase, witnessPhrase)
             }
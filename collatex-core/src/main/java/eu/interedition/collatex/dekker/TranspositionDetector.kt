@@ -22,11 +22,8 @@ import eu.interedition.collatex.VariantGraph
 import eu.interedition.collatex.simple.SimpleToken
 import eu.interedition.collatex.util.VariantGraphRanking
 import java.util.*
-import kotlin.Comparator
 import kotlin.collections.ArrayList
-import kotlin.collections.HashMap
 import kotlin.collections.HashSet
-import kotlin.collections.LinkedHashMap
 import kotlin.math.abs
 
 /**
@@ -48,109 +45,27 @@ class TranspositionDetector {
          * to differentiate.
          */
         val ranking = rankTheGraph(phraseMatchesWitnessOrder, base)
-
-        val comp = Comparator { pm1:List<Match>, pm2: List<Match> ->
-            val rank1 = ranking.apply(pm1[0].vertex)
-            val rank2 = ranking.apply(pm2[0].vertex)
-            val difference = rank1 - rank2
-            when {
-                difference != 0 -> difference
-                else -> {
-                    val index1 = phraseMatchesWitnessOrder.indexOf(pm1)
-                    val index2 = phraseMatchesWitnessOrder.indexOf(pm2)
-                    index1 - index2
-                }
-            }
-        }
-
-        val phraseMatchesGraphOrder: List<List<Match>> = phraseMatchesWitnessOrder.sortedWith(comp)
-
-        // Map 1
-        val phraseMatchToGraphIndex: MutableMap<List<Match>, Int> = HashMap()
-        for (i in phraseMatchesGraphOrder.indices) {
-            phraseMatchToGraphIndex[phraseMatchesGraphOrder[i]] = i
+        val graphOrder = LongArray(phraseMatchesWitnessOrder.size) {
+            (ranking.rank(phraseMatchesWitnessOrder[it][0].vertex).toLong() shl 32) or it.toLong()
         }
+        Arrays.sort(graphOrder)
 
         /*
-         * We calculate the index for all the phrase matches
-         * First in witness order, then in graph order
+         * We calculate the index in graph order for all the phrase matches in witness order
          */
-        val phraseMatchesWitnessIndex: MutableList<Int?> = ArrayList()
-        val phraseMatchesGraphIndex: MutableList<Int?> = ArrayList()
-        for (i in phraseMatchesWitnessOrder.indices) {
-            phraseMatchesWitnessIndex.add(i)
-        }
-        for (phraseMatch in phraseMatchesWitnessOrder) {
-            phraseMatchesGraphIndex.add(phraseMatchToGraphIndex[phraseMatch])
+        val graphIndex = IntArray(graphOrder.size)
+        for (i in graphOrder.indices) {
+            graphIndex[graphOrder[i].toInt()] = i
         }
+        val size = IntArray(graphOrder.size) { determineSize(phraseMatchesWitnessOrder[it]) }
 
-        // DEBUG
-        // println(phraseMatchesGraphIndex)
-        // println(phraseMatchesWitnessIndex)
-
-        /*
-         * Initialize result variables
-         */
-        val nonTransposedPhraseMatches: MutableList<List<Match>> = ArrayList(phraseMatchesWitnessOrder)
         val transpositions: MutableList<List<Match>> = ArrayList()
-
-        /*
-         * loop here until the maximum distance == 0
-         */
-        while (true) {
-            // Map 2
-            val phraseMatchToDistanceMap: MutableMap<List<Match>, Int> = LinkedHashMap()
-            for (i in nonTransposedPhraseMatches.indices) {
-                val graphIndex = phraseMatchesGraphIndex[i]
-                val witnessIndex = phraseMatchesWitnessIndex[i]
-                val distance = abs(graphIndex!! - witnessIndex!!)
-                val phraseMatch = nonTransposedPhraseMatches[i]
-                phraseMatchToDistanceMap[phraseMatch] = distance
-            }
-            val distanceList: List<Int> = ArrayList(phraseMatchToDistanceMap.values)
-            // DEBUG
-            // println(distanceList)
-            if (distanceList.isEmpty() || Collections.max(distanceList) == 0) {
-                break
-            }
-
-            // sort phrase matches on distance, size
-            // TODO: order by 3) graph rank?
-            // TODO: I have not yet found evidence/a use case that
-            // TODO: indicates that it is needed.
-            val comp2 = Comparator { pm1: List<Match>, pm2: List<Match> ->
-                // first order by distance
-                val distance1 = phraseMatchToDistanceMap[pm1]!!
-                val distance2 = phraseMatchToDistanceMap[pm2]!!
-                val difference = distance2 - distance1
-                when {
-                    difference != 0 -> difference
-                    else -> determineSize(pm1) - determineSize(pm2)
-                }
-            }
-            val sortedPhraseMatches: MutableList<List<Match>> = ArrayList(nonTransposedPhraseMatches.sortedWith(comp2))
-            val transposedPhrase: List<Match> = sortedPhraseMatches.removeAt(0)
-            val transposedIndex = phraseMatchToGraphIndex[transposedPhrase]
-            val graphIndex = phraseMatchesGraphIndex.indexOf(transposedIndex)
-            val transposedWithIndex = phraseMatchesWitnessIndex[graphIndex]
-            val linkedTransposedPhrase = phraseMatchesGraphOrder[transposedWithIndex!!]
-            addTransposition(phraseMatchToGraphIndex, phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, transposedPhrase)
-            val distance = phraseMatchToDistanceMap[transposedPhrase]
-            if (distance == phraseMatchToDistanceMap[linkedTransposedPhrase] && distance!! > 1) {
-                addTransposition(phraseMatchToGraphIndex, phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, linkedTransposedPhrase)
-            }
+        for (transposed in transpositions(graphIndex, size)) {
+            transpositions.add(phraseMatchesWitnessOrder[transposed])
         }
         return transpositions
     }
 
-    private fun addTransposition(phraseMatchToIndex: Map<List<Match>, Int>, phraseWitnessRanks: MutableList<Int?>, phraseGraphRanks: MutableList<Int?>, nonTransposedPhraseMatches: MutableList<List<Match>>, transpositions: MutableList<List<Match>>, transposedPhrase: List<Match>) {
-        val indexToRemove = phraseMatchToIndex[transposedPhrase]
-        nonTransposedPhraseMatches.remove(transposedPhrase)
-        transpositions.add(transposedPhrase)
-        phraseGraphRanks.remove(indexToRemove)
-        phraseWitnessRanks.remove(indexToRemove)
-    }
-
     private fun rankTheGraph(phraseMatches: List<List<Match>>, base: VariantGraph): VariantGraphRanking {
         // rank the variant graph
         val matchedVertices: MutableSet<VariantGraph.Vertex> = HashSet()
@@ -177,4 +92,156 @@ class TranspositionDetector {
         }
         return charLength
     }
-}
\ No newline at end of file
+
+    /*
+     * Phrase matches ordered by distance (descending), size and witness order, the first one
+     * being the next to transpose. A tournament tree over the phrase matches in witness order,
+     * so distances can be updated and matches removed in logarithmic time.
+     */
+    private class DistanceQueue(private val size: IntArray, graphIndex: IntArray) {
+        val distance = IntArray(size.size) { abs(graphIndex[it] - it) }
+        private val leaves: Int
+        private val tree: IntArray
+
+        init {
+            var leaves = 1
+            while (leaves < size.size) {
+                leaves = leaves shl 1
+            }
+            this.leaves = leaves
+            tree = IntArray(2 * leaves) { if (it >= leaves && it - leaves < size.size) it - leaves else -1 }
+            for (node in leaves - 1 downTo 1) {
+                tree[node] = first(tree[2 * node], tree[2 * node + 1])
+            }
+        }
+
+        // the next phrase match to transpose, -1 if there is none left
+        fun top(): Int {
+            return tree[1]
+        }
+
+        fun update(phraseMatch: Int, distance: Int) {
+            this.distance[phraseMatch] = distance
+            replace(phraseMatch, phraseMatch)
+        }
+
+        fun remove(phraseMatch: Int) {
+            replace(phraseMatch, -1)
+        }
+
+        private fun replace(phraseMatch: Int, value: Int) {
+            var node = leaves + phraseMatch
+            tree[node] = value
+            node = node shr 1
+            while (node > 0) {
+                tree[node] = first(tree[2 * node], tree[2 * node + 1])
+                node = node shr 1
+            }
+        }
+
+        // phrase matches on the left come first in witness order
+        private fun first(left: Int, right: Int): Int {
+            if (left < 0 || right < 0) {
+                return if (left < 0) right else left
+            }
+            return when {
+                distance[left] != distance[right] -> if (distance[left] > distance[right]) left else right
+                size[left] != size[right] -> if (size[left] < size[right]) left else right
+                else -> left
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Detects transpositions between the witness order and the graph order of phrase matches.
+         *
+         * The distance of a phrase match is the difference between its index in graph order and the one of the
+         * graph order index at its position among the remaining phrase matches; the phrase match with the largest
+         * distance and the smallest size is transposed, together with the phrase match at its place in graph order
+         * if that one is as far away, until no phrase match is out of place. Only the phrase matches between a
+         * transposed one and its place change their distance, so the distances are updated instead of being
+         * recalculated and sorted for every transposition.
+         *
+         * Transposing a phrase match at distance d updates d distances in O(d log n). Local transpositions are cheap,
+         * but the worst case, phrase matches in reverse graph order, still takes O(n² log n) for all transpositions,
+         * as many as recalculating and sorting the distances each time.
+         *
+         * @param graphIndex the index in graph order of every phrase match, in witness order
+         * @param size       the size of every phrase match, in witness order
+         * @return the indices in witness order of the transposed phrase matches, in the order they are transposed
+         */
+        @JvmStatic
+        fun transpositions(graphIndex: IntArray, size: IntArray): IntArray {
+            val n = graphIndex.size
+            val byGraphIndex = IntArray(n)
+            for (i in 0 until n) {
+                byGraphIndex[graphIndex[i]] = i
+            }
+            // the remaining phrase matches in witness order
+            val next = IntArray(n) { it + 1 }
+            val previous = IntArray(n) { it - 1 }
+            // the remaining phrase match at every position is aligned with the graph index at the same position
+            // among the graph indices of all remaining phrase matches
+            val aligned = IntArray(n) { it }
+            val alignedWith = IntArray(n) { it }
+            val queue = DistanceQueue(size, graphIndex)
+
+            fun remove(phraseMatch: Int) {
+                val ownIndex = graphIndex[phraseMatch]
+                if (aligned[phraseMatch] < ownIndex) {
+                    // the phrase matches up to the one aligned with its graph index move to the preceding graph index
+                    var carried = aligned[phraseMatch]
+                    var pm = next[phraseMatch]
+                    while (true) {
+                        val previouslyAligned = aligned[pm]
+                        aligned[pm] = carried
+                        alignedWith[carried] = pm
+                        queue.update(pm, abs(graphIndex[pm] - carried))
+                        if (previouslyAligned == ownIndex) {
+                            break
+                        }
+                        carried = previouslyAligned
+                        pm = next[pm]
+                    }
+                } else if (aligned[phraseMatch] > ownIndex) {
+                    // the phrase matches from the one aligned with its graph index move to the following graph index
+                    var pm = alignedWith[ownIndex]
+                    while (pm != phraseMatch) {
+                        val following = aligned[next[pm]]
+                        aligned[pm] = following
+                        alignedWith[following] = pm
+                        queue.update(pm, abs(graphIndex[pm] - following))
+                        pm = next[pm]
+                    }
+                }
+                if (previous[phraseMatch] >= 0) {
+                    next[previous[phraseMatch]] = next[phraseMatch]
+                }
+                if (next[phraseMatch] < n) {
+                    previous[next[phraseMatch]] = previous[phraseMatch]
+                }
+                queue.remove(phraseMatch)
+            }
+
+            val transpositions = IntArray(n)
+            var count = 0
+            while (true) {
+                val transposed = queue.top()
+                if (transposed < 0 || queue.distance[transposed] == 0) {
+                    break
+                }
+                val distance = queue.distance[transposed]
+                val linked = byGraphIndex[aligned[transposed]]
+                val linkedTransposed = distance > 1 && queue.distance[linked] == distance
+                remove(transposed)
+                transpositions[count++] = transposed
+                if (linkedTransposed) {
+                    remove(linked)
+                    transpositions[count++] = linked
+                }
+            }
+            return transpositions.copyOf(count)
+        }
+    }
+}
@@ -5,8 +5,11 @@ import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.Match;
+import eu.interedition.collatex.dekker.token_index.CandidatePruning;
 import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.SAIS;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
@@ -16,7 +19,6 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static java.util.Arrays.asList;
-import static java.util.Collections.emptyMap;
 import static java.util.Collections.max;
 import static java.util.Comparator.comparingInt;
 
@@ -52,7 +54,10 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
     public TokenIndex tokenIndex;
     // tokens are mapped to vertices by their position in the token array
     public VariantGraph.Vertex[] vertex_array;
+    // limits the graph instances of high-frequency blocks matched with each witness instance, if not null
+    public CandidatePruning candidatePruning;
     private final Comparator<Token> comparator;
+    private final ISuffixArrayBuilder suffixArrayBuilder;
     Score[][] cells;
 
     public EditGraphAligner() {
@@ -60,7 +65,12 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
     }
 
     public EditGraphAligner(Comparator<Token> comparator) {
+        this(comparator, new SAIS());
+    }
+
+    public EditGraphAligner(Comparator<Token> comparator, ISuffixArrayBuilder suffixArrayBuilder) {
         this.comparator = comparator;
+        this.suffixArrayBuilder = suffixArrayBuilder;
     }
 
     @Override
@@ -77,8 +87,9 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
             LOG.fine("Building token index from the tokens of all witnesses");
         }
 
-        this.tokenIndex = new TokenIndex(comparator, witnesses);
+        this.tokenIndex = new TokenIndex(comparator, witnesses, suffixArrayBuilder);
         tokenIndex.prepare();
+        tokenIndex.releaseLCP();
     }
 
     private void align(VariantGraph graph, List<? extends Iterable<Token>> witnesses) {
@@ -90,11 +101,12 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
                 .findFirst()
                 .map(Token::getWitness)
                 .orElseThrow(() -> new IllegalArgumentException("Empty witness"));
+            final int witnessStart = tokenIndex.getStartTokenPositionForWitness(witness);
+            final int witnessLength = tokenIndex.getEndTokenPositionForWitness(witness) - witnessStart;
 
             // first witness has a fast path
             if (firstWitness) {
-                super.merge(graph, tokens, emptyMap());
-                updateTokenToVertexArray(tokens, witness);
+                merge(graph, tokens, new VariantGraph.Vertex[witnessLength], vertex_array, witnessStart);
                 firstWitness = false;
                 continue;
             }
@@ -112,9 +124,8 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
             // now we can create the space for the edit graph.. using arrays and stuff
             // the horizontal size is the number of ranks in the graph starting from 0
             VariantGraphRanking variantGraphRanking = VariantGraphRanking.of(graph);
-            Map<VariantGraph.Vertex, Integer> byVertex = variantGraphRanking.getByVertex();
             List<Integer> variantGraphRanks = StreamUtil.stream(graph.vertices())//
-                .map(byVertex::get)//
+                .map(variantGraphRanking::apply)//
                 .distinct()//
                 .collect(Collectors.toList());
 
@@ -130,15 +141,14 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
             List<Integer> tokensAsIndexList = asIndexList(tokens);
             // System.out.println("vertical (next witness, token index): " + tokensAsIndexList);
 
-            MatchCube cube = new MatchCube(tokenIndex, tokens, vertex_array, variantGraphRanking);
+            MatchCube cube = new MatchCube(tokenIndex, tokens, vertex_array, variantGraphRanking, candidatePruning);
             fillNeedlemanWunschTable(variantGraphRanks, witnessTokens, tokensAsIndexList, cube);
 
             // debug only
             // printScoringTable(variantGraphRanks, tokensAsIndexList);
 
-            Map<Token, VariantGraph.Vertex> aligned = alignMatchingTokens(cube);
-            merge(graph, tokens, aligned);
-            updateTokenToVertexArray(tokens, witness);
+            VariantGraph.Vertex[] aligned = alignMatchingTokens(cube, witnessLength);
+            merge(graph, tokens, aligned, vertex_array, witnessStart);
         }
     }
 
@@ -188,11 +198,11 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
                 }));
     }
 
-    private Map<Token, VariantGraph.Vertex> alignMatchingTokens(MatchCube cube) {
+    private VariantGraph.Vertex[] alignMatchingTokens(MatchCube cube, int witnessLength) {
         // using the score iterator..
         // find all the matches
         // later for the transposition detection, we also want to keep track of all the additions, omissions, and replacements
-        Map<Token, VariantGraph.Vertex> aligned = new HashMap<>();
+        VariantGraph.Vertex[] aligned = new VariantGraph.Vertex[witnessLength];
         ScoreIterator scores = new ScoreIterator(this.cells);
         Set<VariantGraph.Vertex> matchedVertices = new HashSet<>();
         while (scores.hasNext()) {
@@ -201,7 +211,7 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
                 int rank = score.x - 1;
                 Match match = cube.getMatch(score.y - 1, rank);
                 if (!matchedVertices.contains(match.getVertex())) {
-                    aligned.put(match.getToken(), match.getVertex());
+                    aligned[score.y - 1] = match.getVertex();
                     matchedVertices.add(match.getVertex());
                 }
             }
@@ -272,17 +282,6 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
 //        System.out.println();
 //    }
 
-    private void updateTokenToVertexArray(Iterable<Token> tokens, Witness witness) {
-        // we need to update the token -> vertex map
-        // that information is stored in protected map
-        int tokenPosition = tokenIndex.getStartTokenPositionForWitness(witness);
-        for (Token token : tokens) {
-            VariantGraph.Vertex vertex = witnessTokenVertices.get(token);
-            vertex_array[tokenPosition] = vertex;
-            tokenPosition++;
-        }
-    }
-
     @Override
     public void collate(VariantGraph against, Iterable<Token> witness) {
         collate(against, Arrays.asList(witness));
@@ -5,14 +5,13 @@ import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.VariantGraph.Vertex;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.Match;
-import eu.interedition.collatex.dekker.token_index.Block;
+import eu.interedition.collatex.dekker.token_index.CandidatePruning;
 import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * Created by Ronald Haentjens Dekker on 08/01/17.
@@ -26,30 +25,57 @@ public class MatchCube {
                      Iterable<Token> witnessTokens,//
                      VariantGraph.Vertex[] vertex_array, //
                      VariantGraphRanking variantGraphRanking) {
+        this(tokenIndex, witnessTokens, vertex_array, variantGraphRanking, null);
+    }
+
+    /**
+     * @param pruning limits the graph instances of a block matched with each witness instance, if not null
+     */
+    public MatchCube(TokenIndex tokenIndex, //
+                     Iterable<Token> witnessTokens,//
+                     VariantGraph.Vertex[] vertex_array, //
+                     VariantGraphRanking variantGraphRanking, //
+                     CandidatePruning pruning) {
 
         Witness witness = witnessTokens.iterator().next().getWitness();
         int startTokenPositionForWitness = tokenIndex.getStartTokenPositionForWitness(witness);
-        List<Block.Instance> instances = tokenIndex.getBlockInstancesForWitness(witness);
-        for (Block.Instance witnessInstance : instances) {
-            // System.out.println("Debug creating matches for witness block instance: "+witnessInstance);
+        int witnessOrdinal = tokenIndex.witnessOrdinal(witness);
+        int[] suffixArray = tokenIndex.suffix_array;
+        int rows = tokenIndex.getEndTokenPositionForWitness(witness) - startTokenPositionForWitness;
+        int columns = (pruning == null ? 0 : variantGraphRanking.size() - 2);
+        int[] graphStarts = new int[16];
+        for (int instance = tokenIndex.firstInstance(witnessOrdinal); instance < tokenIndex.firstInstance(witnessOrdinal + 1); instance++) {
             // for every instance of a block in the witness we need to fetch the corresponding graph instances of the block
-            // calculate graph block instances
-            // fetch block
-            Block block = witnessInstance.getBlock();
-            List<Block.Instance> allInstances = block.getAllInstances();
-            List<Block.Instance> graphInstances = allInstances.stream()//
-                .filter(instance -> instance.getStart_token() < startTokenPositionForWitness)//
-                .collect(Collectors.toList());
+            // graph block instances are the ones before the witness in the token array
+            int block = tokenIndex.instanceBlock(instance);
+            if (!tokenIndex.blockOccursBefore(block, witnessOrdinal)) {
+                // the block does not occur in the graph yet
+                continue;
+            }
+            int length = tokenIndex.blockLength(block);
+            int witnessInstanceStart = tokenIndex.instanceToken(instance);
+            int count = 0;
+            for (int suffix = tokenIndex.blockStart(block); suffix <= tokenIndex.blockEnd(block); suffix++) {
+                if (suffixArray[suffix] < startTokenPositionForWitness) {
+                    if (count == graphStarts.length) {
+                        graphStarts = Arrays.copyOf(graphStarts, count * 2);
+                    }
+                    graphStarts[count++] = suffixArray[suffix];
+                }
+            }
+            if (pruning != null) {
+                count = pruning.select(graphStarts, count, witnessInstanceStart - startTokenPositionForWitness, rows, columns, start -> variantGraphRanking.rank(vertex_array[start]) - 1);
+            }
             // now for every graph block instance we have to create matches
-            for (Block.Instance graphInstance : graphInstances) {
-                int graph_start_token = graphInstance.getStart_token();
-                for (int i = 0; i < block.length; i++) {
+            for (int g = 0; g < count; g++) {
+                int graph_start_token = graphStarts[g];
+                for (int i = 0; i < length; i++) {
                     VariantGraph.Vertex v = vertex_array[graph_start_token + i];
                     if (v == null) {
                         throw new RuntimeException("Vertex is null for token \"" + graph_start_token + i + "\" that is supposed to be mapped to a vertex in the graph!");
                     }
-                    int rank = variantGraphRanking.apply(v) - 1;
-                    int witnessStartToken = witnessInstance.getStart_token() + i;
+                    int rank = variantGraphRanking.rank(v) - 1;
+                    int witnessStartToken = witnessInstanceStart + i;
                     int row = witnessStartToken - startTokenPositionForWitness;
                     Token token = tokenIndex.token_array[witnessStartToken];
                     Match match = new Match(v, token);
@@ -0,0 +1,243 @@
+package eu.interedition.collatex.dekker.island;
+
+import eu.interedition.collatex.dekker.token_index.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Selects non-conflicting islands like the {@link IslandConflictResolver}, after splitting the match table at
+ * anchors.
+ * <p>
+ * Anchors are the islands of blocks occurring at most once in every witness, which are the only islands of their
+ * block. The chain of anchors in both witness and graph order covering most tokens is committed first. Islands
+ * between two consecutive anchors of the chain cannot conflict with islands between any other two, so the gaps
+ * between anchors are resolved independently of each other, in parallel on a fork/join pool. Islands crossing an
+ * anchor of the chain in the witness or in the graph are left out, so transpositions across anchors are not found.
+ */
+public class AnchoredConflictResolver {
+    private final Set<Island> possibleIslands;
+    private final List<Island> islands;
+    private final int minimumAnchorSize;
+    private final ForkJoinPool pool;
+
+    // the rows and columns every island spans, by its index
+    private final int[] firstRow;
+    private final int[] lastRow;
+    private final int[] firstColumn;
+    private final int[] lastColumn;
+
+    /**
+     * @param islands           the possible islands
+     * @param minimumAnchorSize the minimum number of tokens of an anchor
+     * @param pool              the pool to resolve the gaps between anchors on
+     */
+    public AnchoredConflictResolver(Set<Island> islands, int minimumAnchorSize, ForkJoinPool pool) {
+        this.possibleIslands = islands;
+        this.islands = new ArrayList<>(islands);
+        this.minimumAnchorSize = minimumAnchorSize;
+        this.pool = pool;
+        final int n = this.islands.size();
+        firstRow = new int[n];
+        lastRow = new int[n];
+        firstColumn = new int[n];
+        lastColumn = new int[n];
+        for (int i = 0; i < n; i++) {
+            final Island island = this.islands.get(i);
+            firstRow[i] = lastRow[i] = island.get(0).row;
+            firstColumn[i] = lastColumn[i] = island.get(0).column;
+            for (int c = 1; c < island.size(); c++) {
+                final Coordinate coordinate = island.get(c);
+                firstRow[i] = Math.min(firstRow[i], coordinate.row);
+                lastRow[i] = Math.max(lastRow[i], coordinate.row);
+                firstColumn[i] = Math.min(firstColumn[i], coordinate.column);
+                lastColumn[i] = Math.max(lastColumn[i], coordinate.column);
+            }
+        }
+    }
+
+    /**
+     * @return the selected islands, the anchors first, then the islands of every gap between them in witness order
+     */
+    public List<Island> createNonConflictingVersion() {
+        final int[] anchors = chainAnchors(anchorCandidates());
+        if (anchors.length == 0) {
+            return resolve(possibleIslands, Collections.emptyList());
+        }
+
+        // assign the islands to the gaps before, between and after the anchors
+        final List<List<Island>> gaps = new ArrayList<>(anchors.length + 1);
+        for (int g = 0; g <= anchors.length; g++) {
+            gaps.add(new ArrayList<>());
+        }
+        final int[] anchorFirstRows = new int[anchors.length];
+        final boolean[] anchor = new boolean[islands.size()];
+        for (int a = 0; a < anchors.length; a++) {
+            anchorFirstRows[a] = firstRow[anchors[a]];
+            anchor[anchors[a]] = true;
+        }
+        for (int i = 0; i < islands.size(); i++) {
+            if (anchor[i]) {
+                continue;
+            }
+            int g = Arrays.binarySearch(anchorFirstRows, firstRow[i]);
+            if (g >= 0) {
+                // starts in the row of an anchor
+                continue;
+            }
+            g = -g - 1;
+            final boolean afterPrevious = g == 0 || (firstRow[i] > lastRow[anchors[g - 1]] && firstColumn[i] > lastColumn[anchors[g - 1]]);
+            final boolean beforeNext = g == anchors.length || (lastRow[i] < firstRow[anchors[g]] && lastColumn[i] < firstColumn[anchors[g]]);
+            if (afterPrevious && beforeNext) {
+                gaps.get(g).add(islands.get(i));
+            }
+        }
+
+        final List<Island> selected = new ArrayList<>();
+        for (int a : anchors) {
+            selected.add(islands.get(a));
+        }
+        final List<Island> anchorIslands = new ArrayList<>(selected);
+        selected.addAll(pool.invoke(new GapResolution(gaps, anchorIslands, 0, gaps.size())));
+        return selected;
+    }
+
+    // the islands which are the only ones of a block occurring at most once in every witness, by index
+    private int[] anchorCandidates() {
+        final Map<Block, Integer> islandsByBlock = new IdentityHashMap<>();
+        for (Island island : islands) {
+            islandsByBlock.merge(island.getBlockInstance().getBlock(), 1, Integer::sum);
+        }
+        return IntStream.range(0, islands.size()).filter(i -> {
+            final Island island = islands.get(i);
+            final Block block = island.getBlockInstance().getBlock();
+            return island.size() >= minimumAnchorSize
+                && block.getFrequency() == block.getDepth()
+                && islandsByBlock.get(block) == 1;
+        }).toArray();
+    }
+
+    /*
+     * The chain of candidates increasing in rows and columns with the most coordinates, by a sweep over the
+     * candidates in row order; the best chain ending in each candidate is looked up by its columns in a
+     * Fenwick tree of the chains ending in rows before it.
+     */
+    private int[] chainAnchors(int[] candidates) {
+        if (candidates.length == 0) {
+            return candidates;
+        }
+        final int[] byFirstRow = IntStream.of(candidates).boxed()
+            .sorted((a, b) -> Integer.compare(firstRow[a], firstRow[b]))
+            .mapToInt(Integer::intValue).toArray();
+        final int[] byLastRow = IntStream.of(candidates).boxed()
+            .sorted((a, b) -> Integer.compare(lastRow[a], lastRow[b]))
+            .mapToInt(Integer::intValue).toArray();
+        int columns = 0;
+        for (int candidate : candidates) {
+            columns = Math.max(columns, lastColumn[candidate] + 1);
+        }
+        final int[] treeSize = new int[columns + 1];
+        final int[] treeEnd = new int[columns + 1];
+        Arrays.fill(treeEnd, -1);
+
+        final int[] chainSize = new int[islands.size()];
+        final int[] predecessor = new int[islands.size()];
+        int best = -1;
+        int inserted = 0;
+        for (int candidate : byFirstRow) {
+            while (inserted < byLastRow.length && lastRow[byLastRow[inserted]] < firstRow[candidate]) {
+                final int end = byLastRow[inserted++];
+                for (int k = lastColumn[end] + 1; k <= columns; k += k & -k) {
+                    if (chainSize[end] > treeSize[k]) {
+                        treeSize[k] = chainSize[end];
+                        treeEnd[k] = end;
+                    }
+                }
+            }
+            int size = 0;
+            int previous = -1;
+            for (int k = firstColumn[candidate]; k > 0; k -= k & -k) {
+                if (treeSize[k] > size) {
+                    size = treeSize[k];
+                    previous = treeEnd[k];
+                }
+            }
+            chainSize[candidate] = size + islands.get(candidate).size();
+            predecessor[candidate] = previous;
+            if (best < 0 || chainSize[candidate] > chainSize[best]) {
+                best = candidate;
+            }
+        }
+
+        int length = 0;
+        for (int a = best; a >= 0; a = predecessor[a]) {
+            length++;
+        }
+        final int[] chain = new int[length];
+        for (int a = best; a >= 0; a = predecessor[a]) {
+            chain[--length] = a;
+        }
+        return chain;
+    }
+
+    // the islands selected from the ones of a gap, with the anchors around it committed beforehand
+    private static List<Island> resolve(Set<Island> islands, List<Island> anchors) {
+        if (islands.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final IslandCollection selection = new IslandCollection(islands);
+        int committed = 0;
+        for (Island anchor : anchors) {
+            if (anchor != null) {
+                selection.addIsland(anchor);
+                committed++;
+            }
+        }
+        new IslandConflictResolver(selection).createNonConflictingVersion();
+        final List<Island> selected = selection.getIslands();
+        return new ArrayList<>(selected.subList(committed, selected.size()));
+    }
+
+    /**
+     * Resolves a range of gaps, returning the islands selected in all of them in gap order.
+     */
+    private static class GapResolution extends RecursiveTask<List<Island>> {
+        private final List<List<Island>> gaps;
+        private final List<Island> anchors;
+        private final int from;
+        private final int to;
+
+        GapResolution(List<List<Island>> gaps, List<Island> anchors, int from, int to) {
+            this.gaps = gaps;
+            this.anchors = anchors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Island> compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                final GapResolution left = new GapResolution(gaps, anchors, from, middle);
+                left.fork();
+                final List<Island> right = new GapResolution(gaps, anchors, middle, to).compute();
+                final List<Island> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            // the gap between the anchors before and after it, if any
+            return resolve(new HashSet<>(gaps.get(from)), Arrays.asList(
+                from > 0 ? anchors.get(from - 1) : null,
+                from < anchors.size() ? anchors.get(from) : null));
+        }
+    }
+}
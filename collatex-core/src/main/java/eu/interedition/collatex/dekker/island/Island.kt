@@ -75,7 +75,8 @@ class Island : Iterable<Coordinate?> {
     val leftEnd: Coordinate
         get() {
             var coor = islandCoordinates[0]
-            for (c in islandCoordinates) {
+            for (i in 1 until islandCoordinates.size) {
+                val c = islandCoordinates[i]
                 if (c.column < coor.column) coor = c
             }
             return coor
@@ -83,7 +84,8 @@ class Island : Iterable<Coordinate?> {
     val rightEnd: Coordinate
         get() {
             var coor = islandCoordinates[0]
-            for (c in islandCoordinates) {
+            for (i in 1 until islandCoordinates.size) {
+                val c = islandCoordinates[i]
                 if (c.column > coor.column) coor = c
             }
             return coor
@@ -93,6 +95,10 @@ class Island : Iterable<Coordinate?> {
         return islandCoordinates.size
     }
 
+    operator fun get(index: Int): Coordinate {
+        return islandCoordinates[index]
+    }
+
     override fun iterator(): MutableIterator<Coordinate> {
         return Collections.unmodifiableList(islandCoordinates).iterator()
     }
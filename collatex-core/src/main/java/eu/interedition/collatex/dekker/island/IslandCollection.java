@@ -19,8 +19,6 @@
 
 package eu.interedition.collatex.dekker.island;
 
-import eu.interedition.collatex.VariantGraph;
-
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,14 +32,19 @@ public class IslandCollection implements IslandSelection {
     Logger LOG = Logger.getLogger(IslandCollection.class.getName());
     private final PriorityQueue<Island> islandPriorityQueue;
     private final Archipelago fixedIslands;
-    //this fields are needed for the locking of table cells
+    //this fields are needed for the locking of table cells; vertices by their id
     private final BitSet fixedRows;
-    private final Set<VariantGraph.Vertex> fixedVertices;
+    private final BitSet fixedVertices;
+    // row - column of the committed islands, the negative ones at -1 - (row - column)
+    private final BitSet fixedVectors;
+    private final BitSet fixedNegativeVectors;
     private final Comparator<Island> comparator = new IslandSizeComparator();
 
     public IslandCollection(Set<Island> islands) {
         fixedRows = new BitSet();
-        fixedVertices = new HashSet<>();
+        fixedVertices = new BitSet();
+        fixedVectors = new BitSet();
+        fixedNegativeVectors = new BitSet();
         this.fixedIslands = new Archipelago();
         islandPriorityQueue = new PriorityQueue<>(comparator);
         islandPriorityQueue.addAll(islands);
@@ -52,7 +55,7 @@ public class IslandCollection implements IslandSelection {
      */
     @Override
     public boolean doesCoordinateOverlapWithCommittedCoordinate(Coordinate coordinate) {
-        return fixedRows.get(coordinate.row) || fixedVertices.contains(coordinate.match.getVertex());
+        return fixedRows.get(coordinate.row) || fixedVertices.get(coordinate.match.getVertex().id());
     }
 
     /*
@@ -60,8 +63,8 @@ public class IslandCollection implements IslandSelection {
      */
     @Override
     public boolean isIslandPossibleCandidate(Island island) {
-        for (Coordinate coordinate : island) {
-            if (doesCoordinateOverlapWithCommittedCoordinate(coordinate)) return false;
+        for (int i = 0, size = island.size(); i < size; i++) {
+            if (doesCoordinateOverlapWithCommittedCoordinate(island.get(i))) return false;
         }
         return true;
     }
@@ -75,17 +78,26 @@ public class IslandCollection implements IslandSelection {
         if (LOG.isLoggable(Level.FINE)) {
             LOG.log(Level.FINE, "adding island: '{0}'", isl);
         }
-        for (Coordinate coordinate : isl) {
+        for (int i = 0, size = isl.size(); i < size; i++) {
+            Coordinate coordinate = isl.get(i);
             fixedRows.set(coordinate.row);
-            fixedVertices.add(coordinate.match.getVertex());
+            fixedVertices.set(coordinate.match.getVertex().id());
         }
         fixedIslands.add(isl);
+        Coordinate leftEnd = isl.getLeftEnd();
+        int vector = leftEnd.row - leftEnd.column;
+        if (vector >= 0) {
+            fixedVectors.set(vector);
+        } else {
+            fixedNegativeVectors.set(-1 - vector);
+        }
     }
 
     @Override
     public boolean doesCandidateLayOnVectorOfCommittedIsland(Island island) {
         Coordinate leftEnd = island.getLeftEnd();
-        return fixedIslands.getIslandVectors().contains(leftEnd.row - leftEnd.column);
+        int vector = leftEnd.row - leftEnd.column;
+        return vector >= 0 ? fixedVectors.get(vector) : fixedNegativeVectors.get(-1 - vector);
     }
 
     @Override
@@ -159,7 +171,8 @@ public class IslandCollection implements IslandSelection {
     private Island findConflictingCoordinateAndCreateSmallerIslandSplitAtConflictingCoordinate(Island island){
         // create a new island which contains the coordinates up to the overlapping coordinate.
         Island smaller = new Island(island.getBlockInstance());
-        for (Coordinate coordinate : island) {
+        for (int i = 0, size = island.size(); i < size; i++) {
+            Coordinate coordinate = island.get(i);
             if (doesCoordinateOverlapWithCommittedCoordinate(coordinate)) {
                 return smaller;
             }
@@ -20,8 +20,10 @@
 package eu.interedition.collatex.dekker.island;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -139,18 +141,99 @@ public class IslandConflictResolver {
         return nonCompetingIslands;
     }
 
-    private Set<Island> getCompetingIslands(List<Island> islands) {
-        Set<Island> competingIslands = new HashSet<>();
+    /*
+     * Two islands compete if they share a row or a column (see Island.isCompetitor). Instead of
+     * comparing all pairs of islands, this records the first two islands occupying every row and
+     * column; an island competes iff another island occupies one of its rows or columns, and its
+     * first competitor is the smallest of those other occupants.
+     *
+     * The competing islands are added in the order the pairwise comparison would first find them,
+     * so the resulting set iterates in the same order.
+     */
+    static Set<Island> getCompetingIslands(List<Island> islands) {
+        int rows = 0, columns = 0;
+        for (Island island : islands) {
+            for (Coordinate c : island) {
+                rows = Math.max(rows, c.row + 1);
+                columns = Math.max(columns, c.column + 1);
+            }
+        }
+        final Occupants rowOccupants = new Occupants(rows);
+        final Occupants columnOccupants = new Occupants(columns);
         for (int i = 0; i < islands.size(); i++) {
-            Island i1 = islands.get(i);
-            for (int j = 1; j < islands.size() - i; j++) {
-                Island i2 = islands.get(i + j);
-                if (i1.isCompetitor(i2)) {
-                    competingIslands.add(i1);
-                    competingIslands.add(i2);
-                }
+            for (Coordinate c : islands.get(i)) {
+                rowOccupants.occupy(c.row, i);
+                columnOccupants.occupy(c.column, i);
             }
         }
+
+        final List<Competitor> competitors = new ArrayList<>();
+        for (int i = 0; i < islands.size(); i++) {
+            int competitor = Occupants.NONE;
+            for (Coordinate c : islands.get(i)) {
+                competitor = Math.min(competitor, rowOccupants.other(c.row, i));
+                competitor = Math.min(competitor, columnOccupants.other(c.column, i));
+            }
+            if (competitor != Occupants.NONE) {
+                competitors.add(new Competitor(i, competitor));
+            }
+        }
+        competitors.sort(Competitor.PAIRWISE_ORDER);
+
+        Set<Island> competingIslands = new HashSet<>();
+        for (Competitor competitor : competitors) {
+            competingIslands.add(islands.get(competitor.island));
+        }
         return competingIslands;
     }
-}
\ No newline at end of file
+
+    /*
+     * An island together with its first competitor, i.e. the pair of islands the pairwise comparison finds
+     * the island in first.
+     */
+    private static class Competitor {
+        // pairs in the order of the pairwise comparison, and the smaller island of a pair before the larger one
+        static final Comparator<Competitor> PAIRWISE_ORDER = Comparator.<Competitor>comparingInt(c -> c.first)
+            .thenComparingInt(c -> c.second)
+            .thenComparingInt(c -> c.island);
+
+        final int island;
+        final int first;
+        final int second;
+
+        Competitor(int island, int competitor) {
+            this.island = island;
+            this.first = Math.min(island, competitor);
+            this.second = Math.max(island, competitor);
+        }
+    }
+
+    /*
+     * The two smallest distinct islands occupying every row or column; islands are visited in order.
+     */
+    private static class Occupants {
+        static final int NONE = Integer.MAX_VALUE;
+
+        private final int[] first;
+        private final int[] second;
+
+        Occupants(int lines) {
+            first = new int[lines];
+            second = new int[lines];
+            Arrays.fill(first, NONE);
+            Arrays.fill(second, NONE);
+        }
+
+        void occupy(int line, int island) {
+            if (first[line] == NONE) {
+                first[line] = island;
+            } else if (first[line] != island && second[line] == NONE) {
+                second[line] = island;
+            }
+        }
+
+        int other(int line, int island) {
+            return first[line] == island ? second[line] : first[line];
+        }
+    }
+}
@@ -7,46 +7,87 @@ import java.util.*
 import java.util.stream.IntStream
 
 class Block {
-    // every Block has a token index as a parent
-    private val tokenIndex: TokenIndex
+    // the tokens of the token index this block belongs to
+    private val tokens: List<Token>
+
+    // positions of the instances in the token array: the suffix array of a token index from start to end,
+    // or the positions of all instances for a block of an incremental token index
+    private val instancePositions: IntArray
+    private val instanceOffset: Int
 
     // length = number of tokens in this block of text
     @JvmField
     val length: Int
 
-    // start = start position in suffix array
+    // start = start position in suffix array (0 for blocks of an incremental token index)
     @JvmField
     val start: Int
 
     // end = end position in suffix array
     val end: Int
 
+    // coverage = the witnesses this block of text occurs in, as a bitmap of their ordinals in the token index
+    internal val coverage: LongArray
+
     // depth = number of witnesses this block of text occurs in
-    // Note: depth is lazy initialized
-    private var depth: Int?
+    private val depth: Int
 
     // For building blocks only
     constructor(tokenIndex: TokenIndex, suffix_start_position: Int, length: Int) {
-        this.tokenIndex = tokenIndex
+        tokens = tokenIndex.token_array?.asList() ?: emptyList()
+        instancePositions = tokenIndex.suffix_array ?: IntArray(0)
+        instanceOffset = suffix_start_position
         start = suffix_start_position
         this.length = length
         end = 0
+        coverage = LongArray(0)
         depth = 0
     }
 
-    constructor(tokenIndex: TokenIndex, start: Int, end: Int, length: Int) {
-        this.tokenIndex = tokenIndex
+    constructor(tokenIndex: TokenIndex, start: Int, end: Int, length: Int) : this(tokenIndex.token_array!!.asList(), tokenIndex.suffix_array!!, start, end, length, tokenIndex.witnessCoverage(start, end))
+
+    // For blocks of an incremental token index, occurring at the given positions in its token array
+    internal constructor(tokens: List<Token>, positions: IntArray, length: Int, coverage: LongArray) : this(tokens, positions, 0, positions.size - 1, length, coverage)
+
+    private constructor(tokens: List<Token>, instancePositions: IntArray, start: Int, end: Int, length: Int, coverage: LongArray) {
+        this.tokens = tokens
+        this.instancePositions = instancePositions
+        instanceOffset = start
         this.start = start
         this.end = end
         this.length = length
-        depth = null
+        this.coverage = coverage
+        var witnesses = 0
+        for (word in coverage) {
+            witnesses += java.lang.Long.bitCount(word)
+        }
+        depth = witnesses
     }
 
     fun getDepth(): Int {
-        if (depth == null) {
-            depth = calculateDepth()
+        return depth
+    }
+
+    // whether this block of text occurs in the witness with the given ordinal in the token index
+    fun occursIn(witnessOrdinal: Int): Boolean {
+        val word = witnessOrdinal ushr 6
+        return word < coverage.size && (coverage[word] and (1L shl witnessOrdinal)) != 0L
+    }
+
+    // whether this block of text occurs in any witness with an ordinal lower than the given one
+    fun occursBefore(witnessOrdinal: Int): Boolean {
+        val word = witnessOrdinal ushr 6
+        for (w in 0 until Math.min(word, coverage.size)) {
+            if (coverage[w] != 0L) {
+                return true
+            }
         }
-        return depth!!
+        return word < coverage.size && (coverage[word] and ((1L shl witnessOrdinal) - 1)) != 0L
+    }
+
+    // position of the given instance in the token array, for 0 <= instance < frequency
+    fun instanceToken(instance: Int): Int {
+        return instancePositions[instanceOffset + instance]
     }
 
     // frequency = number of times this block of text occurs in complete witness set
@@ -57,12 +98,13 @@ class Block {
         }
 
     // every i is one occurrence
+    // Note: allocates a list and its instances on every call; TokenIndex has allocation-free accessors
     val allInstances: List<Instance>
         get() {
             val instances: MutableList<Instance> = ArrayList()
-            for (i in start..end) {
+            for (i in 0 until frequency) {
                 // every i is one occurrence
-                val token_position = tokenIndex.suffix_array!![i]
+                val token_position = instanceToken(i)
                 val instance = Instance(token_position, this)
                 instances.add(instance)
             }
@@ -74,9 +116,9 @@ class Block {
         get() {
             var result = IntStream.empty()
             // with/or without end
-            for (i in start until end) {
+            for (i in 0 until frequency - 1) {
                 // every i is one occurrence
-                val token_position = tokenIndex.suffix_array!![i]
+                val token_position = instanceToken(i)
                 val range = IntStream.range(token_position, token_position + length)
                 result = IntStream.concat(result, range)
             }
@@ -89,15 +131,6 @@ class Block {
         } else "LCP interval start at: " + start + ", depth: " + getDepth() + ", length: " + length + " getFrequency:" + frequency
     }
 
-    private fun calculateDepth(): Int {
-        // the same block can occur multiple times in one witness
-        val witnesses: MutableSet<Witness> = HashSet()
-        for (instance in allInstances) {
-            witnesses.add(instance.witness)
-        }
-        return witnesses.size
-    }
-
     class Instance(// position in token array
         val start_token: Int, val block: Block) {
         fun length(): Int {
@@ -121,17 +154,13 @@ class Block {
             return normalized.toString()
         }
 
-        //
+        // a view of the tokens of the instance in the token array; views of an incremental index are only valid until
+        // the next witness is added to it
         val tokens: List<Token>
-            get() {
-                val tokens: MutableList<Token> = ArrayList()
-                tokens.addAll(Arrays.asList(*block.tokenIndex.token_array!!) //
-                    .subList(start_token, start_token + length()))
-                return tokens
-            }
+            get() = block.tokens.subList(start_token, start_token + length())
         val witness: Witness
             get() {
-                val startToken = block.tokenIndex.token_array!![start_token]
+                val startToken = block.tokens[start_token]
                 return startToken.witness
             }
     }
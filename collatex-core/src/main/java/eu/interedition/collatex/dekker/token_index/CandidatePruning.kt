@@ -0,0 +1,62 @@
+package eu.interedition.collatex.dekker.token_index
+
+import java.util.*
+import java.util.function.IntUnaryOperator
+import kotlin.math.abs
+
+/**
+ * Limits the graph instances a witness block instance is matched with to the ones nearest to it, for blocks of high
+ * frequency like common words or punctuation, whose instances would otherwise be matched with every instance in the
+ * graph before conflicts are resolved.
+ *
+ * The distance of a graph instance is the difference between the column of its first vertex and the column expected
+ * for the witness block instance on the diagonal of the alignment table, which scales the position of the instance in the
+ * witness to the ranks of the graph, so witnesses longer or shorter than the graph do not favour instances to one side.
+ * The counters accumulate over all witnesses matched with the same pruning.
+ */
+class CandidatePruning(val maxGraphInstances: Int) {
+    // graph instances witness block instances could be matched with
+    var candidates = 0L
+        private set
+
+    // graph instances left out, and the witness block instances they were left out for
+    var prunedCandidates = 0L
+        private set
+    var prunedInstances = 0L
+        private set
+
+    init {
+        require(maxGraphInstances > 0) { "Maximum number of graph instances must be positive: $maxGraphInstances" }
+    }
+
+    /**
+     * Selects the graph instances to match a witness block instance with.
+     *
+     * @param graphStarts the start tokens of the graph instances, the selected ones are moved to the front
+     * @param count       the number of graph instances
+     * @param row         the position of the witness block instance in the witness
+     * @param rows        the length of the witness
+     * @param columns     the number of ranks of the graph, without the start and the end vertex
+     * @param column      the rank of the first vertex of a graph instance by its start token, starting from 0
+     * @return the number of selected graph instances; if all are selected, they keep their order
+     */
+    fun select(graphStarts: IntArray, count: Int, row: Int, rows: Int, columns: Int, column: IntUnaryOperator): Int {
+        candidates += count
+        if (count <= maxGraphInstances) {
+            return count
+        }
+        val diagonal = (row.toLong() * columns / rows).toInt()
+        val nearest = LongArray(count) { (abs(column.applyAsInt(graphStarts[it]) - diagonal).toLong() shl 32) or graphStarts[it].toLong() }
+        Arrays.sort(nearest)
+        for (i in 0 until maxGraphInstances) {
+            graphStarts[i] = nearest[i].toInt()
+        }
+        prunedCandidates += count - maxGraphInstances
+        prunedInstances++
+        return maxGraphInstances
+    }
+
+    override fun toString(): String {
+        return "$prunedCandidates of $candidates graph instances pruned for $prunedInstances witness block instances"
+    }
+}
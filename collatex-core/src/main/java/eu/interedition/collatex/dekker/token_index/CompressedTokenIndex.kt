@@ -0,0 +1,153 @@
+package eu.interedition.collatex.dekker.token_index
+
+import eu.interedition.collatex.Token
+import eu.interedition.collatex.Witness
+import eu.interedition.collatex.suffixarray.EnhancedSuffixArray
+import eu.interedition.collatex.suffixarray.FMIndex
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder
+import eu.interedition.collatex.suffixarray.SAIS
+import java.util.*
+
+/**
+ * A compressed alternative to [TokenIndex] for very large corpora, keeping an [FMIndex] over the token symbols
+ * instead of the token, suffix and LCP arrays.
+ *
+ * The suffix and LCP arrays are built like the ones of a token index, compressed and dropped; afterwards the index
+ * holds no arrays of ints per token, but the sigla of the witnesses, their boundaries and the keys of the distinct
+ * tokens for looking up phrases. Comparators without keys are looked up by one token per distinct symbol instead,
+ * which keeps those tokens and their witnesses. It counts and locates phrases like [PhraseIndex], and enumerates the
+ * LCP intervals [TokenIndex] derives its blocks from, with the positions of their instances found by [suffix].
+ *
+ * Only the steady state is compressed: the index is built from a complete [TokenIndex], so while it is being
+ * constructed, the token, suffix and symbol arrays of that index are held in addition to the FM-index.
+ */
+class CompressedTokenIndex @JvmOverloads constructor(comparator: Comparator<Token>, witnesses: List<Iterable<Token>>, sampleRate: Int = DEFAULT_SAMPLE_RATE, suffixArrayBuilder: ISuffixArrayBuilder = SAIS()) {
+    private val fmIndex: FMIndex
+    private val tokenSymbols: TokenSymbols
+
+    // sigla of the witnesses in order, with the position of their first token and of their marker token
+    private val sigla: Array<String>
+    private val witnessStarts: IntArray
+    private val witnessEnds: IntArray
+    private val witnessOrdinals: MutableMap<String, Int> = HashMap()
+
+    init {
+        val tokenIndex = TokenIndex(comparator, witnesses, suffixArrayBuilder)
+        tokenIndex.packLCP = true
+        tokenIndex.prepareSuffixArray()
+        val tokens = tokenIndex.token_array!!
+        val symbols = tokenIndex.symbols()
+        tokenSymbols = TokenSymbols(tokenIndex, symbols)
+        val alphabetSize = if (symbols.isEmpty()) 0 else symbols[tokenIndex.suffix_array!!.last()] + 1
+        fmIndex = FMIndex(symbols, symbols.size, alphabetSize, tokenIndex.suffix_array!!, tokenIndex.compactLCP!!, sampleRate)
+
+        val indexed = ArrayList<Witness>()
+        for (p in tokens.indices) {
+            if (tokenIndex.tokenWitness(p) == indexed.size) {
+                indexed.add(tokens[p].witness)
+            }
+        }
+        sigla = Array(indexed.size) { indexed[it].sigil }
+        witnessStarts = IntArray(indexed.size) { tokenIndex.getStartTokenPositionForWitness(indexed[it]) }
+        witnessEnds = IntArray(indexed.size) { tokenIndex.getEndTokenPositionForWitness(indexed[it]) }
+        sigla.forEachIndexed { ordinal, sigil -> witnessOrdinals[sigil] = ordinal }
+    }
+
+    // number of tokens, including the marker tokens after each witness
+    fun size(): Int {
+        return fmIndex.size()
+    }
+
+    fun witnessCount(): Int {
+        return sigla.size
+    }
+
+    fun sigil(ordinal: Int): String {
+        return sigla[ordinal]
+    }
+
+    // witnesses are identified by their sigil
+    fun getStartTokenPositionForWitness(witness: Witness): Int {
+        return witnessStarts[witnessOrdinals[witness.sigil]!!]
+    }
+
+    fun getEndTokenPositionForWitness(witness: Witness): Int {
+        return witnessEnds[witnessOrdinals[witness.sigil]!!]
+    }
+
+    // ordinal of the witness of the token at the given position, -1 for the marker tokens between witnesses
+    fun tokenWitness(position: Int): Int {
+        var ordinal = Arrays.binarySearch(witnessStarts, position)
+        if (ordinal < 0) {
+            ordinal = -ordinal - 2
+        }
+        return if (position < witnessEnds[ordinal]) ordinal else -1
+    }
+
+    fun count(phrase: List<Token>): Int {
+        val pattern = tokenSymbols.pattern(phrase) ?: return 0
+        return fmIndex.count(pattern)
+    }
+
+    // like a phrase index occurrence, but the witness is identified by its sigil, as this index keeps no witnesses
+    class Occurrence(
+        val sigil: String,
+        // position of the first token in the witness
+        val offset: Int,
+        // position of the first token in the token array
+        val position: Int) {
+        override fun toString(): String {
+            return "$sigil:$offset"
+        }
+    }
+
+    /**
+     * @return all occurrences of the phrase, in the order of the suffix array
+     */
+    fun find(phrase: List<Token>): List<Occurrence> {
+        val pattern = tokenSymbols.pattern(phrase) ?: return emptyList()
+        val interval = fmIndex.find(pattern)
+        if (interval < 0) {
+            return emptyList()
+        }
+        val occurrences: MutableList<Occurrence> = ArrayList()
+        for (k in EnhancedSuffixArray.first(interval)..EnhancedSuffixArray.last(interval)) {
+            val position = fmIndex.suffix(k)
+            val ordinal = tokenWitness(position)
+            occurrences.add(Occurrence(sigla[ordinal], position - witnessStarts[ordinal], position))
+        }
+        return occurrences
+    }
+
+    // position in the token array of suffix k of the suffix array
+    fun suffix(k: Int): Int {
+        return fmIndex.suffix(k)
+    }
+
+    /**
+     * Enumerates the LCP intervals the blocks of a [TokenIndex] of the same witnesses consist of, in block order.
+     */
+    fun forEachBlock(visitor: BlockVisitor) {
+        splitLCPIntervals(fmIndex.size(), { fmIndex.lcp(it) }) { start, end, length -> visitor.visit(start, end, length) }
+    }
+
+    fun interface BlockVisitor {
+        /**
+         * Visits the block of the suffixes from <code>start</code> to <code>end</code> in the suffix array,
+         * sharing a prefix of <code>length</code> tokens.
+         */
+        fun visit(start: Int, end: Int, length: Int)
+    }
+
+    /**
+     * @return the number of bytes taken by the compressed index, not counting the sigla and the keys or tokens kept
+     * for looking up phrases
+     */
+    fun footprint(): Long {
+        return fmIndex.footprint() + 2L * Integer.BYTES * sigla.size
+    }
+
+    companion object {
+        const val DEFAULT_SAMPLE_RATE = 32
+    }
+}
@@ -0,0 +1,401 @@
+package eu.interedition.collatex.dekker.token_index
+
+import eu.interedition.collatex.Token
+import eu.interedition.collatex.Witness
+import eu.interedition.collatex.matching.KeyedTokenComparator
+import java.util.*
+
+/**
+ * A token index witnesses can be added to one at a time, for progressive alignment.
+ *
+ * Witnesses are concatenated into one token array as in [TokenIndex], each followed by a marker token, and indexed
+ * by a generalized suffix tree built with Ukkonen's algorithm over symbol ids of the tokens. Each witness extends the
+ * tree in time proportional to its length. As marker tokens are unique, no path of a branching node crosses a marker,
+ * so the branching nodes of the tree are exactly the blocks of a [TokenIndex] over the same witnesses: the string
+ * depth of a node is the length of its block, and the leaves below a node are the instances of its block.
+ */
+class IncrementalTokenIndex(comparator: Comparator<Token>) {
+    private val keyedComparator: KeyedTokenComparator? = comparator as? KeyedTokenComparator
+
+    // symbol ids of tokens, by comparator key or by comparison; marker tokens have negative ids
+    @Suppress("UNCHECKED_CAST")
+    private val symbols: MutableMap<Any, Int> = if (keyedComparator != null) HashMap() else TreeMap(comparator as Comparator<Any>)
+
+    private val tokens: MutableList<Token> = ArrayList()
+    private var text = IntArray(64)
+    private var tokenWitness = IntArray(64)
+    // leaf of the suffix starting at every position of the token array
+    private var leafOf = IntArray(64)
+
+    private val witnessOrdinals: MutableMap<Witness, Int> = HashMap()
+    private val witnessStarts: MutableList<Int> = ArrayList()
+    private val witnessEnds: MutableList<Int> = ArrayList()
+
+    // suffix tree nodes: the label of the edge into a node is text[edgeStart until edgeEnd]; depth is the string depth
+    // of branching nodes, leafSuffix the start of the suffix of leaves; children are kept in sibling lists
+    private var nodeCount = 0
+    private var edgeStart = IntArray(128)
+    private var edgeEnd = IntArray(128)
+    private var parent = IntArray(128)
+    private var suffixLink = IntArray(128)
+    private var depth = IntArray(128)
+    private var leafSuffix = IntArray(128)
+    private var firstChild = IntArray(128)
+    private var nextSibling = IntArray(128)
+    private var previousSibling = IntArray(128)
+    private val children = ChildTable()
+
+    // suffixes of the leaves in depth-first order and the range of every node in it, numbered for the size of the
+    // token array they have been numbered at
+    private var leafOrder = IntArray(0)
+    private var firstLeaf = IntArray(0)
+    private var lastLeaf = IntArray(0)
+    private var numberedSize = -1
+
+    // blocks of the branching nodes created so far, valid as long as the leaves are numbered for the same size
+    private var blocks = arrayOfNulls<Block>(0)
+
+    // Ukkonen's active point and the number of suffixes still to be inserted
+    private var activeNode = ROOT
+    private var activeEdge = 0
+    private var activeLength = 0
+    private var remainder = 0
+
+    init {
+        newNode(0, 0, NONE, NONE)
+    }
+
+    /**
+     * Appends the tokens of a witness and a marker token to the token array and adds their suffixes to the index.
+     *
+     * @return the ordinal of the witness in this index
+     */
+    fun add(witnessTokens: Iterable<Token>): Int {
+        val iterator = witnessTokens.iterator()
+        require(iterator.hasNext()) { "Empty witness" }
+        val witness = iterator.next().witness
+        require(!witnessOrdinals.containsKey(witness)) { "Witness $witness has already been indexed" }
+        val ordinal = witnessOrdinals.size
+        witnessOrdinals[witness] = ordinal
+        witnessStarts.add(tokens.size)
+        for (token in witnessTokens) {
+            val key: Any = keyedComparator?.key(token) ?: token
+            append(token, symbols.computeIfAbsent(key) { symbols.size }, ordinal)
+        }
+        witnessEnds.add(tokens.size)
+        append(TokenIndex.MarkerToken(ordinal + 1), -1 - ordinal, -1)
+        return ordinal
+    }
+
+    private fun append(token: Token, symbol: Int, witnessOrdinal: Int) {
+        val position = tokens.size
+        if (position == text.size) {
+            text = text.copyOf(position * 2)
+            tokenWitness = tokenWitness.copyOf(position * 2)
+            leafOf = leafOf.copyOf(position * 2)
+        }
+        tokens.add(token)
+        text[position] = symbol
+        tokenWitness[position] = witnessOrdinal
+        extend(position)
+    }
+
+    // Ukkonen's phase for the given position, inserting all suffixes ending there that are not implicit in the tree
+    private fun extend(position: Int) {
+        val symbol = text[position]
+        var lastBranch = NONE
+        remainder++
+        while (remainder > 0) {
+            if (activeLength == 0) {
+                activeEdge = position
+            }
+            val next = children[activeNode, text[activeEdge]]
+            if (next == NONE) {
+                addChild(activeNode, newNode(position, OPEN, activeNode, position - remainder + 1))
+                if (lastBranch != NONE) {
+                    suffixLink[lastBranch] = activeNode
+                    lastBranch = NONE
+                }
+            } else {
+                val edgeLength = Math.min(edgeEnd[next], position + 1) - edgeStart[next]
+                if (activeLength >= edgeLength) {
+                    // walk down to the next node
+                    activeEdge += edgeLength
+                    activeLength -= edgeLength
+                    activeNode = next
+                    continue
+                }
+                if (text[edgeStart[next] + activeLength] == symbol) {
+                    // the suffix is implicit in the tree, and so are all shorter ones
+                    if (lastBranch != NONE && activeNode != ROOT) {
+                        suffixLink[lastBranch] = activeNode
+                    }
+                    activeLength++
+                    break
+                }
+                val branch = newNode(edgeStart[next], edgeStart[next] + activeLength, activeNode, NONE)
+                depth[branch] = depth[activeNode] + activeLength
+                replaceChild(activeNode, next, branch)
+                edgeStart[next] += activeLength
+                parent[next] = branch
+                addChild(branch, next)
+                addChild(branch, newNode(position, OPEN, branch, position - remainder + 1))
+                if (lastBranch != NONE) {
+                    suffixLink[lastBranch] = branch
+                }
+                lastBranch = branch
+            }
+            remainder--
+            if (activeNode == ROOT && activeLength > 0) {
+                activeLength--
+                activeEdge = position - remainder + 1
+            } else if (activeNode != ROOT) {
+                activeNode = suffixLink[activeNode]
+            }
+        }
+    }
+
+    private fun newNode(start: Int, end: Int, parentNode: Int, suffix: Int): Int {
+        if (nodeCount == edgeStart.size) {
+            val capacity = nodeCount * 2
+            edgeStart = edgeStart.copyOf(capacity)
+            edgeEnd = edgeEnd.copyOf(capacity)
+            parent = parent.copyOf(capacity)
+            suffixLink = suffixLink.copyOf(capacity)
+            depth = depth.copyOf(capacity)
+            leafSuffix = leafSuffix.copyOf(capacity)
+            firstChild = firstChild.copyOf(capacity)
+            nextSibling = nextSibling.copyOf(capacity)
+            previousSibling = previousSibling.copyOf(capacity)
+        }
+        val node = nodeCount++
+        edgeStart[node] = start
+        edgeEnd[node] = end
+        parent[node] = parentNode
+        suffixLink[node] = ROOT
+        depth[node] = 0
+        leafSuffix[node] = suffix
+        firstChild[node] = NONE
+        nextSibling[node] = NONE
+        previousSibling[node] = NONE
+        if (suffix != NONE) {
+            leafOf[suffix] = node
+        }
+        return node
+    }
+
+    private fun addChild(node: Int, child: Int) {
+        children[node, text[edgeStart[child]]] = child
+        val first = firstChild[node]
+        nextSibling[child] = first
+        previousSibling[child] = NONE
+        if (first != NONE) {
+            previousSibling[first] = child
+        }
+        firstChild[node] = child
+    }
+
+    // replaces a child by a node taking over the first part of its edge
+    private fun replaceChild(node: Int, child: Int, replacement: Int) {
+        children[node, text[edgeStart[child]]] = replacement
+        val previous = previousSibling[child]
+        val next = nextSibling[child]
+        previousSibling[replacement] = previous
+        nextSibling[replacement] = next
+        if (previous == NONE) {
+            firstChild[node] = replacement
+        } else {
+            nextSibling[previous] = replacement
+        }
+        if (next != NONE) {
+            previousSibling[next] = replacement
+        }
+    }
+
+    fun size(): Int {
+        return tokens.size
+    }
+
+    fun token(position: Int): Token {
+        return tokens[position]
+    }
+
+    // the token array, including the marker tokens following each witness
+    fun tokens(): List<Token> {
+        return Collections.unmodifiableList(tokens)
+    }
+
+    fun witnessCount(): Int {
+        return witnessOrdinals.size
+    }
+
+    /**
+     * @return the ordinal of the given witness in this index or -1 if it is not indexed
+     */
+    fun witnessOrdinal(w: Witness): Int {
+        return witnessOrdinals[w] ?: -1
+    }
+
+    fun getStartTokenPositionForWitness(witness: Witness): Int {
+        return witnessStarts[witnessOrdinals[witness]!!]
+    }
+
+    fun getEndTokenPositionForWitness(witness: Witness): Int {
+        return witnessEnds[witnessOrdinals[witness]!!]
+    }
+
+    // ordinal of the witness of the token at the given position, -1 for the marker tokens between witnesses
+    fun tokenWitness(position: Int): Int {
+        return tokenWitness[position]
+    }
+
+    /**
+     * The instances of all blocks occurring in the given witness, with respect to the witnesses indexed so far: the
+     * blocks are the branching ancestors of the leaves of the witness's suffixes.
+     *
+     * NOTE: An empty list is returned when the witness is not indexed
+     */
+    fun getBlockInstancesForWitness(w: Witness): List<Block.Instance> {
+        val instances: MutableList<Block.Instance> = ArrayList()
+        val ordinal = witnessOrdinal(w)
+        if (ordinal < 0) {
+            return instances
+        }
+        numberLeaves()
+        for (position in witnessStarts[ordinal] until witnessEnds[ordinal]) {
+            var node = parent[leafOf[position]]
+            while (node != ROOT) {
+                val block = blocks[node] ?: block(node).also { blocks[node] = it }
+                instances.add(Block.Instance(position, block))
+                node = parent[node]
+            }
+        }
+        return instances
+    }
+
+    // numbers the leaves in depth-first order, so the leaves below every node form a range
+    private fun numberLeaves() {
+        if (numberedSize == tokens.size) {
+            return
+        }
+        leafOrder = IntArray(tokens.size)
+        firstLeaf = IntArray(nodeCount)
+        lastLeaf = IntArray(nodeCount)
+        blocks = arrayOfNulls(nodeCount)
+        var count = 0
+        // nodes are pushed as is when entered and complemented when left
+        var stack = IntArray(16)
+        var top = 0
+        stack[top++] = ROOT
+        while (top > 0) {
+            val current = stack[--top]
+            if (current < 0) {
+                lastLeaf[current.inv()] = count
+                continue
+            }
+            firstLeaf[current] = count
+            if (leafSuffix[current] != NONE) {
+                leafOrder[count++] = leafSuffix[current]
+                lastLeaf[current] = count
+                continue
+            }
+            if (top == stack.size) {
+                stack = stack.copyOf(top * 2)
+            }
+            stack[top++] = current.inv()
+            var child = firstChild[current]
+            while (child != NONE) {
+                if (top == stack.size) {
+                    stack = stack.copyOf(top * 2)
+                }
+                stack[top++] = child
+                child = nextSibling[child]
+            }
+        }
+        numberedSize = tokens.size
+    }
+
+    // the block of a branching node, with the suffixes of the leaves below it as instances
+    private fun block(node: Int): Block {
+        val positions = leafOrder.copyOfRange(firstLeaf[node], lastLeaf[node])
+        val coverage = LongArray((witnessOrdinals.size + 63) ushr 6)
+        for (position in positions) {
+            val w = tokenWitness[position]
+            coverage[w ushr 6] = coverage[w ushr 6] or (1L shl w)
+        }
+        Arrays.sort(positions)
+        return Block(tokens, positions, depth[node], coverage)
+    }
+
+    /**
+     * Maps pairs of a node and a symbol to the child of the node whose edge label starts with the symbol, with open
+     * addressing; 0 is the root, which is no child, so it marks empty slots.
+     */
+    private class ChildTable {
+        private var keys = LongArray(256)
+        private var values = IntArray(256)
+        private var size = 0
+
+        operator fun get(node: Int, symbol: Int): Int {
+            val key = key(node, symbol)
+            var slot = slot(key, keys.size)
+            while (values[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot]
+                }
+                slot = (slot + 1) and (keys.size - 1)
+            }
+            return NONE
+        }
+
+        operator fun set(node: Int, symbol: Int, child: Int) {
+            if (2 * (size + 1) > keys.size) {
+                resize()
+            }
+            put(key(node, symbol), child)
+        }
+
+        private fun put(key: Long, child: Int) {
+            var slot = slot(key, keys.size)
+            while (values[slot] != 0) {
+                if (keys[slot] == key) {
+                    values[slot] = child
+                    return
+                }
+                slot = (slot + 1) and (keys.size - 1)
+            }
+            keys[slot] = key
+            values[slot] = child
+            size++
+        }
+
+        private fun resize() {
+            val oldKeys = keys
+            val oldValues = values
+            keys = LongArray(oldKeys.size * 2)
+            values = IntArray(oldValues.size * 2)
+            size = 0
+            for (slot in oldKeys.indices) {
+                if (oldValues[slot] != 0) {
+                    put(oldKeys[slot], oldValues[slot])
+                }
+            }
+        }
+
+        private fun key(node: Int, symbol: Int): Long {
+            return (node.toLong() shl 32) or (symbol.toLong() and 0xffffffffL)
+        }
+
+        private fun slot(key: Long, capacity: Int): Int {
+            val h = key * -0x61c8864680b583ebL
+            return (h xor (h ushr 32)).toInt() and (capacity - 1)
+        }
+    }
+
+    companion object {
+        private const val ROOT = 0
+        private const val NONE = -1
+        // end of the edges into leaves, which grow with the token array
+        private const val OPEN = Int.MAX_VALUE
+    }
+}
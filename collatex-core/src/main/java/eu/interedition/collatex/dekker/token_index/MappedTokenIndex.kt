@@ -0,0 +1,304 @@
+package eu.interedition.collatex.dekker.token_index
+
+import eu.interedition.collatex.Token
+import eu.interedition.collatex.matching.KeyedTokenComparator
+import eu.interedition.collatex.util.StreamUtil
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.*
+
+/**
+ * A prepared [TokenIndex] of a corpus of witnesses, read from a file written by [write].
+ *
+ * The file is memory-mapped, so a corpus is indexed once and collating any subset of its witnesses skips sorting
+ * suffixes: [tokenIndex] attaches the tokens of the witnesses to the stored suffix array, LCP array and blocks,
+ * or derives them for a subset by keeping the suffixes of its witnesses, whose LCP values are the minima over the
+ * ranges in between. Tokens are not stored; witnesses are identified by their sigil and have to be tokenized the
+ * same way as when the index was written. All values are big-endian:
+ * <pre>
+ * header     magic, version, witnesses, tokens, blocks, sigla bytes                (int[6])
+ * witnesses  start and end position by witness                                     (int[witnesses] x 2)
+ * symbols    by position, numbered in suffix order; markers have symbols of their own (int[tokens])
+ * suffixes   suffix array and LCP array                                            (int[tokens] x 2)
+ * blocks     start, end and length of the LCP interval by block                    (int[blocks] x 3)
+ * sigla      byte offsets by witness, UTF-8 bytes                                  (int[witnesses + 1], byte[])
+ * </pre>
+ */
+class MappedTokenIndex internal constructor(private val buffer: ByteBuffer) {
+    private val witnessCount: Int
+    private val size: Int
+    private val blockCount: Int
+
+    private val witnessStarts: IntArray
+    private val witnessEnds: IntArray
+    private val sigla: Map<String, Int>
+
+    private val symbols: Int
+    private val suffixes: Int
+    private val lcp: Int
+    private val blockStarts: Int
+    private val blockEnds: Int
+    private val blockLengths: Int
+
+    init {
+        require(buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC) { "Not a token index" }
+        require(buffer.getInt(4) == VERSION) { "Unsupported token index version: " + buffer.getInt(4) }
+        witnessCount = buffer.getInt(8)
+        size = buffer.getInt(12)
+        blockCount = buffer.getInt(16)
+        val siglaBytes = buffer.getInt(20)
+        require(witnessCount >= 0 && size >= witnessCount && blockCount >= 0 && siglaBytes >= 0) { "Corrupt token index header" }
+
+        // section offsets are computed as longs, so that no count read from a corrupt header can overflow them
+        val witnesses = HEADER_SIZE.toLong()
+        val symbols = witnesses + 2L * Integer.BYTES * witnessCount
+        val suffixes = symbols + Integer.BYTES.toLong() * size
+        val lcp = suffixes + Integer.BYTES.toLong() * size
+        val blockStarts = lcp + Integer.BYTES.toLong() * size
+        val blockEnds = blockStarts + Integer.BYTES.toLong() * blockCount
+        val blockLengths = blockEnds + Integer.BYTES.toLong() * blockCount
+        val siglaOffsets = blockLengths + Integer.BYTES.toLong() * blockCount
+        val siglaStart = siglaOffsets + Integer.BYTES * (witnessCount + 1L)
+        require(buffer.capacity() >= siglaStart && buffer.capacity() - siglaStart >= siglaBytes) { "Truncated token index" }
+
+        this.symbols = symbols.toInt()
+        this.suffixes = suffixes.toInt()
+        this.lcp = lcp.toInt()
+        this.blockStarts = blockStarts.toInt()
+        this.blockEnds = blockEnds.toInt()
+        this.blockLengths = blockLengths.toInt()
+
+        // witnesses follow each other, each one ending with its marker token
+        witnessStarts = readInts(witnesses.toInt(), witnessCount)
+        witnessEnds = readInts(witnesses.toInt() + Integer.BYTES * witnessCount, witnessCount)
+        for (w in 0 until witnessCount) {
+            val previousEnd = if (w == 0) -1 else witnessEnds[w - 1]
+            require(witnessStarts[w] > previousEnd && witnessEnds[w] >= witnessStarts[w] && witnessEnds[w] < size) { "Corrupt token index witnesses" }
+        }
+        sigla = HashMap()
+        for (w in 0 until witnessCount) {
+            val from = buffer.getInt(siglaOffsets.toInt() + Integer.BYTES * w)
+            val to = buffer.getInt(siglaOffsets.toInt() + Integer.BYTES * (w + 1))
+            require(from in 0..to && to <= siglaBytes) { "Corrupt token index sigla" }
+            val bytes = ByteArray(to - from)
+            for (b in bytes.indices) {
+                bytes[b] = buffer.get(siglaStart.toInt() + from + b)
+            }
+            sigla[String(bytes, StandardCharsets.UTF_8)] = w
+        }
+    }
+
+    fun witnessCount(): Int {
+        return witnessCount
+    }
+
+    // number of tokens in the corpus, including the marker tokens after each witness
+    fun size(): Int {
+        return size
+    }
+
+    fun blockCount(): Int {
+        return blockCount
+    }
+
+    /**
+     * @return the ordinal of the witness with the given sigil in the corpus or -1 if it is not indexed
+     */
+    fun witnessOrdinal(sigil: String): Int {
+        return sigla[sigil] ?: -1
+    }
+
+    // position of the first token of a witness and of the marker token following its last one
+    fun witnessStart(witness: Int): Int {
+        return witnessStarts[witness]
+    }
+
+    fun witnessEnd(witness: Int): Int {
+        return witnessEnds[witness]
+    }
+
+    fun symbol(position: Int): Int {
+        return buffer.getInt(symbols + Integer.BYTES * position)
+    }
+
+    fun suffix(k: Int): Int {
+        return buffer.getInt(suffixes + Integer.BYTES * k)
+    }
+
+    fun lcp(k: Int): Int {
+        return buffer.getInt(lcp + Integer.BYTES * k)
+    }
+
+    /**
+     * Creates a prepared token index of the given witnesses, which have to be part of the corpus. For the whole
+     * corpus in its original order, the stored suffix array, LCP array and blocks are used as they are; for any
+     * other selection, they are derived in a single pass over the stored arrays. In the latter case, instances of
+     * a block may come in a different order than in a token index built from scratch if the witnesses are
+     * reordered, the blocks themselves are the same.
+     *
+     * @throws IllegalArgumentException if a witness is not part of the corpus or differs in length or tokens
+     */
+    fun tokenIndex(comparator: Comparator<Token>, witnesses: List<Iterable<Token>>): TokenIndex {
+        val ordinals = IntArray(witnesses.size)
+        val symbolTokens = HashMap<Int, Token>()
+        // tokens by their keys if the comparator has them, sorted by the comparator otherwise
+        val keyedComparator = comparator as? KeyedTokenComparator
+        val tokenSymbols: MutableMap<Any, Int> = if (keyedComparator != null) HashMap() else TreeMap<Any, Int> { a, b -> comparator.compare(a as Token, b as Token) }
+        for ((i, tokens) in witnesses.withIndex()) {
+            val witness = StreamUtil.stream(tokens)
+                .findFirst()
+                .map { obj: Token -> obj.witness }
+                .orElseThrow { IllegalArgumentException("Empty witness") }
+            val ordinal = witnessOrdinal(witness.sigil)
+            require(ordinal >= 0) { "Witness not in the token index: " + witness.sigil }
+            ordinals[i] = ordinal
+
+            // tokens are equal if and only if they share a symbol, otherwise the witness changed since it was indexed
+            var position = witnessStarts[ordinal]
+            for (t in tokens) {
+                require(position < witnessEnds[ordinal]) { "Witness longer than in the token index: " + witness.sigil }
+                val symbol = symbol(position)
+                val indexed = symbolTokens.putIfAbsent(symbol, t)
+                val indexedSymbol = tokenSymbols.putIfAbsent(keyedComparator?.key(t) ?: t, symbol)
+                require((indexed == null || comparator.compare(indexed, t) == 0) && (indexedSymbol == null || indexedSymbol == symbol)) { "Witness differs from the token index: " + witness.sigil + " at " + t }
+                position++
+            }
+            require(position == witnessEnds[ordinal]) { "Witness shorter than in the token index: " + witness.sigil }
+        }
+
+        val tokenIndex = TokenIndex(comparator, witnesses)
+        if (ordinals.size == witnessCount && ordinals.indices.all { ordinals[it] == it }) {
+            tokenIndex.prepare(readInts(suffixes, size), readInts(lcp, size), readInts(blockStarts, blockCount), readInts(blockEnds, blockCount), readInts(blockLengths, blockCount))
+            return tokenIndex
+        }
+
+        // the position of the witnesses in the token array of the subset, -1 for witnesses not in the subset
+        val offsets = IntArray(witnessCount) { -1 }
+        var length = 0
+        for (ordinal in ordinals) {
+            require(offsets[ordinal] < 0) { "Duplicate witness" }
+            offsets[ordinal] = length
+            length += witnessEnds[ordinal] - witnessStarts[ordinal] + 1
+        }
+        val suffixArray = IntArray(length)
+        val lcpArray = IntArray(length)
+        var kept = 0
+        var minLCP = Int.MAX_VALUE
+        for (k in 0 until size) {
+            minLCP = Math.min(minLCP, lcp(k))
+            val position = suffix(k)
+            var witness = Arrays.binarySearch(witnessStarts, position)
+            if (witness < 0) {
+                witness = -witness - 2
+            }
+            if (offsets[witness] < 0) {
+                continue
+            }
+            suffixArray[kept] = offsets[witness] + position - witnessStarts[witness]
+            lcpArray[kept] = if (kept == 0) -1 else minLCP
+            kept++
+            minLCP = Int.MAX_VALUE
+        }
+        tokenIndex.prepare(suffixArray, lcpArray)
+        return tokenIndex
+    }
+
+    private fun readInts(offset: Int, count: Int): IntArray {
+        val values = IntArray(count)
+        val view = buffer.duplicate()
+        view.position(offset)
+        (view as ByteBuffer).asIntBuffer().get(values)
+        return values
+    }
+
+    override fun toString(): String {
+        return "{$size tokens, $blockCount blocks, $witnessCount witnesses}"
+    }
+
+    companion object {
+        const val MAGIC = 0x43585449
+        const val VERSION = 1
+        const val HEADER_SIZE = 6 * Integer.BYTES
+
+        /**
+         * Maps a token index file into memory.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun map(path: Path): MappedTokenIndex {
+            FileChannel.open(path, StandardOpenOption.READ).use { channel -> return MappedTokenIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())) }
+        }
+
+        /**
+         * Writes a prepared token index whose LCP array is not released yet.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun write(tokenIndex: TokenIndex, path: Path) {
+            Files.newOutputStream(path).use { write(tokenIndex, it) }
+        }
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun write(tokenIndex: TokenIndex, stream: OutputStream) {
+            val tokens = checkNotNull(tokenIndex.token_array) { "Token index not prepared" }
+            val sa = tokenIndex.suffix_array!!
+            val size = tokens.size
+            val blocks = tokenIndex.blockCount()
+
+            // witnesses in order of their ordinals, which is the order of their tokens
+            val sigla = ArrayList<ByteArray>()
+            val starts = ArrayList<Int>()
+            val ends = ArrayList<Int>()
+            for (p in 0 until size) {
+                if (tokenIndex.tokenWitness(p) == sigla.size) {
+                    val witness = tokens[p].witness
+                    sigla.add(witness.sigil.toByteArray(StandardCharsets.UTF_8))
+                    starts.add(tokenIndex.getStartTokenPositionForWitness(witness))
+                    ends.add(tokenIndex.getEndTokenPositionForWitness(witness))
+                }
+            }
+
+            val symbols = tokenIndex.symbols()
+
+            val out = DataOutputStream(stream)
+            out.writeInt(MAGIC)
+            out.writeInt(VERSION)
+            out.writeInt(sigla.size)
+            out.writeInt(size)
+            out.writeInt(blocks)
+            out.writeInt(sigla.sumBy { it.size })
+            starts.forEach { out.writeInt(it) }
+            ends.forEach { out.writeInt(it) }
+            symbols.forEach { out.writeInt(it) }
+            sa.forEach { out.writeInt(it) }
+            for (k in 0 until size) {
+                out.writeInt(tokenIndex.lcp(k))
+            }
+            for (b in 0 until blocks) {
+                out.writeInt(tokenIndex.blockStart(b))
+            }
+            for (b in 0 until blocks) {
+                out.writeInt(tokenIndex.blockEnd(b))
+            }
+            for (b in 0 until blocks) {
+                out.writeInt(tokenIndex.blockLength(b))
+            }
+            var offset = 0
+            for (bytes in sigla) {
+                out.writeInt(offset)
+                offset += bytes.size
+            }
+            out.writeInt(offset)
+            sigla.forEach { out.write(it) }
+            out.flush()
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package eu.interedition.collatex.dekker.token_index
+
+import eu.interedition.collatex.Token
+import eu.interedition.collatex.Witness
+import eu.interedition.collatex.suffixarray.EnhancedSuffixArray
+import java.util.*
+
+/**
+ * Finds the occurrences of a phrase in the witnesses of a [TokenIndex], using an [EnhancedSuffixArray] over its
+ * suffix and LCP arrays. A lookup takes time linear in the length of the phrase and the number of occurrences.
+ *
+ * The token index has to be prepared and its LCP array must not be released yet; the phrase index does not keep
+ * the LCP array, so it can be released afterwards. Tokens of a phrase are compared by the comparator of the
+ * token index.
+ */
+class PhraseIndex(private val tokenIndex: TokenIndex) {
+    private val esa: EnhancedSuffixArray
+    private val tokenSymbols: TokenSymbols
+
+    init {
+        checkNotNull(tokenIndex.token_array) { "Token index not prepared" }
+        val symbols = tokenIndex.symbols()
+        tokenSymbols = TokenSymbols(tokenIndex, symbols)
+        esa = EnhancedSuffixArray(symbols, 0, symbols.size, tokenIndex.suffix_array!!, lcp(symbols.size))
+    }
+
+    class Occurrence(
+        val witness: Witness,
+        // position of the first token in the witness
+        val offset: Int,
+        // position of the first token in the token array of the token index
+        val position: Int) {
+        override fun toString(): String {
+            return witness.sigil + ":" + offset
+        }
+    }
+
+    /**
+     * @return all occurrences of the phrase, in the order of the suffix array
+     */
+    fun find(phrase: List<Token>): List<Occurrence> {
+        val pattern = tokenSymbols.pattern(phrase) ?: return emptyList()
+        val interval = esa.find(pattern)
+        if (interval < 0) {
+            return emptyList()
+        }
+        val tokens = tokenIndex.token_array!!
+        val occurrences: MutableList<Occurrence> = ArrayList()
+        for (k in EnhancedSuffixArray.first(interval)..EnhancedSuffixArray.last(interval)) {
+            val position = esa.suffix(k)
+            val witness = tokens[position].witness
+            occurrences.add(Occurrence(witness, position - tokenIndex.getStartTokenPositionForWitness(witness), position))
+        }
+        return occurrences
+    }
+
+    fun count(phrase: List<Token>): Int {
+        val pattern = tokenSymbols.pattern(phrase) ?: return 0
+        return esa.count(pattern)
+    }
+
+    private fun lcp(size: Int): IntArray {
+        return tokenIndex.LCP_array ?: IntArray(size) { tokenIndex.lcp(it) }
+    }
+}
@@ -2,6 +2,9 @@ package eu.interedition.collatex.dekker.token_index
 
 import eu.interedition.collatex.Token
 import eu.interedition.collatex.Witness
+import eu.interedition.collatex.matching.KeyedTokenComparator
+import eu.interedition.collatex.suffixarray.CompactLCP
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder
 import eu.interedition.collatex.suffixarray.SAIS
 import eu.interedition.collatex.suffixarray.SuffixArrays
 import eu.interedition.collatex.util.StreamUtil
@@ -11,8 +14,9 @@ import java.util.function.Function
 /**
  * Created by ronald on 4/20/15.
  */
-class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iterable<Token>>) {
-    private val comparator: Comparator<Token>
+class TokenIndex @JvmOverloads constructor(comparator: Comparator<Token>, private val witnesses: List<Iterable<Token>>, private val suffixArrayBuilder: ISuffixArrayBuilder = SAIS()) {
+    internal val comparator: Comparator<Token>
+    internal val keyedComparator: KeyedTokenComparator? = comparator as? KeyedTokenComparator
 
     //TODO: not sure this functionality should be in this class or in a separate class
     private var witnessToStartToken: MutableMap<Witness, Int>? = null
@@ -25,8 +29,34 @@ class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iter
     var suffix_array: IntArray? = null
     @JvmField
     var LCP_array: IntArray? = null
+    // byte-packed instead of LCP_array if packLCP is set
+    var compactLCP: CompactLCP? = null
+        private set
+
+    /**
+     * Whether [prepare] packs the LCP array into a [CompactLCP], taking one byte per token instead of four.
+     */
+    var packLCP = false
     var blocks: List<Block>? = null
-    private var witnessToBlockInstances: MutableMap<Witness, MutableList<Block.Instance>>? = null
+
+    // witness ordinals in order of appearance, and the ordinal of the witness of every token (-1 for markers)
+    private val witnessOrdinals: MutableMap<Witness, Int> = HashMap()
+    private var tokenWitness = IntArray(0)
+
+    // flattened blocks, in the order of the list of blocks
+    private var blockStarts = IntArray(0)
+    private var blockEnds = IntArray(0)
+    private var blockLengths = IntArray(0)
+    private var blockDepths = IntArray(0)
+    // witness coverage bitmaps of all blocks, coverageWords longs per block
+    private var blockCoverage = LongArray(0)
+    private var coverageWords = 0
+
+    // block instances grouped by witness, in the order of the list of blocks and then in suffix array order:
+    // instances of witness w are at witnessInstanceOffsets[w] until witnessInstanceOffsets[w + 1]
+    private var instanceTokens = IntArray(0)
+    private var instanceBlocks = IntArray(0)
+    private var witnessInstanceOffsets = IntArray(1)
 
     constructor(comparator: Comparator<Token>, vararg witness: Iterable<Token>?) : this(comparator, Arrays.asList(*witness) as List<Iterable<Token>>) {}
 
@@ -34,18 +64,108 @@ class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iter
         return witnessToStartToken!![witness]!!
     }
 
+    fun getEndTokenPositionForWitness(witness: Witness): Int {
+        return witnessToEndToken!![witness]!!
+    }
+
     // 1. prepare token array
     // 2. derive the suffix array
     // 3. derive LCP array
     // 4. derive LCP intervals
     // TODO: we do not have to store witnesses!
     fun prepare() {
+        prepareSuffixArray()
+        blocks = splitLCP_ArrayIntoIntervals()
+        flattenBlocks()
+    }
+
+    // steps 1 to 3 of prepare()
+    internal fun prepareSuffixArray() {
         token_array = prepareTokenArray()
-        val suffixData = SuffixArrays.createWithLCP(token_array, SAIS(), comparator)
+        val suffixData = if (keyedComparator != null) {
+            // symbol ids by hashing the comparator's keys; marker tokens are keys of their own
+            val key = Function<Token, Any> { t -> if (t is MarkerToken) t else keyedComparator.key(t) }
+            if (packLCP) SuffixArrays.createWithCompactLCP(token_array, suffixArrayBuilder, key) else SuffixArrays.createWithLCP(token_array, suffixArrayBuilder, key)
+        } else {
+            if (packLCP) SuffixArrays.createWithCompactLCP(token_array, suffixArrayBuilder, comparator) else SuffixArrays.createWithLCP(token_array, suffixArrayBuilder, comparator)
+        }
         suffix_array = suffixData.suffixArray
-        LCP_array = suffixData.lcp
+        if (packLCP) {
+            compactLCP = suffixData.compactLCP
+        } else {
+            LCP_array = suffixData.lcp
+        }
+    }
+
+    /**
+     * Prepares this index from a suffix array and LCP array computed before, e.g. read from a [MappedTokenIndex],
+     * instead of sorting the suffixes of its tokens; the blocks are split from the LCP array.
+     */
+    internal fun prepare(suffixArray: IntArray, lcp: IntArray) {
+        usePrecomputed(suffixArray, lcp)
         blocks = splitLCP_ArrayIntoIntervals()
-        constructWitnessToBlockInstancesMap()
+        flattenBlocks()
+    }
+
+    /**
+     * Like [prepare], with the blocks given by the start, end and length of their LCP intervals.
+     */
+    internal fun prepare(suffixArray: IntArray, lcp: IntArray, blockStarts: IntArray, blockEnds: IntArray, blockLengths: IntArray) {
+        usePrecomputed(suffixArray, lcp)
+        val blocks = ArrayList<Block>(blockStarts.size)
+        for (b in blockStarts.indices) {
+            blocks.add(Block(this, blockStarts[b], blockEnds[b], blockLengths[b]))
+        }
+        this.blocks = blocks
+        flattenBlocks()
+    }
+
+    private fun usePrecomputed(suffixArray: IntArray, lcp: IntArray) {
+        token_array = prepareTokenArray()
+        require(suffixArray.size == token_array!!.size && lcp.size == suffixArray.size) { "Suffix array does not match the witnesses" }
+        suffix_array = suffixArray
+        if (packLCP) {
+            compactLCP = CompactLCP.of(lcp)
+        } else {
+            LCP_array = lcp
+        }
+    }
+
+    // the LCP value at the given position in the suffix array
+    internal fun lcp(k: Int): Int {
+        val lcp = LCP_array
+        if (lcp != null) {
+            return lcp[k]
+        }
+        return checkNotNull(compactLCP) { "LCP array released" }[k]
+    }
+
+    /**
+     * Numbers the distinct tokens in the order of the suffix array, in which suffixes starting with equal tokens
+     * are adjacent; every marker token has a symbol of its own.
+     *
+     * @return the symbol of the token at every position in the token array
+     */
+    internal fun symbols(): IntArray {
+        val sa = suffix_array!!
+        val symbols = IntArray(sa.size)
+        var symbol = -1
+        for (k in sa.indices) {
+            if (lcp(k) < 1) {
+                symbol++
+            }
+            symbols[sa[k]] = symbol
+        }
+        return symbols
+    }
+
+    /**
+     * Drops the LCP array, which is only needed for building the blocks; blocks keep referring to the token and
+     * suffix arrays.
+     */
+    fun releaseLCP() {
+        LCP_array = null
+        compactLCP = null
     }
 
     private fun prepareTokenArray(): Array<Token> {
@@ -53,20 +173,26 @@ class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iter
         var counter = 0
         witnessToStartToken = HashMap()
         witnessToEndToken = HashMap()
+        witnessOrdinals.clear()
+        val tempTokenWitness = ArrayList<Int>()
         for (tokens in witnesses) {
             val witness = StreamUtil.stream(tokens)
                 .findFirst()
                 .map { obj: Token -> obj.witness }
                 .orElseThrow { IllegalArgumentException("Empty witness") }
+            val ordinal = witnessOrdinals.computeIfAbsent(witness) { witnessOrdinals.size }
             witnessToStartToken!![witness] = counter
             for (t in tokens) {
                 tempTokenList.add(t)
+                tempTokenWitness.add(ordinal)
                 counter++
             }
             witnessToEndToken!![witness] = counter
             tempTokenList.add(MarkerToken(witnessToStartToken!!.size))
+            tempTokenWitness.add(-1)
             counter++
         }
+        tokenWitness = tempTokenWitness.toIntArray()
         return tempTokenList.toTypedArray()
     }
 
@@ -106,51 +232,159 @@ class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iter
     }
 
     fun splitLCP_ArrayIntoIntervals(): List<Block> {
+        val lcp = LCP_array
+        if (lcp != null) {
+            return splitLCP_ArrayIntoIntervals(lcp.size) { lcp[it] }
+        }
+        val compact = compactLCP!!
+        return splitLCP_ArrayIntoIntervals(compact.size()) { compact[it] }
+    }
+
+    private inline fun splitLCP_ArrayIntoIntervals(size: Int, lcpAt: (Int) -> Int): List<Block> {
         val closedIntervals: MutableList<Block> = ArrayList()
-        var previousLCP_value = 0
-        val openIntervals = Stack<Block>()
-        for (idx in LCP_array!!.indices) {
-            val lcp_value = LCP_array!![idx]
-            if (lcp_value > previousLCP_value) {
-                openIntervals.push(Block(this, idx - 1, lcp_value))
-                previousLCP_value = lcp_value
-            } else if (lcp_value < previousLCP_value) {
-                // close open intervals that are larger than current LCP value
-                while (!openIntervals.isEmpty() && openIntervals.peek().length > lcp_value) {
-                    val a = openIntervals.pop()
-                    closedIntervals.add(Block(this, a.start, idx - 1, a.length))
-                }
-                // then: open a new interval starting with filtered intervals
-                if (lcp_value > 0) {
-                    val start = closedIntervals[closedIntervals.size - 1].start
-                    openIntervals.push(Block(this, start, lcp_value))
-                }
-                previousLCP_value = lcp_value
+        splitLCPIntervals(size, lcpAt) { start, end, length -> closedIntervals.add(Block(this, start, end, length)) }
+        return closedIntervals
+    }
+
+    // stores the blocks in flat arrays and groups their instances by witness
+    private fun flattenBlocks() {
+        val blocks = blocks!!
+        val sa = suffix_array!!
+        val witnessCount = witnessOrdinals.size
+        blockStarts = IntArray(blocks.size)
+        blockEnds = IntArray(blocks.size)
+        blockLengths = IntArray(blocks.size)
+        blockDepths = IntArray(blocks.size)
+
+        coverageWords = (witnessCount + 63) ushr 6
+        blockCoverage = LongArray(blocks.size * coverageWords)
+
+        val offsets = IntArray(witnessCount + 1)
+        for ((b, block) in blocks.withIndex()) {
+            blockStarts[b] = block.start
+            blockEnds[b] = block.end
+            blockLengths[b] = block.length
+            blockDepths[b] = block.getDepth()
+            System.arraycopy(block.coverage, 0, blockCoverage, b * coverageWords, coverageWords)
+            for (i in block.start..block.end) {
+                offsets[tokenWitness[sa[i]] + 1]++
             }
         }
-        // add all the open intervals to the result
-        for (interval in openIntervals) {
-            if (interval.length > 0) {
-                closedIntervals.add(Block(this, interval.start, LCP_array!!.size - 1, interval.length))
-            }
+        for (w in 0 until witnessCount) {
+            offsets[w + 1] += offsets[w]
         }
-        return closedIntervals
-    }
 
-    private fun constructWitnessToBlockInstancesMap() {
-        witnessToBlockInstances = HashMap()
-        for (interval in blocks!!) {
-            for (instance in interval.allInstances) {
-                val w = instance.witness
-                val instances = witnessToBlockInstances!!.computeIfAbsent(w, Function<Witness, MutableList<Block.Instance>> { v: Witness? -> ArrayList() })
-                instances.add(instance)
+        witnessInstanceOffsets = offsets.clone()
+        instanceTokens = IntArray(offsets[witnessCount])
+        instanceBlocks = IntArray(offsets[witnessCount])
+        for (b in blocks.indices) {
+            for (i in blockStarts[b]..blockEnds[b]) {
+                val instance = offsets[tokenWitness[sa[i]]]++
+                instanceTokens[instance] = sa[i]
+                instanceBlocks[instance] = b
             }
         }
     }
 
     //NOTE: An empty list is returned when there are no instances for the specified witness
+    //NOTE: allocates the list and its instances on every call; see firstInstance() for iterating without allocations
     fun getBlockInstancesForWitness(w: Witness): List<Block.Instance> {
-        return witnessToBlockInstances!!.computeIfAbsent(w, { a -> emptyList<Block.Instance>().toMutableList() })
+        val ordinal = witnessOrdinal(w)
+        if (ordinal < 0) {
+            return ArrayList()
+        }
+        val instances: MutableList<Block.Instance> = ArrayList()
+        for (instance in firstInstance(ordinal) until firstInstance(ordinal + 1)) {
+            instances.add(Block.Instance(instanceTokens[instance], blocks!![instanceBlocks[instance]]))
+        }
+        return instances
+    }
+
+    /**
+     * @return the ordinal of the given witness in this index or -1 if it is not indexed
+     */
+    fun witnessOrdinal(w: Witness): Int {
+        return witnessOrdinals[w] ?: -1
+    }
+
+    /**
+     * @return the first of the block instances in the witness with the given ordinal; the instances of a witness end
+     * where the ones of the next witness start
+     */
+    fun firstInstance(witnessOrdinal: Int): Int {
+        return witnessInstanceOffsets[witnessOrdinal]
+    }
+
+    // position of the first token of the given block instance in the token array
+    fun instanceToken(instance: Int): Int {
+        return instanceTokens[instance]
+    }
+
+    // index of the block of the given block instance in the list of blocks
+    fun instanceBlock(instance: Int): Int {
+        return instanceBlocks[instance]
+    }
+
+    fun blockCount(): Int {
+        return blockStarts.size
+    }
+
+    // first and last position of the block's instances in the suffix array
+    fun blockStart(block: Int): Int {
+        return blockStarts[block]
+    }
+
+    fun blockEnd(block: Int): Int {
+        return blockEnds[block]
+    }
+
+    fun blockLength(block: Int): Int {
+        return blockLengths[block]
+    }
+
+    fun blockDepth(block: Int): Int {
+        return blockDepths[block]
+    }
+
+    // number of instances of the given block in all witnesses
+    fun blockFrequency(block: Int): Int {
+        return blockEnds[block] - blockStarts[block] + 1
+    }
+
+    // whether the given block occurs in the witness with the given ordinal
+    fun blockOccursIn(block: Int, witnessOrdinal: Int): Boolean {
+        return (blockCoverage[block * coverageWords + (witnessOrdinal ushr 6)] and (1L shl witnessOrdinal)) != 0L
+    }
+
+    /**
+     * @return whether the given block occurs in any witness with an ordinal lower than the given one, i.e. in
+     * any witness preceding it in the token array
+     */
+    fun blockOccursBefore(block: Int, witnessOrdinal: Int): Boolean {
+        val offset = block * coverageWords
+        val word = witnessOrdinal ushr 6
+        for (w in 0 until word) {
+            if (blockCoverage[offset + w] != 0L) {
+                return true
+            }
+        }
+        return word < coverageWords && (blockCoverage[offset + word] and ((1L shl witnessOrdinal) - 1)) != 0L
+    }
+
+    // ordinal of the witness of the token at the given position, -1 for the marker tokens between witnesses
+    fun tokenWitness(position: Int): Int {
+        return tokenWitness[position]
+    }
+
+    // the witness coverage of the block instances in the given suffix array range, as a bitmap of witness ordinals
+    internal fun witnessCoverage(start: Int, end: Int): LongArray {
+        val sa = suffix_array!!
+        val coverage = LongArray((witnessOrdinals.size + 63) ushr 6)
+        for (i in start..end) {
+            val w = tokenWitness[sa[i]]
+            coverage[w ushr 6] = coverage[w ushr 6] or (1L shl w)
+        }
+        return coverage
     }
 
     fun size(): Int {
@@ -160,4 +394,48 @@ class TokenIndex(comparator: Comparator<Token>, private val witnesses: List<Iter
     init {
         this.comparator = MarkerTokenComparator(comparator)
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Splits an LCP array into the intervals of the suffix array that become the blocks of a token index, reporting
+ * the first and last index in the suffix array and the common prefix length of every interval, in block order.
+ */
+internal inline fun splitLCPIntervals(size: Int, lcpAt: (Int) -> Int, interval: (Int, Int, Int) -> Unit) {
+    var previousLCP_value = 0
+    // open intervals by their start and length
+    var openStarts = IntArray(16)
+    var openLengths = IntArray(16)
+    var open = 0
+    var lastClosedStart = 0
+    for (idx in 0 until size) {
+        val lcp_value = lcpAt(idx)
+        if (lcp_value > previousLCP_value) {
+            if (open == openStarts.size) {
+                openStarts = openStarts.copyOf(open * 2)
+                openLengths = openLengths.copyOf(open * 2)
+            }
+            openStarts[open] = idx - 1
+            openLengths[open++] = lcp_value
+            previousLCP_value = lcp_value
+        } else if (lcp_value < previousLCP_value) {
+            // close open intervals that are larger than current LCP value
+            while (open > 0 && openLengths[open - 1] > lcp_value) {
+                open--
+                interval(openStarts[open], idx - 1, openLengths[open])
+                lastClosedStart = openStarts[open]
+            }
+            // then: open a new interval starting with filtered intervals
+            if (lcp_value > 0) {
+                openStarts[open] = lastClosedStart
+                openLengths[open++] = lcp_value
+            }
+            previousLCP_value = lcp_value
+        }
+    }
+    // add all the open intervals to the result
+    for (i in 0 until open) {
+        if (openLengths[i] > 0) {
+            interval(openStarts[i], size - 1, openLengths[i])
+        }
+    }
+}
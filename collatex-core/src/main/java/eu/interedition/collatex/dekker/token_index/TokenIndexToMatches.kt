@@ -7,13 +7,14 @@ import eu.interedition.collatex.dekker.island.Coordinate
 import eu.interedition.collatex.dekker.island.Island
 import eu.interedition.collatex.util.VariantGraphRanking
 import java.util.*
-import java.util.stream.Collectors
+import java.util.function.IntUnaryOperator
 
 /**
  * Created by ronald on 4/26/15.
  */
 object TokenIndexToMatches {
-    fun createMatches(tokenIndex: TokenIndex, vertex_array: Array<VariantGraph.Vertex?>, g: VariantGraph?, w: Iterable<Token>): Set<Island> {
+    @JvmOverloads
+    fun createMatches(tokenIndex: TokenIndex, vertex_array: Array<VariantGraph.Vertex?>, g: VariantGraph?, w: Iterable<Token>, pruning: CandidatePruning? = null): Set<Island> {
         // we need the variant graph ranking for the projection in the vector space
         val ranking = VariantGraphRanking.of(g)
         // init result
@@ -22,43 +23,112 @@ object TokenIndexToMatches {
         // an island is a graph instance and a witness instance of the same block combined
         val witness = w.iterator().next().witness
         val startTokenPositionForWitness = tokenIndex.getStartTokenPositionForWitness(witness)
-        val instances = tokenIndex.getBlockInstancesForWitness(witness)
+        val witnessOrdinal = tokenIndex.witnessOrdinal(witness)
+        val suffixArray = tokenIndex.suffix_array!!
+        val tokens = tokenIndex.token_array!!.asList()
+        val rows = tokenIndex.getEndTokenPositionForWitness(witness) - startTokenPositionForWitness
+        val columns = ranking.rank(g!!.end) - 1
+        val column = graphInstanceColumn(vertex_array, ranking)
+        var graphStarts = IntArray(16)
         // we have to combine each instance in the witness with the other instances already present in the graph
-        for (witnessInstance in instances) {
-            // System.out.println("Debug creating matches for witness block instance: "+witnessInstance);
+        for (instance in tokenIndex.firstInstance(witnessOrdinal) until tokenIndex.firstInstance(witnessOrdinal + 1)) {
             // for every instance of a block in the witness we need to fetch the corresponding graph instances of the block
-            // calculate graph block instances
-            // fetch block
-            val block = witnessInstance.block
-            val allInstances = block.allInstances
-            val graphInstances = allInstances.stream() //
-                .filter { instance: Block.Instance -> instance.start_token < startTokenPositionForWitness } //
-                .collect(Collectors.toList())
+            // graph block instances are the ones before the witness in the token array
+            val block = tokenIndex.instanceBlock(instance)
+            if (!tokenIndex.blockOccursBefore(block, witnessOrdinal)) {
+                // the block does not occur in the graph yet
+                continue
+            }
+            val witnessInstanceStart = tokenIndex.instanceToken(instance)
+            var count = 0
+            for (suffix in tokenIndex.blockStart(block)..tokenIndex.blockEnd(block)) {
+                val graph_start_token = suffixArray[suffix]
+                if (graph_start_token < startTokenPositionForWitness) {
+                    if (count == graphStarts.size) {
+                        graphStarts = graphStarts.copyOf(count * 2)
+                    }
+                    graphStarts[count++] = graph_start_token
+                }
+            }
+            if (pruning != null) {
+                count = pruning.select(graphStarts, count, witnessInstanceStart - startTokenPositionForWitness, rows, columns, column)
+            }
+            val witnessInstance = Block.Instance(witnessInstanceStart, tokenIndex.blocks!![block])
             // now for every graph block instance we have to create matches
             // for backwards compatibility reasons we do that with the Island and Coordinates classes
-            for (graphInstance in graphInstances) {
+            for (i in 0 until count) {
                 // we need to create an island for every block instance in the graph corresponding to this block instance in the witness
-                val island = Island(witnessInstance)
-                // for every matching token from the witness with a vertex in the graph we need to create a coordinate and
-                // 1) add it to the island and 2) set the corresponding cell in the table
-                // set the tokens and vertices on the table
-                val graph_start_token = graphInstance.start_token
-                for (i in 0 until block.length) {
-                    val v = vertex_array[graph_start_token + i]
-                        ?: throw RuntimeException("Vertex is null for token \"+graph_start_token+i+\" that is supposed to be mapped to a vertex in the graph!")
-                    val column = ranking.apply(v) - 1
-                    val witnessStartToken = witnessInstance.start_token + i
-                    val row = witnessStartToken - startTokenPositionForWitness
-                    // create coordinate and at it to the Island for the combination of graph block instance and witness block instance
-                    // /*if (i == 0)*/ System.out.println("We go "+row + " "+column +" "+witnessStartToken);
-                    val token = tokenIndex.token_array!![witnessStartToken]
-                    val match = Match(v, token)
-                    val coordinate = Coordinate(row, column, match)
-                    island.add(coordinate)
-                }
-                result.add(island)
+                result.add(createIsland(witnessInstance, graphStarts[i], startTokenPositionForWitness, tokens, vertex_array, ranking))
+            }
+        }
+        return result
+    }
+
+    // the same matches from an incremental token index, to which the given witness has been added last
+    @JvmOverloads
+    fun createMatches(tokenIndex: IncrementalTokenIndex, vertex_array: Array<VariantGraph.Vertex?>, g: VariantGraph?, w: Iterable<Token>, pruning: CandidatePruning? = null): Set<Island> {
+        val ranking = VariantGraphRanking.of(g)
+        val result: MutableSet<Island> = HashSet()
+        val witness = w.iterator().next().witness
+        val startTokenPositionForWitness = tokenIndex.getStartTokenPositionForWitness(witness)
+        val witnessOrdinal = tokenIndex.witnessOrdinal(witness)
+        val tokens = tokenIndex.tokens()
+        val rows = tokenIndex.getEndTokenPositionForWitness(witness) - startTokenPositionForWitness
+        val columns = ranking.rank(g!!.end) - 1
+        val column = graphInstanceColumn(vertex_array, ranking)
+        var graphStarts = IntArray(16)
+        for (witnessInstance in tokenIndex.getBlockInstancesForWitness(witness)) {
+            val block = witnessInstance.block
+            if (!block.occursBefore(witnessOrdinal)) {
+                // the block does not occur in the graph yet
+                continue
+            }
+            // instances are in token order, so graph block instances come first
+            var count = 0
+            while (count < block.frequency && block.instanceToken(count) < startTokenPositionForWitness) {
+                count++
+            }
+            if (graphStarts.size < count) {
+                graphStarts = IntArray(count)
+            }
+            for (i in 0 until count) {
+                graphStarts[i] = block.instanceToken(i)
+            }
+            if (pruning != null) {
+                count = pruning.select(graphStarts, count, witnessInstance.start_token - startTokenPositionForWitness, rows, columns, column)
+            }
+            for (i in 0 until count) {
+                result.add(createIsland(witnessInstance, graphStarts[i], startTokenPositionForWitness, tokens, vertex_array, ranking))
             }
         }
         return result
     }
+
+    // the column of the first coordinate of the island of a graph instance, by its start token
+    private fun graphInstanceColumn(vertex_array: Array<VariantGraph.Vertex?>, ranking: VariantGraphRanking): IntUnaryOperator {
+        return IntUnaryOperator { ranking.rank(vertex_array[it]!!) - 1 }
+    }
+
+    // the island of matches between a block instance in the witness and one in the graph
+    private fun createIsland(witnessInstance: Block.Instance, graph_start_token: Int, startTokenPositionForWitness: Int,
+                             tokens: List<Token>, vertex_array: Array<VariantGraph.Vertex?>, ranking: VariantGraphRanking): Island {
+        val island = Island(witnessInstance)
+        // for every matching token from the witness with a vertex in the graph we need to create a coordinate and
+        // 1) add it to the island and 2) set the corresponding cell in the table
+        // set the tokens and vertices on the table
+        for (i in 0 until witnessInstance.length()) {
+            val v = vertex_array[graph_start_token + i]
+                ?: throw RuntimeException("Vertex is null for token \"+graph_start_token+i+\" that is supposed to be mapped to a vertex in the graph!")
+            val column = ranking.rank(v) - 1
+            val witnessStartToken = witnessInstance.start_token + i
+            val row = witnessStartToken - startTokenPositionForWitness
+            // create coordinate and at it to the Island for the combination of graph block instance and witness block instance
+            // /*if (i == 0)*/ System.out.println("We go "+row + " "+column +" "+witnessStartToken);
+            val token = tokens[witnessStartToken]
+            val match = Match(v, token)
+            val coordinate = Coordinate(row, column, match)
+            island.add(coordinate)
+        }
+        return island
+    }
 }
\ No newline at end of file
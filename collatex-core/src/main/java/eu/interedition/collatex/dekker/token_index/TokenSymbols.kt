@@ -0,0 +1,36 @@
+package eu.interedition.collatex.dekker.token_index
+
+import eu.interedition.collatex.Token
+import java.util.*
+
+/**
+ * Looks up the symbols of tokens as numbered by [TokenIndex.symbols], by their key or, for comparators without
+ * keys, by comparison; keeps one entry per distinct token.
+ */
+internal class TokenSymbols(tokenIndex: TokenIndex, symbols: IntArray) {
+    private val keyedComparator = tokenIndex.keyedComparator
+    private val keySymbols: MutableMap<Any, Int> = HashMap()
+    private val tokenSymbols: MutableMap<Token, Int> = TreeMap(tokenIndex.comparator)
+
+    init {
+        for ((position, token) in tokenIndex.token_array!!.withIndex()) {
+            if (token is TokenIndex.MarkerToken) {
+                continue
+            }
+            if (keyedComparator != null) {
+                keySymbols.putIfAbsent(keyedComparator.key(token), symbols[position])
+            } else {
+                tokenSymbols.putIfAbsent(token, symbols[position])
+            }
+        }
+    }
+
+    // the symbols of the tokens of a phrase, null if any of them does not occur in the token index
+    fun pattern(phrase: List<Token>): IntArray? {
+        val pattern = IntArray(phrase.size)
+        for ((i, token) in phrase.withIndex()) {
+            pattern[i] = (if (keyedComparator != null) keySymbols[keyedComparator.key(token)] else tokenSymbols[token]) ?: return null
+        }
+        return pattern
+    }
+}
@@ -0,0 +1,20 @@
+package eu.interedition.collatex.matching;
+
+import eu.interedition.collatex.Token;
+
+import java.util.Comparator;
+
+/**
+ * A token comparator, which considers two tokens equal if and only if their keys are equal.
+ * <p>
+ * Token indices use the key to assign symbol ids to tokens in a single pass over a hash table instead of
+ * sorting all tokens with the comparator.
+ */
+public interface KeyedTokenComparator extends Comparator<Token> {
+
+    /**
+     * @return a key with consistent {@link Object#equals(Object)} and {@link Object#hashCode()}, equal for two
+     * tokens whenever {@link #compare(Object, Object)} returns <code>0</code> for them
+     */
+    Object key(Token token);
+}
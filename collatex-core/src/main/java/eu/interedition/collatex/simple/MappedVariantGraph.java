@@ -0,0 +1,425 @@
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.CompactVariantGraph;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.Witness;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * A variant graph read from its binary representation, as written by
+ * {@link SimpleVariantGraphSerializer#toBinary(OutputStream)}.
+ * <p>
+ * The file is memory-mapped and all queries are answered by reading from the mapped buffer, so loading a graph
+ * only costs the validation of its header, independent of its size. The layout mirrors {@link CompactVariantGraph}:
+ * vertices are numbered in topological order, edges are stored in CSR arrays with a witness bit mask each, and
+ * tokens are referenced by their witness and by indices into a string table. All values are big-endian:
+ * <pre>
+ * header          magic, version, witnesses, vertices, edges, tokens, transpositions, transposed vertices,
+ *                 strings, mask words, start, end                                 (int[12])
+ * ranks           by vertex                                                       (int[vertices])
+ * outgoing        offsets by vertex, targets by edge                              (int[vertices + 1], int[edges])
+ * incoming        offsets by vertex, sources and edges by incoming edge           (int[vertices + 1], int[edges] x 2)
+ * tokens          offsets by vertex, witness, content and normalized string by token (int[vertices + 1], int[tokens] x 3)
+ * transpositions  offsets by transposition, vertices                              (int[transpositions + 1], int[transposed])
+ * edge masks      by edge                                                         (long[edges * mask words])
+ * vertex masks    by vertex                                                       (long[vertices * mask words])
+ * strings         byte offsets by string, UTF-8 bytes; witness sigla come first   (int[strings + 1], byte[])
+ * </pre>
+ */
+public class MappedVariantGraph {
+
+    static final int MAGIC = 0x43585647;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+
+    private final int witnessCount;
+    private final int size;
+    private final int edgeCount;
+    private final int tokenCount;
+    private final int transpositionCount;
+    private final int maskWords;
+    private final int start;
+    private final int end;
+
+    private final int ranks;
+    private final int outgoingOffsets;
+    private final int targets;
+    private final int incomingOffsets;
+    private final int sources;
+    private final int incomingEdges;
+    private final int tokenOffsets;
+    private final int tokenWitnesses;
+    private final int tokenContents;
+    private final int tokenNormalized;
+    private final int transpositionOffsets;
+    private final int transposed;
+    private final int edgeWitnesses;
+    private final int vertexWitnesses;
+    private final int stringOffsets;
+    private final int strings;
+
+    MappedVariantGraph(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a variant graph");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported variant graph version: " + buffer.getInt(4));
+        }
+        this.witnessCount = buffer.getInt(8);
+        this.size = buffer.getInt(12);
+        this.edgeCount = buffer.getInt(16);
+        this.tokenCount = buffer.getInt(20);
+        this.transpositionCount = buffer.getInt(24);
+        final int transposedCount = buffer.getInt(28);
+        final int stringCount = buffer.getInt(32);
+        this.maskWords = buffer.getInt(36);
+        this.start = buffer.getInt(40);
+        this.end = buffer.getInt(44);
+
+        if (witnessCount < 0 || size < 2 || edgeCount < 0 || tokenCount < 0 || transpositionCount < 0 || transposedCount < 0
+                || stringCount < witnessCount || maskWords < 0 || start < 0 || start >= size || end < 0 || end >= size) {
+            throw new IllegalArgumentException("Corrupt variant graph header");
+        }
+
+        // section offsets are computed as longs, so that no count read from a corrupt header can overflow them
+        final long outgoingOffsets = HEADER_SIZE + (long) Integer.BYTES * size;
+        final long targets = outgoingOffsets + Integer.BYTES * (size + 1L);
+        final long incomingOffsets = targets + (long) Integer.BYTES * edgeCount;
+        final long sources = incomingOffsets + Integer.BYTES * (size + 1L);
+        final long incomingEdges = sources + (long) Integer.BYTES * edgeCount;
+        final long tokenOffsets = incomingEdges + (long) Integer.BYTES * edgeCount;
+        final long tokenWitnesses = tokenOffsets + Integer.BYTES * (size + 1L);
+        final long tokenContents = tokenWitnesses + (long) Integer.BYTES * tokenCount;
+        final long tokenNormalized = tokenContents + (long) Integer.BYTES * tokenCount;
+        final long transpositionOffsets = tokenNormalized + (long) Integer.BYTES * tokenCount;
+        final long transposed = transpositionOffsets + Integer.BYTES * (transpositionCount + 1L);
+        final long edgeWitnesses = transposed + (long) Integer.BYTES * transposedCount;
+        final long vertexWitnesses = edgeWitnesses + (long) Long.BYTES * edgeCount * maskWords;
+        final long stringOffsets = vertexWitnesses + (long) Long.BYTES * size * maskWords;
+        final long strings = stringOffsets + Integer.BYTES * (stringCount + 1L);
+        if (buffer.capacity() < strings) {
+            throw new IllegalArgumentException("Truncated variant graph");
+        }
+
+        this.ranks = HEADER_SIZE;
+        this.outgoingOffsets = (int) outgoingOffsets;
+        this.targets = (int) targets;
+        this.incomingOffsets = (int) incomingOffsets;
+        this.sources = (int) sources;
+        this.incomingEdges = (int) incomingEdges;
+        this.tokenOffsets = (int) tokenOffsets;
+        this.tokenWitnesses = (int) tokenWitnesses;
+        this.tokenContents = (int) tokenContents;
+        this.tokenNormalized = (int) tokenNormalized;
+        this.transpositionOffsets = (int) transpositionOffsets;
+        this.transposed = (int) transposed;
+        this.edgeWitnesses = (int) edgeWitnesses;
+        this.vertexWitnesses = (int) vertexWitnesses;
+        this.stringOffsets = (int) stringOffsets;
+        this.strings = (int) strings;
+
+        final int stringBytes = buffer.getInt(this.stringOffsets + Integer.BYTES * stringCount);
+        if (stringBytes < 0 || buffer.capacity() - this.strings < stringBytes) {
+            throw new IllegalArgumentException("Truncated variant graph");
+        }
+    }
+
+    /**
+     * Maps a variant graph file into memory.
+     */
+    public static MappedVariantGraph map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedVariantGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public int witnessCount() {
+        return witnessCount;
+    }
+
+    public String sigil(int witness) {
+        return string(witness);
+    }
+
+    public int rank(int v) {
+        return buffer.getInt(ranks + Integer.BYTES * v);
+    }
+
+    public int outDegree(int v) {
+        return firstOutgoingEdge(v + 1) - firstOutgoingEdge(v);
+    }
+
+    public int inDegree(int v) {
+        return incomingOffset(v + 1) - incomingOffset(v);
+    }
+
+    /**
+     * Outgoing edges of a vertex are numbered <code>firstOutgoingEdge(v) .. firstOutgoingEdge(v + 1) - 1</code>.
+     */
+    public int firstOutgoingEdge(int v) {
+        return buffer.getInt(outgoingOffsets + Integer.BYTES * v);
+    }
+
+    public int target(int edge) {
+        return buffer.getInt(targets + Integer.BYTES * edge);
+    }
+
+    /**
+     * Incoming edges of a vertex are addressed by <code>incomingOffset(v) .. incomingOffset(v + 1) - 1</code>.
+     */
+    public int incomingOffset(int v) {
+        return buffer.getInt(incomingOffsets + Integer.BYTES * v);
+    }
+
+    public int source(int incoming) {
+        return buffer.getInt(sources + Integer.BYTES * incoming);
+    }
+
+    public int incomingEdge(int incoming) {
+        return buffer.getInt(incomingEdges + Integer.BYTES * incoming);
+    }
+
+    public boolean hasWitness(int edge, int witness) {
+        return (buffer.getLong(edgeWitnesses + Long.BYTES * (edge * maskWords + (witness >>> 6))) & (1L << witness)) != 0;
+    }
+
+    public boolean vertexHasWitness(int v, int witness) {
+        return (buffer.getLong(vertexWitnesses + Long.BYTES * (v * maskWords + (witness >>> 6))) & (1L << witness)) != 0;
+    }
+
+    /**
+     * The tokens of a vertex are numbered <code>firstToken(v) .. firstToken(v + 1) - 1</code>.
+     */
+    public int firstToken(int v) {
+        return buffer.getInt(tokenOffsets + Integer.BYTES * v);
+    }
+
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    public int tokenWitness(int token) {
+        return buffer.getInt(tokenWitnesses + Integer.BYTES * token);
+    }
+
+    public String tokenContent(int token) {
+        return string(buffer.getInt(tokenContents + Integer.BYTES * token));
+    }
+
+    public String tokenNormalized(int token) {
+        return string(buffer.getInt(tokenNormalized + Integer.BYTES * token));
+    }
+
+    public int transpositionCount() {
+        return transpositionCount;
+    }
+
+    public int transpositionSize(int transposition) {
+        return transpositionOffset(transposition + 1) - transpositionOffset(transposition);
+    }
+
+    /**
+     * @return the <code>i</code>-th vertex of a transposition, in topological order
+     */
+    public int transposed(int transposition, int i) {
+        return buffer.getInt(transposed + Integer.BYTES * (transpositionOffset(transposition) + i));
+    }
+
+    private int transpositionOffset(int transposition) {
+        return buffer.getInt(transpositionOffsets + Integer.BYTES * transposition);
+    }
+
+    private String string(int index) {
+        final int from = buffer.getInt(stringOffsets + Integer.BYTES * index);
+        final int to = buffer.getInt(stringOffsets + Integer.BYTES * (index + 1));
+        final byte[] bytes = new byte[to - from];
+        for (int b = 0; b < bytes.length; b++) {
+            bytes[b] = buffer.get(strings + from + b);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + size() + " vertices, " + edgeCount() + " edges, " + witnessCount() + " witnesses}";
+    }
+
+    static void write(CompactVariantGraph graph, Function<Token, String> tokenToString, OutputStream stream) throws IOException {
+        final int vertices = graph.size();
+        final int edges = graph.edgeCount();
+        final int witnesses = graph.witnessCount();
+        final int maskWords = Math.max(1, (witnesses + 63) >>> 6);
+
+        final Map<Witness, Integer> witnessOrdinals = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final Map<String, Integer> stringIndex = new HashMap<>();
+        for (int w = 0; w < witnesses; w++) {
+            witnessOrdinals.put(graph.witness(w), w);
+            strings.add(graph.witness(w).getSigil());
+        }
+
+        int tokens = 0;
+        for (int v = 0; v < vertices; v++) {
+            tokens += graph.tokens(v).size();
+        }
+        final int[] tokenWitnesses = new int[tokens];
+        final int[] tokenContents = new int[tokens];
+        final int[] tokenNormalized = new int[tokens];
+        int token = 0;
+        for (int v = 0; v < vertices; v++) {
+            for (Token t : graph.tokens(v)) {
+                tokenWitnesses[token] = witnessOrdinals.getOrDefault(t.getWitness(), -1);
+                if (t instanceof SimpleToken) {
+                    tokenContents[token] = string(((SimpleToken) t).getContent(), strings, stringIndex);
+                    tokenNormalized[token] = string(((SimpleToken) t).getNormalized(), strings, stringIndex);
+                } else {
+                    tokenContents[token] = tokenNormalized[token] = string(tokenToString.apply(t), strings, stringIndex);
+                }
+                token++;
+            }
+        }
+
+        int transposed = 0;
+        for (int t = 0; t < graph.transpositionCount(); t++) {
+            transposed += graph.transpositionSize(t);
+        }
+
+        final List<byte[]> encoded = new ArrayList<>(strings.size());
+        for (String string : strings) {
+            encoded.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(witnesses);
+        out.writeInt(vertices);
+        out.writeInt(edges);
+        out.writeInt(tokens);
+        out.writeInt(graph.transpositionCount());
+        out.writeInt(transposed);
+        out.writeInt(encoded.size());
+        out.writeInt(maskWords);
+        out.writeInt(graph.start());
+        out.writeInt(graph.end());
+
+        for (int v = 0; v < vertices; v++) {
+            out.writeInt(graph.rank(v));
+        }
+        for (int v = 0; v <= vertices; v++) {
+            out.writeInt(v < vertices ? graph.firstOutgoingEdge(v) : edges);
+        }
+        for (int e = 0; e < edges; e++) {
+            out.writeInt(graph.target(e));
+        }
+        for (int v = 0; v <= vertices; v++) {
+            out.writeInt(graph.incomingOffset(v));
+        }
+        for (int i = 0; i < edges; i++) {
+            out.writeInt(graph.source(i));
+        }
+        for (int i = 0; i < edges; i++) {
+            out.writeInt(graph.incomingEdge(i));
+        }
+
+        int tokenOffset = 0;
+        for (int v = 0; v < vertices; v++) {
+            out.writeInt(tokenOffset);
+            tokenOffset += graph.tokens(v).size();
+        }
+        out.writeInt(tokenOffset);
+        writeInts(out, tokenWitnesses);
+        writeInts(out, tokenContents);
+        writeInts(out, tokenNormalized);
+
+        int transpositionOffset = 0;
+        for (int t = 0; t < graph.transpositionCount(); t++) {
+            out.writeInt(transpositionOffset);
+            transpositionOffset += graph.transpositionSize(t);
+        }
+        out.writeInt(transpositionOffset);
+        for (int t = 0; t < graph.transpositionCount(); t++) {
+            for (int i = 0; i < graph.transpositionSize(t); i++) {
+                out.writeInt(graph.transposed(t, i));
+            }
+        }
+
+        for (int e = 0; e < edges; e++) {
+            final int edge = e;
+            writeMask(out, maskWords, witnesses, w -> graph.hasWitness(edge, w));
+        }
+        for (int v = 0; v < vertices; v++) {
+            final int vertex = v;
+            writeMask(out, maskWords, witnesses, w -> graph.vertexHasWitness(vertex, w));
+        }
+
+        int stringOffset = 0;
+        for (byte[] bytes : encoded) {
+            out.writeInt(stringOffset);
+            stringOffset += bytes.length;
+        }
+        out.writeInt(stringOffset);
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    private static int string(String string, List<String> strings, Map<String, Integer> index) {
+        return index.computeIfAbsent(string, s -> {
+            strings.add(s);
+            return strings.size() - 1;
+        });
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeMask(DataOutputStream out, int maskWords, int witnesses, IntPredicate hasWitness) throws IOException {
+        for (int word = 0; word < maskWords; word++) {
+            long mask = 0;
+            for (int w = word << 6; w < Math.min(witnesses, (word + 1) << 6); w++) {
+                if (hasWitness.test(w)) {
+                    mask |= 1L << w;
+                }
+            }
+            out.writeLong(mask);
+        }
+    }
+}
@@ -19,17 +19,18 @@
 
 package eu.interedition.collatex.simple;
 
+import eu.interedition.collatex.CompactVariantGraph;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.Tuple;
 import eu.interedition.collatex.util.ParallelSegmentationApparatus;
 import eu.interedition.collatex.util.StreamUtil;
-import eu.interedition.collatex.util.VariantGraphRanking;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.*;
@@ -51,23 +52,29 @@ public class SimpleVariantGraphSerializer {
      */
     protected static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
 
-    private final VariantGraph graph;
+    private final CompactVariantGraph graph;
     private final Function<Iterable<Token>, String> tokensToString;
-    private final Map<VariantGraph.Vertex, Integer> vertexIds = new HashMap<>();
-    private VariantGraphRanking ranking;
 
     public SimpleVariantGraphSerializer(VariantGraph graph) {
         this(graph, SIMPLE_TOKEN_TO_STRING);
     }
 
     public SimpleVariantGraphSerializer(VariantGraph graph, Function<Iterable<Token>, String> tokensToString) {
+        this(graph.freeze(), tokensToString);
+    }
+
+    /**
+     * Serializers of a frozen graph do not change any state while rendering, so several formats can be rendered
+     * in parallel, each by its own thread.
+     */
+    public SimpleVariantGraphSerializer(CompactVariantGraph graph, Function<Iterable<Token>, String> tokensToString) {
         this.graph = graph;
         this.tokensToString = tokensToString;
     }
 
     public void toTEI(final XMLStreamWriter xml) throws XMLStreamException {
         try {
-            ParallelSegmentationApparatus.generate(ranking(), new ParallelSegmentationApparatus.GeneratorCallback() {
+            ParallelSegmentationApparatus.generate(graph, new ParallelSegmentationApparatus.GeneratorCallback() {
                 @Override
                 public void start() {
                     try {
@@ -138,7 +145,7 @@ public class SimpleVariantGraphSerializer {
 
     public void toCsv(final Writer out) throws IOException {
         try {
-            ParallelSegmentationApparatus.generate(ranking(), new ParallelSegmentationApparatus.GeneratorCallback() {
+            ParallelSegmentationApparatus.generate(graph, new ParallelSegmentationApparatus.GeneratorCallback() {
                 @Override
                 public void start() {
                     try {
@@ -186,6 +193,13 @@ public class SimpleVariantGraphSerializer {
         }
     }
 
+    /**
+     * Writes the graph in the binary format read by {@link MappedVariantGraph#map(java.nio.file.Path)}.
+     */
+    public void toBinary(final OutputStream out) throws IOException {
+        MappedVariantGraph.write(graph, token -> tokensToString.apply(Collections.singleton(token)), out);
+    }
+
     static final Pattern CSV_SPECIAL_CHARS = Pattern.compile("[\r\n\",]");
 
     static String escapeCsvField(String content) {
@@ -199,21 +213,21 @@ public class SimpleVariantGraphSerializer {
 
         out.println("digraph G {");
 
-        for (VariantGraph.Vertex v : graph.vertices()) {
+        for (int v = 0; v < graph.size(); v++) {
             out.print(indent + id(v));
             out.print(" [label = \"" + toDotLabel(v) + "\"]");
             out.println(";");
         }
 
-        for (VariantGraph.Vertex v : graph.vertices()) {
-            for (Map.Entry<VariantGraph.Vertex, Set<Witness>> e : v.outgoing().entrySet()) {
-                out.print(indent + id(v) + connector + id(e.getKey()));
-                out.print(" [label = \"" + toDotLabel(e.getValue()) + "\"]");
+        for (int v = 0; v < graph.size(); v++) {
+            for (int e = graph.firstOutgoingEdge(v); e < graph.firstOutgoingEdge(v + 1); e++) {
+                out.print(indent + id(v) + connector + id(graph.target(e)));
+                out.print(" [label = \"" + toDotLabel(graph.witnesses(e)) + "\"]");
                 out.println(";");
             }
         }
 
-        for (Tuple<VariantGraph.Vertex> transposedTuple : transposedTuples()) {
+        for (Tuple<Integer> transposedTuple : transposedTuples()) {
             final String leftId = id(transposedTuple.left);
             final String rightId = id(transposedTuple.right);
             out.print(indent + leftId + connector + rightId);
@@ -221,7 +235,7 @@ public class SimpleVariantGraphSerializer {
             out.println(";");
         }
 
-        out.print(indent + id(graph.getStart()) + connector + id(graph.getEnd()));
+        out.print(indent + id(graph.start()) + connector + id(graph.end()));
         out.print(" [color =  \"white\"]");
         out.println(";");
 
@@ -230,54 +244,45 @@ public class SimpleVariantGraphSerializer {
         out.flush();
     }
 
-    private String id(VariantGraph.Vertex vertex) {
-        return ("v" + numericId(vertex));
-    }
-
-    private int numericId(VariantGraph.Vertex vertex) {
-        Integer id = vertexIds.computeIfAbsent(vertex, k -> vertexIds.size());
-        return id;
+    private String id(int vertex) {
+        return ("v" + vertex);
     }
 
     String toDotLabel(Set<Witness> e) {
         return escapeDotLabel(e.stream().map(Witness::getSigil).distinct().sorted().collect(Collectors.joining(", ")));
     }
 
-    String toDotLabel(VariantGraph.Vertex v) {
-        return escapeDotLabel(vertexToString.apply(v));
+    String toDotLabel(int v) {
+        return escapeDotLabel(vertexToString(v));
     }
 
     static String escapeDotLabel(String string) {
         return string.replaceAll("\"", "\\\\\"").replaceAll("[\n\r]+", "\u00B6");
     }
 
-    VariantGraphRanking ranking() {
-        if (ranking == null) {
-            ranking = VariantGraphRanking.of(graph);
-        }
-        return ranking;
-    }
-
-    Set<Tuple<VariantGraph.Vertex>> transposedTuples() {
-        final Set<Tuple<VariantGraph.Vertex>> tuples = new HashSet<>();
-        final Comparator<VariantGraph.Vertex> vertexOrdering = ranking().comparator();
-
-        for (Set<VariantGraph.Vertex> transposition : graph.transpositions()) {
-            final SortedMap<Witness, SortedSet<VariantGraph.Vertex>> verticesByWitness = new TreeMap<>(Witness.SIGIL_COMPARATOR);
-            for (VariantGraph.Vertex vertex : transposition) {
-                for (Witness witness : vertex.witnesses()) {
-                    verticesByWitness.computeIfAbsent(witness, w -> new TreeSet<>(vertexOrdering)).add(vertex);
+    Set<Tuple<Integer>> transposedTuples() {
+        final Set<Tuple<Integer>> tuples = new HashSet<>();
+        final Comparator<Integer> vertexOrdering = Comparator.comparingInt(graph::rank);
+
+        for (int t = 0; t < graph.transpositionCount(); t++) {
+            final SortedMap<Witness, SortedSet<Integer>> verticesByWitness = new TreeMap<>(Witness.SIGIL_COMPARATOR);
+            for (int i = 0; i < graph.transpositionSize(t); i++) {
+                final int vertex = graph.transposed(t, i);
+                for (int w = 0; w < graph.witnessCount(); w++) {
+                    if (graph.vertexHasWitness(vertex, w)) {
+                        verticesByWitness.computeIfAbsent(graph.witness(w), k -> new TreeSet<>(vertexOrdering)).add(vertex);
+                    }
                 }
             }
 
             Witness prev = null;
             for (Witness witness : verticesByWitness.keySet()) {
                 if (prev != null) {
-                    final Iterator<VariantGraph.Vertex> prevIt = verticesByWitness.get(prev).iterator();
-                    final Iterator<VariantGraph.Vertex> nextIt = verticesByWitness.get(witness).iterator();
+                    final Iterator<Integer> prevIt = verticesByWitness.get(prev).iterator();
+                    final Iterator<Integer> nextIt = verticesByWitness.get(witness).iterator();
                     while (prevIt.hasNext() && nextIt.hasNext()) {
-                        final VariantGraph.Vertex prevVertex = prevIt.next();
-                        final VariantGraph.Vertex nextVertex = nextIt.next();
+                        final Integer prevVertex = prevIt.next();
+                        final Integer nextVertex = nextIt.next();
                         if (!prevVertex.equals(nextVertex)) {
                             tuples.add(new Tuple<>(prevVertex, nextVertex));
                         }
@@ -307,36 +312,34 @@ public class SimpleVariantGraphSerializer {
         xml.writeAttribute(PARSEEDGEIDS_ATT, PARSEEDGEIDS_DEFAULT_VALUE);
         xml.writeAttribute(PARSEORDER_ATT, PARSEORDER_DEFAULT_VALUE);
 
-        final VariantGraphRanking ranking = ranking();
-        for (VariantGraph.Vertex vertex : graph.vertices()) {
-            final int id = numericId(vertex);
+        for (int id = 0; id < graph.size(); id++) {
             xml.writeStartElement(GRAPHML_NS, NODE_TAG);
             xml.writeAttribute(ID_ATT, "n" + id);
             GraphMLProperty.NODE_NUMBER.write(Integer.toString(id), xml);
-            GraphMLProperty.NODE_RANK.write(Integer.toString(ranking.apply(vertex)), xml);
-            GraphMLProperty.NODE_TOKEN.write(vertexToString.apply(vertex), xml);
+            GraphMLProperty.NODE_RANK.write(Integer.toString(graph.rank(id)), xml);
+            GraphMLProperty.NODE_TOKEN.write(vertexToString(id), xml);
             xml.writeEndElement();
         }
 
         int edgeNumber = 0;
-        for (VariantGraph.Vertex v : graph.vertices()) {
-            for (Map.Entry<VariantGraph.Vertex, Set<Witness>> edge : v.outgoing().entrySet()) {
+        for (int v = 0; v < graph.size(); v++) {
+            for (int edge = graph.firstOutgoingEdge(v); edge < graph.firstOutgoingEdge(v + 1); edge++) {
                 xml.writeStartElement(GRAPHML_NS, EDGE_TAG);
                 xml.writeAttribute(ID_ATT, "e" + edgeNumber);
-                xml.writeAttribute(SOURCE_ATT, "n" + numericId(v));
-                xml.writeAttribute(TARGET_ATT, "n" + numericId(edge.getKey()));
+                xml.writeAttribute(SOURCE_ATT, "n" + v);
+                xml.writeAttribute(TARGET_ATT, "n" + graph.target(edge));
                 GraphMLProperty.EDGE_NUMBER.write(Integer.toString(edgeNumber++), xml);
                 GraphMLProperty.EDGE_TYPE.write(EDGE_TYPE_PATH, xml);
-                GraphMLProperty.EDGE_WITNESSES.write(edge.getValue().stream().map(Witness::getSigil).distinct().sorted().collect(Collectors.joining(", ")), xml);
+                GraphMLProperty.EDGE_WITNESSES.write(graph.witnesses(edge).stream().map(Witness::getSigil).distinct().sorted().collect(Collectors.joining(", ")), xml);
                 xml.writeEndElement();
             }
         }
 
-        for (Tuple<VariantGraph.Vertex> transposedTuple : transposedTuples()) {
+        for (Tuple<Integer> transposedTuple : transposedTuples()) {
             xml.writeStartElement(GRAPHML_NS, EDGE_TAG);
             xml.writeAttribute(ID_ATT, "e" + edgeNumber);
-            xml.writeAttribute(SOURCE_ATT, "n" + numericId(transposedTuple.left));
-            xml.writeAttribute(TARGET_ATT, "n" + numericId(transposedTuple.right));
+            xml.writeAttribute(SOURCE_ATT, "n" + transposedTuple.left);
+            xml.writeAttribute(TARGET_ATT, "n" + transposedTuple.right);
             GraphMLProperty.EDGE_NUMBER.write(Integer.toString(edgeNumber++), xml);
             GraphMLProperty.EDGE_TYPE.write(EDGE_TYPE_TRANSPOSITION, xml);
             xml.writeEndElement();
@@ -411,14 +414,14 @@ public class SimpleVariantGraphSerializer {
         }
     }
 
-    final Function<VariantGraph.Vertex, String> vertexToString = new Function<VariantGraph.Vertex, String>() {
-        @Override
-        public String apply(VariantGraph.Vertex input) {
-            return input.witnesses().stream().findFirst()
-                    .map(witness -> tokensToString.apply(Arrays.asList(input.tokens().stream().filter(t -> witness.equals(t.getWitness())).toArray(Token[]::new))))
-                    .orElse("");
+    String vertexToString(int vertex) {
+        final int witnessOrdinal = graph.firstVertexWitness(vertex);
+        if (witnessOrdinal < 0) {
+            return "";
         }
-    };
+        final Witness witness = graph.witness(witnessOrdinal);
+        return tokensToString.apply(Arrays.asList(graph.tokens(vertex).stream().filter(t -> witness.equals(t.getWitness())).toArray(Token[]::new)));
+    }
 
     static final Function<Iterable<Token>, String> SIMPLE_TOKEN_TO_STRING = input -> StreamUtil.stream(input)
             .filter(t -> SimpleToken.class.isAssignableFrom(t.getClass()))
@@ -0,0 +1,136 @@
+package eu.interedition.collatex.suffixarray;
+
+import java.util.Arrays;
+
+/**
+ * A suffix array builder accepting any input symbols, which runs one of the {@link Algorithm algorithms} of this
+ * package on a dense copy of the input. The algorithm is either given or selected per input, depending on its
+ * length and its number of distinct symbols.
+ * <p>
+ * Symbols are remapped to <code>1 .. k</code> for <code>k</code> distinct symbols, preserving their order, so the
+ * resulting suffix array does not depend on the algorithm. Algorithms limited to byte-sized alphabets
+ * ({@link Algorithm#BPR}, {@link Algorithm#DEEP_SHALLOW}) are replaced by the selected one for larger alphabets.
+ */
+public final class AdaptiveSuffixArrayBuilder implements ISuffixArrayBuilder {
+
+    /**
+     * Inputs shorter than this are sorted by {@link Algorithm#QSUFSORT}, which has the least setup cost.
+     */
+    static final int SHORT_INPUT = 4096;
+
+    /**
+     * Inputs up to this length with no more distinct symbols than {@link #SMALL_ALPHABET} are sorted by
+     * {@link Algorithm#DIVSUFSORT}; its bucket tables grow with the square of the alphabet size.
+     */
+    static final int MEDIUM_INPUT = 100000;
+
+    static final int SMALL_ALPHABET = 512;
+
+    private static final int MAX_BYTE_ALPHABET = 255;
+
+    private final Algorithm algorithm;
+
+    /**
+     * Selects the algorithm per input.
+     */
+    public AdaptiveSuffixArrayBuilder() {
+        this(null);
+    }
+
+    /**
+     * @param algorithm the algorithm to use or <code>null</code> to select one per input
+     */
+    public AdaptiveSuffixArrayBuilder(Algorithm algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Selects the fastest algorithm for inputs of the given size. Calibrated on tokenized texts of 300 to 1M tokens
+     * with 35 to 36k distinct tokens: qsufsort wins on short inputs, divsufsort on medium-sized inputs over
+     * small alphabets, and SA-IS is never far from the best otherwise, while using the least memory.
+     */
+    public static Algorithm select(int length, int alphabetSize) {
+        if (length < SHORT_INPUT) {
+            return Algorithm.QSUFSORT;
+        }
+        if (length <= MEDIUM_INPUT && alphabetSize <= SMALL_ALPHABET) {
+            return Algorithm.DIVSUFSORT;
+        }
+        return Algorithm.SAIS;
+    }
+
+    @Override
+    public int extraTrailingSpace() {
+        return 0;
+    }
+
+    @Override
+    public int[] buildSuffixArray(int[] input, int start, int length) {
+        if (length < 2) {
+            return (length == 0 ? new int[0] : new int[]{0});
+        }
+        final int[] dense = new int[length + SuffixArrays.MAX_EXTRA_TRAILING_SPACE];
+        final int alphabetSize = densify(input, start, length, dense);
+
+        Algorithm algorithm = this.algorithm;
+        if (algorithm == null || (alphabetSize > MAX_BYTE_ALPHABET && (algorithm == Algorithm.BPR || algorithm == Algorithm.DEEP_SHALLOW))) {
+            algorithm = select(length, alphabetSize);
+        }
+
+        final int[] sa = instance(algorithm, alphabetSize).buildSuffixArray(dense, 0, length);
+        return (sa.length == length ? sa : Arrays.copyOf(sa, length));
+    }
+
+    /**
+     * @return an instance of the given algorithm, which may overwrite its input of symbols in <code>1 .. alphabetSize</code>
+     */
+    private static ISuffixArrayBuilder instance(Algorithm algorithm, int alphabetSize) {
+        switch (algorithm) {
+            case DIVSUFSORT:
+                return new DivSufSort(alphabetSize + 1);
+            case SKEW:
+            case SKEW_D:
+                return new Skew();
+            default:
+                return algorithm.getMemoryConservingInstance();
+        }
+    }
+
+    /**
+     * Copies the given input into <code>dense</code>, mapping its symbols to <code>1 .. k</code> in order.
+     *
+     * @return the number <code>k</code> of distinct symbols
+     */
+    static int densify(int[] input, int start, int length, int[] dense) {
+        final MinMax minmax = Tools.minmax(input, start, length);
+        if ((long) minmax.range() < 4L * length + 0x10000) {
+            final int[] symbols = new int[minmax.range() + 1];
+            for (int i = start; i < start + length; i++) {
+                symbols[input[i] - minmax.min] = 1;
+            }
+            int alphabetSize = 0;
+            for (int s = 0; s < symbols.length; s++) {
+                if (symbols[s] != 0) {
+                    symbols[s] = ++alphabetSize;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                dense[i] = symbols[input[start + i] - minmax.min];
+            }
+            return alphabetSize;
+        }
+
+        final int[] sorted = Arrays.copyOfRange(input, start, start + length);
+        Arrays.sort(sorted);
+        int alphabetSize = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[alphabetSize++] = sorted[i];
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            dense[i] = Arrays.binarySearch(sorted, 0, alphabetSize, input[start + i]) + 1;
+        }
+        return alphabetSize;
+    }
+}
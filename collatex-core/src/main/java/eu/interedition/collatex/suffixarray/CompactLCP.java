@@ -0,0 +1,94 @@
+package eu.interedition.collatex.suffixarray;
+
+import java.util.Arrays;
+
+/**
+ * An LCP array taking one byte per suffix. Most common prefixes of tokenized texts are short, so values up to
+ * {@link #MAX_PACKED} are stored in place; longer ones, and the constant <code>-1</code> of the first suffix, are
+ * kept in a sorted overflow table.
+ */
+public final class CompactLCP {
+
+    /**
+     * The largest value stored in place.
+     */
+    static final int MAX_PACKED = 0xfe;
+
+    private static final int OVERFLOW = 0xff;
+
+    private final byte[] packed;
+    private final int[] overflowIndex;
+    private final int[] overflowValue;
+
+    private CompactLCP(byte[] packed, int[] overflowIndex, int[] overflowValue) {
+        this.packed = packed;
+        this.overflowIndex = overflowIndex;
+        this.overflowValue = overflowValue;
+    }
+
+    /**
+     * Packs an LCP array.
+     */
+    public static CompactLCP of(int[] lcp) {
+        return of(lcp, null, lcp.length);
+    }
+
+    /**
+     * Packs the LCP array given as a permuted LCP array in text order, i.e. with the LCP value of suffix
+     * <code>sa[k]</code> at index <code>sa[k]</code> of <code>plcp</code>.
+     *
+     * @see SuffixArrays#computePLCP(int[], int, int, int[], int[])
+     */
+    public static CompactLCP of(int[] plcp, int[] sa, int length) {
+        final byte[] packed = new byte[length];
+        int[] overflowIndex = new int[16];
+        int[] overflowValue = new int[16];
+        int overflows = 0;
+        for (int k = 0; k < length; k++) {
+            final int value = (sa == null ? plcp[k] : plcp[sa[k]]);
+            if (value >= 0 && value <= MAX_PACKED) {
+                packed[k] = (byte) value;
+                continue;
+            }
+            packed[k] = (byte) OVERFLOW;
+            if (overflows == overflowIndex.length) {
+                overflowIndex = Arrays.copyOf(overflowIndex, overflows * 2);
+                overflowValue = Arrays.copyOf(overflowValue, overflows * 2);
+            }
+            overflowIndex[overflows] = k;
+            overflowValue[overflows++] = value;
+        }
+        return new CompactLCP(packed, Arrays.copyOf(overflowIndex, overflows), Arrays.copyOf(overflowValue, overflows));
+    }
+
+    /**
+     * @return the length of the common prefix of suffix <code>k</code> and <code>k-1</code> in the suffix array,
+     * <code>-1</code> for <code>k = 0</code>
+     */
+    public int get(int k) {
+        final int value = packed[k] & 0xff;
+        return (value == OVERFLOW ? overflowValue[Arrays.binarySearch(overflowIndex, k)] : value);
+    }
+
+    public int size() {
+        return packed.length;
+    }
+
+    public int[] toArray() {
+        final int[] lcp = new int[packed.length];
+        for (int k = 0; k < lcp.length; k++) {
+            lcp[k] = packed[k] & 0xff;
+        }
+        for (int i = 0; i < overflowIndex.length; i++) {
+            lcp[overflowIndex[i]] = overflowValue[i];
+        }
+        return lcp;
+    }
+
+    /**
+     * @return the number of bytes taken by this array, not counting object headers
+     */
+    public long footprint() {
+        return packed.length + 8L * overflowIndex.length;
+    }
+}
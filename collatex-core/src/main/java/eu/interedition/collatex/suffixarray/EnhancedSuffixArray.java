@@ -0,0 +1,212 @@
+package eu.interedition.collatex.suffixarray;
+
+import java.util.Arrays;
+
+/**
+ * A suffix array with its LCP array and a child table, answering exact pattern queries in
+ * <code>O(m + occ)</code> expected time for a pattern of <code>m</code> symbols occurring <code>occ</code> times.
+ * <p>
+ * The child table links every lcp-interval to its children by the symbol following their common prefix. It is
+ * built from a {@link Traversals#lcpIntervals(int, int[], Traversals.IIntervalVisitor) bottom-up traversal} and
+ * stored as a hash table, so a query selects each child in constant time instead of scanning the children, whose
+ * number is bounded by the alphabet size only.
+ *
+ * @see <a href="https://doi.org/10.1016/S1570-8667(03)00065-0">Replacing suffix trees with enhanced suffix arrays</a>
+ */
+public final class EnhancedSuffixArray {
+
+    private final int[] input;
+    private final int start;
+    private final int length;
+    private final int[] sa;
+
+    // lcp-intervals in post-order, the root coming last
+    private int[] intervalLcp = new int[16];
+    private int[] intervalLb = new int[16];
+    private int[] intervalRb = new int[16];
+    private int intervals;
+
+    // children by (interval << 32 | symbol) keys; values are 1 + the child interval, or -1 - the suffix array
+    // index of a leaf, 0 marking empty slots
+    private long[] childKeys;
+    private int[] childValues;
+
+    /**
+     * @param input  The input symbols.
+     * @param start  The offset of the sequence in the input.
+     * @param length The length of the sequence.
+     * @param sa     The suffix array of the sequence.
+     * @param lcp    The LCP array of the sequence.
+     */
+    public EnhancedSuffixArray(int[] input, int start, int length, int[] sa, int[] lcp) {
+        this.input = input;
+        this.start = start;
+        this.length = length;
+        this.sa = sa;
+
+        int capacity = 16;
+        while (capacity < 4L * length) {
+            capacity <<= 1;
+        }
+        this.childKeys = new long[capacity];
+        this.childValues = new int[capacity];
+
+        // the last interval visited starting at a suffix array index, which is the largest one up to the current
+        // interval as intervals are nested and visited bottom-up
+        final int[] intervalAt = new int[length];
+        Arrays.fill(intervalAt, -1);
+        Traversals.lcpIntervals(length, lcp, (h, lb, rb, childStarts, from, to) -> {
+            final int interval = addInterval(h, lb, rb);
+            for (int c = from; c < to; c++) {
+                final int child = childStarts[c];
+                final int childEnd = (c + 1 < to ? childStarts[c + 1] - 1 : rb);
+                // the suffix of the interval's label ends with no symbol to select it by
+                if (sa[child] + h >= length) {
+                    continue;
+                }
+                putChild(interval, symbol(sa[child] + h), childEnd > child ? intervalAt[child] + 1 : -1 - child);
+            }
+            intervalAt[lb] = interval;
+        });
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public int suffix(int k) {
+        return sa[k];
+    }
+
+    /**
+     * Looks up a pattern in the sequence.
+     *
+     * @return the interval of suffixes starting with the pattern, its first index in the suffix array in the upper
+     * and its last index in the lower half of the value, or <code>-1</code> if the pattern does not occur
+     */
+    public long find(int[] pattern, int from, int to) {
+        if (intervals == 0) {
+            return -1;
+        }
+        final int m = to - from;
+        if (m == 0) {
+            return interval(0, length - 1);
+        }
+        int interval = intervals - 1;
+        int matched = 0;
+        while (true) {
+            // compare the rest of the interval's label, which is shared by all of its suffixes
+            final int label = Math.min(m, intervalLcp[interval]);
+            if (!matches(pattern, from, sa[intervalLb[interval]], matched, label)) {
+                return -1;
+            }
+            if (m == label) {
+                return interval(intervalLb[interval], intervalRb[interval]);
+            }
+            matched = label;
+
+            final int child = getChild(interval, pattern[from + matched]);
+            if (child == 0) {
+                return -1;
+            }
+            if (child < 0) {
+                final int k = -1 - child;
+                final int suffix = sa[k];
+                return (suffix + m <= length && matches(pattern, from, suffix, matched, m) ? interval(k, k) : -1);
+            }
+            interval = child - 1;
+        }
+    }
+
+    public long find(int[] pattern) {
+        return find(pattern, 0, pattern.length);
+    }
+
+    /**
+     * @return the number of occurrences of a pattern in the sequence
+     */
+    public int count(int[] pattern) {
+        final long interval = find(pattern);
+        return (interval < 0 ? 0 : last(interval) - first(interval) + 1);
+    }
+
+    /**
+     * @return the positions in the sequence where a pattern occurs, in suffix array order
+     */
+    public int[] occurrences(int[] pattern) {
+        final long interval = find(pattern);
+        return (interval < 0 ? new int[0] : Arrays.copyOfRange(sa, first(interval), last(interval) + 1));
+    }
+
+    /**
+     * @return the first index in the suffix array of an interval returned by {@link #find(int[], int, int)}
+     */
+    public static int first(long interval) {
+        return (int) (interval >>> 32);
+    }
+
+    /**
+     * @return the last index in the suffix array of an interval returned by {@link #find(int[], int, int)}
+     */
+    public static int last(long interval) {
+        return (int) interval;
+    }
+
+    private static long interval(int first, int last) {
+        return ((long) first << 32) | (last & 0xffffffffL);
+    }
+
+    private int symbol(int position) {
+        return input[start + position];
+    }
+
+    private boolean matches(int[] pattern, int from, int suffix, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            if (pattern[from + i] != symbol(suffix + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int addInterval(int lcp, int lb, int rb) {
+        if (intervals == intervalLcp.length) {
+            intervalLcp = Arrays.copyOf(intervalLcp, intervals * 2);
+            intervalLb = Arrays.copyOf(intervalLb, intervals * 2);
+            intervalRb = Arrays.copyOf(intervalRb, intervals * 2);
+        }
+        intervalLcp[intervals] = lcp;
+        intervalLb[intervals] = lb;
+        intervalRb[intervals] = rb;
+        return intervals++;
+    }
+
+    private static long childKey(int interval, int symbol) {
+        return ((long) interval << 32) | (symbol & 0xffffffffL);
+    }
+
+    private int slot(long key) {
+        final long h = key * -0x61c8864680b583ebL;
+        return (int) (h ^ (h >>> 32)) & (childKeys.length - 1);
+    }
+
+    private void putChild(int interval, int symbol, int value) {
+        final long key = childKey(interval, symbol);
+        int slot = slot(key);
+        while (childValues[slot] != 0) {
+            slot = (slot + 1) & (childKeys.length - 1);
+        }
+        childKeys[slot] = key;
+        childValues[slot] = value;
+    }
+
+    private int getChild(int interval, int symbol) {
+        final long key = childKey(interval, symbol);
+        for (int slot = slot(key); childValues[slot] != 0; slot = (slot + 1) & (childKeys.length - 1)) {
+            if (childKeys[slot] == key) {
+                return childValues[slot];
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,278 @@
+package eu.interedition.collatex.suffixarray;
+
+/**
+ * A compressed full-text index of a sequence of integer symbols: the Burrows-Wheeler transform of the sequence in
+ * a wavelet matrix with rank support, a sample of the suffix array and a {@link CompactLCP byte-packed LCP array}.
+ * <p>
+ * Symbols have to be dense, in <code>0 .. alphabetSize - 1</code>, and the last symbol of the sequence must not
+ * occur anywhere else, so that the order of the rotations of the sequence is the order of its suffixes. This is
+ * the case for the token arrays of the token indexes, which end with a marker token of their own.
+ * <p>
+ * The transform takes <code>ceil(log2(alphabetSize))</code> bits per symbol plus an eighth for rank directories,
+ * the suffix array sample 32 bits per <code>sampleRate</code> symbols and the LCP array about a byte per symbol,
+ * against eight bytes per symbol of suffix and LCP arrays of ints. Counting the occurrences of a pattern of
+ * <code>m</code> symbols takes <code>O(m log alphabetSize)</code> time; locating each of them additionally
+ * <code>O(sampleRate log alphabetSize)</code>.
+ */
+public final class FMIndex {
+
+    private final int length;
+    private final int alphabetSize;
+
+    // number of symbols smaller than a symbol, by symbol
+    private final int[] counts;
+
+    // the Burrows-Wheeler transform as a wavelet matrix, the most significant bit level first; each level has its
+    // zeros first on the next level
+    private final RankBitVector[] levels;
+    private final int[] zeros;
+
+    // suffixes at positions divisible by the sample rate, marked by their index in the suffix array
+    private final RankBitVector sampled;
+    private final int[] samples;
+
+    private final CompactLCP lcp;
+
+    /**
+     * @param symbols      The input symbols, dense in <code>0 .. alphabetSize - 1</code>.
+     * @param length       The length of the sequence, starting at index 0 of the symbols.
+     * @param alphabetSize The number of distinct symbols.
+     * @param sa           The suffix array of the sequence.
+     * @param lcp          The LCP array of the sequence.
+     * @param sampleRate   Every how many positions the suffix array is sampled.
+     */
+    public FMIndex(int[] symbols, int length, int alphabetSize, int[] sa, CompactLCP lcp, int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        this.length = length;
+        this.alphabetSize = alphabetSize;
+        this.lcp = lcp;
+
+        this.counts = new int[alphabetSize + 1];
+        for (int i = 0; i < length; i++) {
+            counts[symbols[i] + 1]++;
+        }
+        for (int c = 0; c < alphabetSize; c++) {
+            counts[c + 1] += counts[c];
+        }
+
+        int[] bwt = new int[length];
+        for (int k = 0; k < length; k++) {
+            bwt[k] = symbols[sa[k] == 0 ? length - 1 : sa[k] - 1];
+        }
+        final int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, alphabetSize - 1)));
+        this.levels = new RankBitVector[bits];
+        this.zeros = new int[bits];
+        int[] next = new int[length];
+        for (int level = 0; level < bits; level++) {
+            final int shift = bits - 1 - level;
+            final long[] words = new long[(length + 63) >>> 6];
+            int zeroCount = 0;
+            for (int i = 0; i < length; i++) {
+                if (((bwt[i] >>> shift) & 1) == 0) {
+                    zeroCount++;
+                } else {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+            levels[level] = new RankBitVector(words);
+            zeros[level] = zeroCount;
+
+            int z = 0;
+            int o = zeroCount;
+            for (int i = 0; i < length; i++) {
+                next[((bwt[i] >>> shift) & 1) == 0 ? z++ : o++] = bwt[i];
+            }
+            final int[] swap = bwt;
+            bwt = next;
+            next = swap;
+        }
+
+        final long[] marks = new long[(length + 63) >>> 6];
+        int sampleCount = 0;
+        for (int k = 0; k < length; k++) {
+            if (sa[k] % sampleRate == 0) {
+                marks[k >>> 6] |= 1L << k;
+                sampleCount++;
+            }
+        }
+        this.sampled = new RankBitVector(marks);
+        this.samples = new int[sampleCount];
+        for (int k = 0, s = 0; k < length; k++) {
+            if (sa[k] % sampleRate == 0) {
+                samples[s++] = sa[k];
+            }
+        }
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public int alphabetSize() {
+        return alphabetSize;
+    }
+
+    /**
+     * @return the symbol preceding suffix <code>k</code> of the suffix array, cyclically
+     */
+    public int bwt(int k) {
+        int symbol = 0;
+        for (int level = 0; level < levels.length; level++) {
+            final RankBitVector bits = levels[level];
+            if (bits.get(k)) {
+                symbol = (symbol << 1) | 1;
+                k = zeros[level] + bits.rank1(k);
+            } else {
+                symbol <<= 1;
+                k = k - bits.rank1(k);
+            }
+        }
+        return symbol;
+    }
+
+    /**
+     * @return the number of occurrences of a symbol in the Burrows-Wheeler transform before index <code>k</code>
+     */
+    public int rank(int symbol, int k) {
+        int from = 0;
+        for (int level = 0; level < levels.length; level++) {
+            final RankBitVector bits = levels[level];
+            if (((symbol >>> (levels.length - 1 - level)) & 1) == 0) {
+                from = from - bits.rank1(from);
+                k = k - bits.rank1(k);
+            } else {
+                from = zeros[level] + bits.rank1(from);
+                k = zeros[level] + bits.rank1(k);
+            }
+        }
+        return k - from;
+    }
+
+    /**
+     * @return the index in the suffix array of the suffix starting one position before suffix <code>k</code>
+     */
+    public int lf(int k) {
+        final int symbol = bwt(k);
+        return counts[symbol] + rank(symbol, k);
+    }
+
+    /**
+     * Looks up a pattern by backward search.
+     *
+     * @return the interval of suffixes starting with the pattern, encoded like the ones of
+     * {@link EnhancedSuffixArray#find(int[], int, int)}, or <code>-1</code> if the pattern does not occur
+     */
+    public long find(int[] pattern, int from, int to) {
+        int start = 0;
+        int end = length;
+        for (int i = to - 1; i >= from && start < end; i--) {
+            final int symbol = pattern[i];
+            if (symbol < 0 || symbol >= alphabetSize) {
+                return -1;
+            }
+            start = counts[symbol] + rank(symbol, start);
+            end = counts[symbol] + rank(symbol, end);
+        }
+        return (start < end ? ((long) start << 32) | (end - 1) : -1);
+    }
+
+    public long find(int[] pattern) {
+        return find(pattern, 0, pattern.length);
+    }
+
+    public int count(int[] pattern) {
+        final long interval = find(pattern);
+        return (interval < 0 ? 0 : EnhancedSuffixArray.last(interval) - EnhancedSuffixArray.first(interval) + 1);
+    }
+
+    /**
+     * @return the positions in the sequence where a pattern occurs, in suffix array order
+     */
+    public int[] locate(int[] pattern) {
+        final long interval = find(pattern);
+        if (interval < 0) {
+            return new int[0];
+        }
+        final int first = EnhancedSuffixArray.first(interval);
+        final int[] positions = new int[EnhancedSuffixArray.last(interval) - first + 1];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = suffix(first + i);
+        }
+        return positions;
+    }
+
+    /**
+     * @return the start of suffix <code>k</code> of the suffix array, found by walking back to a sampled suffix
+     */
+    public int suffix(int k) {
+        int steps = 0;
+        while (!sampled.get(k)) {
+            k = lf(k);
+            steps++;
+        }
+        return samples[sampled.rank1(k)] + steps;
+    }
+
+    /**
+     * @return the length of the common prefix of suffix <code>k</code> and <code>k-1</code> in the suffix array,
+     * <code>-1</code> for <code>k = 0</code>
+     */
+    public int lcp(int k) {
+        return lcp.get(k);
+    }
+
+    /**
+     * @return the number of bytes taken by this index, not counting object headers
+     */
+    public long footprint() {
+        long footprint = Integer.BYTES * (long) (counts.length + zeros.length + samples.length) + sampled.footprint() + lcp.footprint();
+        for (RankBitVector level : levels) {
+            footprint += level.footprint();
+        }
+        return footprint;
+    }
+
+    /**
+     * A bit vector with the number of ones before every block of four words.
+     */
+    private static final class RankBitVector {
+        private final long[] words;
+        private final int[] blockRanks;
+
+        RankBitVector(long[] words) {
+            this.words = words;
+            this.blockRanks = new int[(words.length >>> 2) + 1];
+            int ones = 0;
+            for (int w = 0; w < words.length; w++) {
+                if ((w & 3) == 0) {
+                    blockRanks[w >>> 2] = ones;
+                }
+                ones += Long.bitCount(words[w]);
+            }
+            if ((words.length & 3) == 0) {
+                blockRanks[words.length >>> 2] = ones;
+            }
+        }
+
+        boolean get(int i) {
+            return (words[i >>> 6] & (1L << i)) != 0;
+        }
+
+        // number of ones before index i
+        int rank1(int i) {
+            final int word = i >>> 6;
+            int rank = blockRanks[word >>> 2];
+            for (int w = word & ~3; w < word; w++) {
+                rank += Long.bitCount(words[w]);
+            }
+            final int bit = i & 63;
+            return (bit == 0 ? rank : rank + Long.bitCount(words[word] & (-1L >>> (64 - bit))));
+        }
+
+        long footprint() {
+            return Long.BYTES * (long) words.length + Integer.BYTES * (long) blockRanks.length;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package eu.interedition.collatex.suffixarray;
 
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Function;
 
 /**
  * An adapter for constructing suffix arrays on generic arrays.
@@ -12,19 +15,30 @@ class GenericArrayAdapter<T> {
 
     private final ISuffixArrayBuilder delegate;
     int[] input;
-    TreeMap<T, Integer> tokIDs;
     private final Comparator<? super T> comparator;
+    private final Function<? super T, ?> key;
 
     public GenericArrayAdapter(ISuffixArrayBuilder builder) {
         // TODO make sure T is comparable
         this.delegate = builder;
         this.comparator = null;
+        this.key = null;
     }
 
     public GenericArrayAdapter(ISuffixArrayBuilder builder, Comparator<? super T> comparator) {
         // TODO make sure that comparator != null or T is comparable
         this.delegate = builder;
         this.comparator = comparator;
+        this.key = null;
+    }
+
+    /**
+     * Tokens with equal keys are considered equal; ids are assigned by hashing the keys, without any comparison.
+     */
+    public GenericArrayAdapter(ISuffixArrayBuilder builder, Function<? super T, ?> key) {
+        this.delegate = builder;
+        this.comparator = null;
+        this.key = key;
     }
 
     /**
@@ -36,7 +50,10 @@ class GenericArrayAdapter<T> {
          * Allocate slightly more space, some suffix construction strategies need it and
          * we don't want to waste space for multiple symbol mappings.
          */
-        input = new int[length + SuffixArrays.MAX_EXTRA_TRAILING_SPACE];
+        input = new int[length + delegate.extraTrailingSpace()];
+        if (length == 0) {
+            return new int[0];
+        }
 
         //System.out.println("Assigning token ids ...");
 
@@ -44,11 +61,19 @@ class GenericArrayAdapter<T> {
          * We associate every token to an id, all `equal´ tokens to the same id.
          * The suffix array is built using only the the ids.
          */
-        tokIDs = new TreeMap<>(comparator);
+        if (key != null) {
+            final Map<Object, Integer> keyIDs = new HashMap<>();
+            for (int i = 0; i < length; i++) {
+                final Integer id = keyIDs.putIfAbsent(key.apply(tokens[i]), i);
+                input[i] = (id == null ? i : id);
+            }
+        } else {
+            final Map<T, Integer> tokIDs = new TreeMap<>(comparator);
 
-        for (int i = 0; i < length; i++) {
-            tokIDs.putIfAbsent(tokens[i], i);
-            input[i] = tokIDs.get(tokens[i]);
+            for (int i = 0; i < length; i++) {
+                tokIDs.putIfAbsent(tokens[i], i);
+                input[i] = tokIDs.get(tokens[i]);
+            }
         }
 
         //System.out.println("Token ids assigned.");
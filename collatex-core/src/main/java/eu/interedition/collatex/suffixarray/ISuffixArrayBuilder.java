@@ -33,4 +33,18 @@ public interface ISuffixArrayBuilder {
      * <code>input</code>).
      */
     int[] buildSuffixArray(int[] input, int start, int length);
+
+    /**
+     * @return the number of cells the builder may read or write after <code>start + length</code> in its input
+     */
+    default int extraTrailingSpace() {
+        return SuffixArrays.MAX_EXTRA_TRAILING_SPACE;
+    }
+
+    /**
+     * @return whether the builder runs on several threads, in which case the LCP array is computed in parallel as well
+     */
+    default boolean isParallel() {
+        return false;
+    }
 }
\ No newline at end of file
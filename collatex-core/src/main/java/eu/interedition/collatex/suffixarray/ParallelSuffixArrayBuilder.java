@@ -0,0 +1,192 @@
+package eu.interedition.collatex.suffixarray;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Prefix doubling in the style of Manber-Myers and Larsson-Sadakane, run on a fork/join pool.
+ * <p>
+ * Suffixes are first sorted by their first symbol; in every following round, each group of suffixes still sharing
+ * a rank is sorted by the rank of the suffix <code>h</code> positions further on, doubling the length <code>h</code>
+ * of the prefixes known to be sorted. Groups are independent of each other, so they are refined in parallel;
+ * ranks are read from the previous round and written to a second array, so concurrent groups never see
+ * half-updated ranks. The rank of a suffix is the start of its group in the suffix array, so groups can assign
+ * ranks without a global scan.
+ * <p>
+ * Any input symbols are accepted and no extra trailing cells are needed. The result equals the one of
+ * {@link SAIS}, i.e. a suffix sorts before all suffixes it is a proper prefix of. Use
+ * {@link SuffixArrays#computeLCPParallel(int[], int, int, int[])} for a matching parallel LCP pass.
+ */
+public final class ParallelSuffixArrayBuilder implements ISuffixArrayBuilder {
+
+    /**
+     * Groups and ranges smaller than this are handled by a single task.
+     */
+    static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private final ForkJoinPool pool;
+
+    public ParallelSuffixArrayBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelSuffixArrayBuilder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public int extraTrailingSpace() {
+        return 0;
+    }
+
+    @Override
+    public boolean isParallel() {
+        return true;
+    }
+
+    @Override
+    public int[] buildSuffixArray(int[] input, int start, int length) {
+        return pool.submit(() -> build(input, start, length)).join();
+    }
+
+    private static int[] build(int[] input, int start, int length) {
+        final int[] sa = new int[length];
+        final int[] rank = new int[length];
+
+        final long[] keys = new long[length];
+        IntStream.range(0, length).parallel().forEach(i -> keys[i] = ((long) input[start + i] << 32) | i);
+        Arrays.parallelSort(keys);
+        IntStream.range(0, length).parallel().forEach(j -> sa[j] = (int) keys[j]);
+
+        final IntBuffer groups = new IntBuffer();
+        int groupStart = 0;
+        for (int j = 0; j < length; j++) {
+            if (j > 0 && (keys[j] >>> 32) != (keys[j - 1] >>> 32)) {
+                if (j - groupStart > 1) {
+                    groups.add(groupStart, j);
+                }
+                groupStart = j;
+            }
+            rank[sa[j]] = groupStart;
+        }
+        if (length - groupStart > 1) {
+            groups.add(groupStart, length);
+        }
+
+        final int[] refined = rank.clone();
+        for (int h = 1; groups.size > 0; h *= 2) {
+            final int[] unsorted = groups.toArray();
+            final IntBuffer next = new Refinement(sa, rank, refined, h, unsorted, 0, unsorted.length / 2).invoke();
+            IntStream.range(0, unsorted.length / 2).parallel().forEach(g -> {
+                for (int j = unsorted[2 * g]; j < unsorted[2 * g + 1]; j++) {
+                    rank[sa[j]] = refined[sa[j]];
+                }
+            });
+            groups.clear();
+            groups.addAll(next);
+        }
+        return sa;
+    }
+
+    /**
+     * Refines a range of groups, returning the start and end of all resulting groups with more than one suffix.
+     */
+    private static class Refinement extends RecursiveTask<IntBuffer> {
+        private final int[] sa;
+        private final int[] rank;
+        private final int[] refined;
+        private final int h;
+        private final int[] groups;
+        private final int from;
+        private final int to;
+
+        Refinement(int[] sa, int[] rank, int[] refined, int h, int[] groups, int from, int to) {
+            this.sa = sa;
+            this.rank = rank;
+            this.refined = refined;
+            this.h = h;
+            this.groups = groups;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected IntBuffer compute() {
+            if (to - from > 1 && groups[2 * (to - 1) + 1] - groups[2 * from] > SEQUENTIAL_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                final Refinement left = new Refinement(sa, rank, refined, h, groups, from, middle);
+                left.fork();
+                final IntBuffer right = new Refinement(sa, rank, refined, h, groups, middle, to).compute();
+                final IntBuffer result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            final IntBuffer result = new IntBuffer();
+            for (int g = from; g < to; g++) {
+                refine(groups[2 * g], groups[2 * g + 1], result);
+            }
+            return result;
+        }
+
+        private void refine(int start, int end, IntBuffer result) {
+            final int n = sa.length;
+            final long[] keys = new long[end - start];
+            for (int j = start; j < end; j++) {
+                final int suffix = sa[j];
+                final long next = (suffix + h < n ? rank[suffix + h] + 1L : 0L);
+                keys[j - start] = (next << 32) | suffix;
+            }
+            if (keys.length > SEQUENTIAL_THRESHOLD) {
+                Arrays.parallelSort(keys);
+            } else {
+                Arrays.sort(keys);
+            }
+
+            int groupStart = start;
+            for (int j = start; j < end; j++) {
+                sa[j] = (int) keys[j - start];
+                if (j > start && (keys[j - start] >>> 32) != (keys[j - start - 1] >>> 32)) {
+                    if (j - groupStart > 1) {
+                        result.add(groupStart, j);
+                    }
+                    groupStart = j;
+                }
+                refined[sa[j]] = groupStart;
+            }
+            if (end - groupStart > 1) {
+                result.add(groupStart, end);
+            }
+        }
+    }
+
+    private static class IntBuffer {
+        int[] values = new int[16];
+        int size;
+
+        void add(int a, int b) {
+            if (size + 2 > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + 2));
+            }
+            values[size++] = a;
+            values[size++] = b;
+        }
+
+        void addAll(IntBuffer other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + other.size));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -594,6 +594,11 @@ public final class SAIS implements ISuffixArrayBuilder {
         return pidx + 1;
     }
 
+    @Override
+    public int extraTrailingSpace() {
+        return 0;
+    }
+
     @Override
     public int[] buildSuffixArray(int[] input, int start, int length) {
         // TODO: [dw] add constraints here.
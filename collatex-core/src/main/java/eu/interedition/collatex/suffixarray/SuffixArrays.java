@@ -3,6 +3,10 @@ package eu.interedition.collatex.suffixarray;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 /*
  * TODO: ultimately, this class should be "intelligent" enough to pick the best
@@ -74,7 +78,7 @@ public final class SuffixArrays {
     public static SuffixData createWithLCP(CharSequence s, ISuffixArrayBuilder builder) {
         final CharSequenceAdapter adapter = new CharSequenceAdapter(builder);
         final int[] sa = adapter.buildSuffixArray(s);
-        final int[] lcp = computeLCP(adapter.input, 0, s.length(), sa);
+        final int[] lcp = computeLCP(builder, adapter.input, 0, s.length(), sa);
         return new SuffixData(sa, lcp);
     }
 
@@ -94,7 +98,7 @@ public final class SuffixArrays {
     public static SuffixData createWithLCP(int[] input, int start, int length,
                                            ISuffixArrayBuilder builder) {
         final int[] sa = builder.buildSuffixArray(input, start, length);
-        final int[] lcp = computeLCP(input, start, length, sa);
+        final int[] lcp = computeLCP(builder, input, start, length, sa);
         return new SuffixData(sa, lcp);
     }
 
@@ -104,46 +108,138 @@ public final class SuffixArrays {
      * comparator.
      */
     public static <T> SuffixData createWithLCP(T[] input, ISuffixArrayBuilder builder, Comparator<? super T> comparator) {
-        final GenericArrayAdapter adapter = new GenericArrayAdapter(builder, comparator);
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(builder, comparator);
         final int[] sa = adapter.buildSuffixArray(input);
-        final int[] lcp = computeLCP(adapter.input, 0, input.length, sa);
+        return withLCP(builder, adapter.input, input.length, sa, false);
+    }
+
+    /**
+     * Create a suffix array and an LCP array for a given generic array and a
+     * custom suffix array building strategy, considering T objects with equal
+     * keys as equal.
+     */
+    public static <T> SuffixData createWithLCP(T[] input, ISuffixArrayBuilder builder, Function<? super T, ?> key) {
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(builder, key);
+        final int[] sa = adapter.buildSuffixArray(input);
+        return withLCP(builder, adapter.input, input.length, sa, false);
+    }
+
+    /**
+     * Like {@link #createWithLCP(Object[], ISuffixArrayBuilder, Comparator)}, with a {@link CompactLCP byte-packed}
+     * LCP array.
+     */
+    public static <T> SuffixData createWithCompactLCP(T[] input, ISuffixArrayBuilder builder, Comparator<? super T> comparator) {
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(builder, comparator);
+        final int[] sa = adapter.buildSuffixArray(input);
+        return withLCP(builder, adapter.input, input.length, sa, true);
+    }
+
+    /**
+     * Like {@link #createWithLCP(Object[], ISuffixArrayBuilder, Function)}, with a {@link CompactLCP byte-packed}
+     * LCP array.
+     */
+    public static <T> SuffixData createWithCompactLCP(T[] input, ISuffixArrayBuilder builder, Function<? super T, ?> key) {
+        final GenericArrayAdapter<T> adapter = new GenericArrayAdapter<>(builder, key);
+        final int[] sa = adapter.buildSuffixArray(input);
+        return withLCP(builder, adapter.input, input.length, sa, true);
+    }
+
+    /**
+     * Computes the LCP array for a symbol array no longer needed afterwards: the symbols are overwritten by the LCP
+     * values if the array is of the input's length, so besides the arrays returned only a permuted LCP array is
+     * allocated.
+     */
+    private static SuffixData withLCP(ISuffixArrayBuilder builder, int[] symbols, int length, int[] sa, boolean compact) {
+        if (builder.isParallel()) {
+            final int[] lcp = computeLCPParallel(symbols, 0, length, sa);
+            return (compact ? new SuffixData(sa, CompactLCP.of(lcp)) : new SuffixData(sa, lcp));
+        }
+        final int[] plcp = computePLCP(symbols, 0, length, sa, null);
+        if (compact) {
+            return new SuffixData(sa, CompactLCP.of(plcp, sa, length));
+        }
+        final int[] lcp = (symbols.length == length ? symbols : new int[length]);
+        for (int k = 0; k < length; k++) {
+            lcp[k] = plcp[sa[k]];
+        }
         return new SuffixData(sa, lcp);
     }
 
+    /**
+     * Create a suffix array builder by name: <code>auto</code> selects an algorithm per input, <code>parallel</code>
+     * runs prefix doubling on the fork/join pool, any other name denotes one of the {@link Algorithm algorithms},
+     * case-insensitively and with dashes for underscores.
+     *
+     * @see AdaptiveSuffixArrayBuilder
+     * @see ParallelSuffixArrayBuilder
+     */
+    public static ISuffixArrayBuilder builder(String name) {
+        if ("auto".equalsIgnoreCase(name)) {
+            return new AdaptiveSuffixArrayBuilder();
+        }
+        if ("parallel".equalsIgnoreCase(name)) {
+            return new ParallelSuffixArrayBuilder();
+        }
+        return new AdaptiveSuffixArrayBuilder(Algorithm.valueOf(name.toUpperCase(Locale.ROOT).replace('-', '_')));
+    }
+
+    private static int[] computeLCP(ISuffixArrayBuilder builder, int[] input, int start, int length, int[] sa) {
+        return (builder.isParallel()
+                ? computeLCPParallel(input, start, length, sa)
+                : computeLCP(input, start, length, sa));
+    }
+
     /**
      * Calculate longest prefix (LCP) array for an existing suffix array and input. Index
      * <code>i</code> of the returned array indicates the length of the common prefix
      * between suffix <code>i</code> and <code>i-1</code>. The 0-th
      * index has a constant value of <code>-1</code>.
      * <p>
-     * The algorithm used to compute the LCP comes from
-     * <tt>T. Kasai, G. Lee, H. Arimura, S. Arikawa, and K. Park. Linear-time longest-common-prefix
-     * computation in suffix arrays and its applications. In Proc. 12th Symposium on Combinatorial
-     * Pattern Matching (CPM ’01), pages 181–192. Springer-Verlag LNCS n. 2089, 2001.</tt>
+     * The LCP values are computed in text order by {@link #computePLCP(int[], int, int, int[], int[])} and
+     * permuted into suffix array order afterwards.
      */
     public static int[] computeLCP(int[] input, final int start, final int length,
                                    int[] sa) {
-        final int[] rank = new int[length];
-        for (int i = 0; i < length; i++)
-            rank[sa[i]] = i;
-        int h = 0;
+        final int[] plcp = computePLCP(input, start, length, sa, null);
         final int[] lcp = new int[length];
+        for (int k = 0; k < length; k++) {
+            lcp[k] = plcp[sa[k]];
+        }
+        return lcp;
+    }
+
+    /**
+     * Calculate the permuted longest common prefix (PLCP) array for an existing suffix array and input. Index
+     * <code>i</code> of the returned array indicates the length of the common prefix between suffix <code>i</code>
+     * (in text order) and its predecessor in the suffix array, or <code>-1</code> if it has none.
+     * <p>
+     * The predecessors <code>&Phi;</code> of all suffixes are stored in the result array and replaced by the PLCP
+     * values in place, so no rank array is needed. As the PLCP value of a suffix is at least the one of the
+     * preceding suffix minus one, all values are computed in linear time.
+     *
+     * @param buffer an array of at least <code>length</code> ints to compute the values in, or <code>null</code>
+     * @see "J. Kärkkäinen, G. Manzini, S. J. Puglisi. Permuted longest-common-prefix array. CPM 2009."
+     */
+    public static int[] computePLCP(int[] input, final int start, final int length, int[] sa, int[] buffer) {
+        final int[] plcp = (buffer != null && buffer.length >= length ? buffer : new int[length]);
+        for (int k = 0; k < length; k++) {
+            plcp[sa[k]] = (k == 0 ? -1 : sa[k - 1]);
+        }
+        int h = 0;
         for (int i = 0; i < length; i++) {
-            int k = rank[i];
-            if (k == 0) {
-                lcp[k] = -1;
-            } else {
-                final int j = sa[k - 1];
-                while (i + h < length && j + h < length
-                    && input[start + i + h] == input[start + j + h]) {
-                    h++;
-                }
-                lcp[k] = h;
+            final int j = plcp[i];
+            if (j < 0) {
+                plcp[i] = -1;
+                h = 0;
+                continue;
             }
+            while (i + h < length && j + h < length && input[start + i + h] == input[start + j + h]) {
+                h++;
+            }
+            plcp[i] = h;
             if (h > 0) h--;
         }
-
-        return lcp;
+        return plcp;
     }
 
     /**
@@ -165,4 +261,43 @@ public final class SuffixArrays {
         }
         return result;
     }
+
+    /**
+     * Calculate the same LCP array as {@link #computeLCP(int[], int, int, int[])}, in parallel.
+     * <p>
+     * The LCP values are computed in text order as a permuted LCP (PLCP) array, using the predecessor
+     * <code>&Phi;</code> of each suffix in the suffix array. As the PLCP value of a suffix is at least the one of the
+     * preceding suffix minus one, only the first value of every chunk of text positions is computed from scratch,
+     * so chunks can be handled independently.
+     *
+     * @see "J. Kärkkäinen, G. Manzini, S. J. Puglisi. Permuted longest-common-prefix array. CPM 2009."
+     */
+    public static int[] computeLCPParallel(int[] input, final int start, final int length, int[] sa) {
+        final int[] plcp = new int[length];
+        IntStream.range(0, length).parallel().forEach(k -> plcp[sa[k]] = (k == 0 ? -1 : sa[k - 1]));
+
+        final int chunks = Math.max(1, Math.min(length / ParallelSuffixArrayBuilder.SEQUENTIAL_THRESHOLD,
+            4 * ForkJoinPool.getCommonPoolParallelism()));
+        final int chunkLength = (length + chunks - 1) / Math.max(1, chunks);
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int h = 0;
+            for (int i = chunk * chunkLength; i < Math.min(length, (chunk + 1) * chunkLength); i++) {
+                final int j = plcp[i];
+                if (j < 0) {
+                    plcp[i] = -1;
+                    h = 0;
+                    continue;
+                }
+                while (i + h < length && j + h < length && input[start + i + h] == input[start + j + h]) {
+                    h++;
+                }
+                plcp[i] = h;
+                if (h > 0) h--;
+            }
+        });
+
+        final int[] lcp = new int[length];
+        IntStream.range(0, length).parallel().forEach(k -> lcp[k] = plcp[sa[k]]);
+        return lcp;
+    }
 }
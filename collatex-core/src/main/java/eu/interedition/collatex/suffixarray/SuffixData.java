@@ -10,17 +10,35 @@ package eu.interedition.collatex.suffixarray;
 public final class SuffixData {
     private final int[] suffixArray;
     private final int[] lcp;
+    private final CompactLCP compactLCP;
 
     SuffixData(int[] sa, int[] lcp) {
         this.suffixArray = sa;
         this.lcp = lcp;
+        this.compactLCP = null;
+    }
+
+    SuffixData(int[] sa, CompactLCP lcp) {
+        this.suffixArray = sa;
+        this.lcp = null;
+        this.compactLCP = lcp;
     }
 
     public int[] getSuffixArray() {
         return suffixArray;
     }
 
+    /**
+     * @return the LCP array, unpacked from the {@link #getCompactLCP() compact one} if there is one
+     */
     public int[] getLCP() {
-        return lcp;
+        return (lcp == null ? compactLCP.toArray() : lcp);
+    }
+
+    /**
+     * @return the byte-packed LCP array or <code>null</code> if it was computed as an array of ints
+     */
+    public CompactLCP getCompactLCP() {
+        return compactLCP;
     }
 }
@@ -2,6 +2,7 @@ package eu.interedition.collatex.suffixarray;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 
 /**
@@ -11,6 +12,25 @@ import java.util.Deque;
  * @author Dawid Weiss (Carrot Search)
  */
 public final class Traversals {
+    /**
+     * Visitor interface for {@link #lcpIntervals(int, int[], IIntervalVisitor)}.
+     */
+    public interface IIntervalVisitor {
+        /**
+         * Visits the lcp-interval <code>[lb..rb]</code> of the suffix array, i.e. the branching
+         * node of the (virtual) suffix tree whose label has <code>lcp</code> symbols.
+         *
+         * @param lcp         The length of the common prefix of all suffixes in the interval.
+         * @param lb          The first index of the interval in the suffix array.
+         * @param rb          The last index of the interval in the suffix array.
+         * @param childStarts The indices in the suffix array where the child intervals start, in
+         *                    ascending order at <code>from .. to - 1</code>; a child ends where the
+         *                    next one starts and is a leaf if it has a single suffix. The array is
+         *                    reused after the call returns.
+         */
+        void visitInterval(int lcp, int lb, int rb, int[] childStarts, int from, int to);
+    }
+
     /**
      * Visitor interface for post-order traversal methods in {@link Traversals}.
      */
@@ -59,6 +79,79 @@ public final class Traversals {
         void visitNode(int start, int length, boolean leaf, E value);
     }
 
+    /**
+     * <p>
+     * Post-order traversal of the lcp-interval tree, reporting every branching node of the
+     * (virtual) suffix tree with its bounds in the suffix array and its children, the way
+     * the child table of an enhanced suffix array links them.
+     * <p>
+     * The algorithm is the bottom-up traversal from <i>Replacing suffix trees with enhanced
+     * suffix arrays</i> by Mohamed Ibrahim Abouelhoda, Stefan Kurtz and Enno Ohlebusch,
+     * Journal of Discrete Algorithms 2 (2004), which runs in linear time.
+     *
+     * @param sequenceLength Input sequence length for the LCP array.
+     * @param lcp            LCP array; the value at index 0 is ignored.
+     * @param visitor        Callback visitor.
+     */
+    public static void lcpIntervals(final int sequenceLength, int[] lcp, IIntervalVisitor visitor) {
+        assert sequenceLength <= lcp.length : "Input sequence length larger than the LCP.";
+        if (sequenceLength == 0) {
+            return;
+        }
+
+        // open intervals by their lcp value and start, and the starts of their children so far; the
+        // children of an interval follow the ones of its enclosing interval in childStarts
+        int[] lcps = new int[16];
+        int[] lbs = new int[16];
+        int[] firstChild = new int[16];
+        int[] childStarts = new int[16];
+        int top = 0;
+        int children = 1;
+        lcps[0] = 0;
+        lbs[0] = 0;
+        firstChild[0] = 0;
+        childStarts[0] = 0;
+
+        for (int i = 1; i <= sequenceLength; i++) {
+            final int h = (i == sequenceLength ? -1 : lcp[i]);
+            int lb = i;
+            while (top >= 0 && lcps[top] > h) {
+                lb = lbs[top];
+                visitor.visitInterval(lcps[top], lb, i - 1, childStarts, firstChild[top], children);
+                children = firstChild[top];
+                top--;
+            }
+            if (h < 0) {
+                break;
+            }
+            if (top >= 0 && lcps[top] == h) {
+                // i starts another child of the open interval
+                if (children == childStarts.length) {
+                    childStarts = Arrays.copyOf(childStarts, children * 2);
+                }
+                childStarts[children++] = i;
+                continue;
+            }
+            // a new interval starting with the last one closed, or with the single suffix before i
+            if (++top == lcps.length) {
+                lcps = Arrays.copyOf(lcps, top * 2);
+                lbs = Arrays.copyOf(lbs, top * 2);
+                firstChild = Arrays.copyOf(firstChild, top * 2);
+            }
+            if (lb == i) {
+                lb = i - 1;
+            }
+            lcps[top] = h;
+            lbs[top] = lb;
+            firstChild[top] = children;
+            if (children + 2 > childStarts.length) {
+                childStarts = Arrays.copyOf(childStarts, Math.max(children + 2, childStarts.length * 2));
+            }
+            childStarts[children++] = lb;
+            childStarts[children++] = i;
+        }
+    }
+
     /**
      * <p>
      * Post-order traversal of all branching nodes in a suffix tree (emulated using a
@@ -19,6 +19,7 @@
 
 package eu.interedition.collatex.util;
 
+import eu.interedition.collatex.CompactVariantGraph;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
@@ -86,4 +87,61 @@ public class ParallelSegmentationApparatus {
 
         callback.end();
     }
+
+    /**
+     * Generates the apparatus of a {@link VariantGraph#freeze() frozen graph} from the ranks, tokens and transpositions
+     * captured in the snapshot, so it is not affected by changes to the graph after it has been frozen.
+     */
+    public static void generate(CompactVariantGraph graph, GeneratorCallback callback) {
+
+        callback.start();
+
+        final SortedMap<Integer, List<Integer>> byRank = new TreeMap<>();
+        for (int v = 0; v < graph.size(); v++) {
+            byRank.computeIfAbsent(graph.rank(v), r -> new ArrayList<>()).add(v);
+        }
+
+        final Set<Witness> allWitnesses = graph.witnesses();
+        for (final Map.Entry<Integer, List<Integer>> row : byRank.entrySet()) {
+            final int rank = row.getKey();
+            final List<Integer> verticesOfRank = row.getValue();
+
+            if (verticesOfRank.size() == 1 && graph.tokens(verticesOfRank.get(0)).isEmpty()) {
+                // skip start and end vertex
+                continue;
+            }
+
+            // spreading vertices with same rank according to their registered transpositions
+            final SortedMap<Integer, List<Integer>> verticesByTranspositionRank = new TreeMap<>();
+            for (int v : verticesOfRank) {
+                int transpositionRank = 0;
+                for (int i = graph.transpositionOffset(v); i < graph.transpositionOffset(v + 1); i++) {
+                    final int transposition = graph.vertexTransposition(i);
+                    for (int tv = 0; tv < graph.transpositionSize(transposition); tv++) {
+                        transpositionRank += (graph.rank(graph.transposed(transposition, tv)) - rank);
+                    }
+                }
+                verticesByTranspositionRank.computeIfAbsent(transpositionRank, r -> new ArrayList<>()).add(v);
+            }
+
+            // render segments
+            verticesByTranspositionRank.values().forEach(vertices -> {
+                final Map<Witness, List<Token>> tokensByWitness = new HashMap<>();
+                for (int v : vertices) {
+                    for (Token token : graph.tokens(v)) {
+                        tokensByWitness.computeIfAbsent(token.getWitness(), w -> new ArrayList<>()).add(token);
+                    }
+                }
+
+                final SortedMap<Witness, Iterable<Token>> cellContents = new TreeMap<>(Witness.SIGIL_COMPARATOR);
+                for (Witness witness : allWitnesses) {
+                    cellContents.put(witness, Collections.unmodifiableCollection(tokensByWitness.getOrDefault(witness, Collections.emptyList())));
+                }
+
+                callback.segment(cellContents);
+            });
+        }
+
+        callback.end();
+    }
 }
@@ -19,11 +19,13 @@
 
 package eu.interedition.collatex.util;
 
+import eu.interedition.collatex.CompactVariantGraph;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.VariantGraph.Vertex;
 import eu.interedition.collatex.Witness;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -43,67 +45,126 @@ import java.util.stream.Collectors;
  */
 public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>, Function<Vertex, Integer> {
 
-    private final Map<VariantGraph.Vertex, Integer> byVertex = new HashMap<>();
-    private final SortedMap<Integer, Set<Vertex>> byRank = new TreeMap<>();
+    private static final int UNRANKED = Integer.MIN_VALUE;
+
     private final VariantGraph graph;
+    private final List<Vertex> vertices;
+    private final int[] ranks;
+    private final Set<Witness> witnesses;
+    private Map<VariantGraph.Vertex, Integer> byVertex;
+    private SortedMap<Integer, Set<Vertex>> byRank;
 
-    VariantGraphRanking(VariantGraph graph) {
+    VariantGraphRanking(VariantGraph graph, List<Vertex> vertices, int[] ranks, Set<Witness> witnesses) {
         this.graph = graph;
+        this.vertices = vertices;
+        this.ranks = ranks;
+        this.witnesses = witnesses;
     }
 
+    /**
+     * Takes a snapshot of the ranks the graph maintains while it is being built, so no ranking has to be
+     * computed here.
+     */
     public static VariantGraphRanking of(VariantGraph graph) {
-        final VariantGraphRanking ranking = new VariantGraphRanking(graph);
-        for (VariantGraph.Vertex v : graph.vertices()) {
-            int rank = -1;
-            for (VariantGraph.Vertex incoming : v.incoming().keySet()) {
-                rank = Math.max(rank, ranking.byVertex.get(incoming));
-            }
-            rank++;
-            ranking.byVertex.put(v, rank);
-            ranking.byRank.computeIfAbsent(rank, r -> new HashSet<>()).add(v);
+        final List<Vertex> vertices = graph.topologicalOrder();
+        final int[] ranks = unranked(graph);
+        for (VariantGraph.Vertex v : vertices) {
+            ranks[v.id()] = graph.rank(v);
         }
+        return new VariantGraphRanking(graph, vertices, ranks, null);
+    }
+
+    /**
+     * Ranks the vertices of a {@link VariantGraph#freeze() frozen graph}, which keeps the ranks as of the time it was frozen.
+     */
+    public static VariantGraphRanking of(CompactVariantGraph graph) {
+        final VariantGraph.Vertex[] vertices = new VariantGraph.Vertex[graph.size()];
+        int idBound = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            vertices[v] = graph.vertex(v);
+            idBound = Math.max(idBound, vertices[v].id() + 1);
+        }
+        final int[] ranks = new int[idBound];
+        Arrays.fill(ranks, UNRANKED);
+        for (int v = 0; v < vertices.length; v++) {
+            ranks[vertices[v].id()] = graph.rank(v);
+        }
+        final VariantGraphRanking ranking = new VariantGraphRanking(vertices[0].graph(), Arrays.asList(vertices), ranks, graph.witnesses());
+        // no lazy initialization, so the ranking can be shared like the frozen graph
+        ranking.getByVertex();
+        ranking.byRank();
         return ranking;
     }
 
     public static VariantGraphRanking ofOnlyCertainVertices(VariantGraph graph, Set<VariantGraph.Vertex> vertices) {
-        final VariantGraphRanking ranking = new VariantGraphRanking(graph);
-        for (VariantGraph.Vertex v : graph.vertices()) {
+        final List<Vertex> order = graph.topologicalOrder();
+        final int[] ranks = unranked(graph);
+        for (VariantGraph.Vertex v : order) {
             int rank = -1;
-            for (VariantGraph.Vertex incoming : v.incoming().keySet()) {
-                rank = Math.max(rank, ranking.byVertex.get(incoming));
+            for (VariantGraph.Vertex incoming : v.incomingEdges().keySet()) {
+                rank = Math.max(rank, ranks[incoming.id()]);
             }
             if (vertices.contains(v)) {
                 rank++;
             }
-            ranking.byVertex.put(v, rank);
-            ranking.byRank.computeIfAbsent(rank, r -> new HashSet<>()).add(v);
+            ranks[v.id()] = rank;
         }
-        return ranking;
+        return new VariantGraphRanking(graph, order, ranks, null);
+    }
+
+    private static int[] unranked(VariantGraph graph) {
+        final int[] ranks = new int[graph.vertexIdBound()];
+        Arrays.fill(ranks, UNRANKED);
+        return ranks;
     }
 
     public Set<Witness> witnesses() {
-        return graph.witnesses();
+        return (witnesses == null ? graph.witnesses() : witnesses);
     }
 
     public Map<VariantGraph.Vertex, Integer> getByVertex() {
-        return Collections.unmodifiableMap(byVertex);
+        if (byVertex == null) {
+            final Map<VariantGraph.Vertex, Integer> byVertex = new HashMap<>();
+            vertices.forEach(v -> byVertex.put(v, ranks[v.id()]));
+            this.byVertex = Collections.unmodifiableMap(byVertex);
+        }
+        return byVertex;
     }
 
     public Map<Integer, Set<VariantGraph.Vertex>> getByRank() {
-        return Collections.unmodifiableMap(byRank);
+        return Collections.unmodifiableMap(byRank());
+    }
+
+    private SortedMap<Integer, Set<Vertex>> byRank() {
+        if (byRank == null) {
+            byRank = new TreeMap<>();
+            vertices.forEach(v -> byRank.computeIfAbsent(ranks[v.id()], r -> new HashSet<>()).add(v));
+        }
+        return byRank;
     }
 
     public int size() {
-        return byRank.keySet().size();
+        return byRank().keySet().size();
+    }
+
+    /**
+     * @return the rank of the vertex with the given {@link VariantGraph.Vertex#id() identifier}
+     */
+    public int rank(int vertexId) {
+        return ranks[vertexId];
+    }
+
+    public int rank(VariantGraph.Vertex vertex) {
+        return ranks[vertex.id()];
     }
 
     @Override
     public Iterator<Set<VariantGraph.Vertex>> iterator() {
-        return byRank.values().iterator();
+        return byRank().values().iterator();
     }
 
     public List<SortedMap<Witness, Set<Token>>> asTable() {
-        return byRank.values().stream()
+        return byRank().values().stream()
             .filter(rank -> rank.stream().anyMatch(v -> !v.tokens().isEmpty()))
             .map(vertices -> {
                 final SortedMap<Witness, Set<Token>> row = new TreeMap<>(Witness.SIGIL_COMPARATOR);
@@ -116,6 +177,7 @@ public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>,
     }
 
     public VariantGraph.Vertex[][] asArray() {
+        final SortedMap<Integer, Set<Vertex>> byRank = byRank();
         final VariantGraph.Vertex[][] arr = new VariantGraph.Vertex[byRank.size()][];
         byRank.forEach((rank, vertices) -> arr[rank] = vertices.toArray(new Vertex[vertices.size()]));
         return arr;
@@ -123,10 +185,11 @@ public class VariantGraphRanking implements Iterable<Set<VariantGraph.Vertex>>,
 
     @Override
     public Integer apply(VariantGraph.Vertex vertex) {
-        return byVertex.get(vertex);
+        final int id = vertex.id();
+        return (id < ranks.length && ranks[id] != UNRANKED ? ranks[id] : null);
     }
 
     public Comparator<VariantGraph.Vertex> comparator() {
-        return Comparator.comparingInt(byVertex::get);
+        return Comparator.comparingInt(this::rank);
     }
 }
@@ -20,6 +20,7 @@ package eu.interedition.collatex.util
 
 import eu.interedition.collatex.VariantGraph
 import eu.interedition.collatex.Witness
+import java.util.ArrayDeque
 
 /**
  * @author [Gregor Middell](http://gregor.middell.net/)
@@ -28,28 +29,16 @@ import eu.interedition.collatex.Witness
 class VariantGraphTraversal private constructor(private val graph: VariantGraph, private val witnesses: Set<Witness?>?) : Iterable<VariantGraph.Vertex?> {
 
     fun topologicallySortedTextNodes(graph: VariantGraph): List<VariantGraph.Vertex> {
-        // https://en.wikipedia.org/wiki/Topological_sorting
-        // Kahn's algorithm
-        val sorted: MutableList<VariantGraph.Vertex> = mutableListOf()
-        val todo: MutableSet<VariantGraph.Vertex> = mutableSetOf(graph.start)
-        val handledEdges: MutableSet<VariantGraph.Edge> = mutableSetOf()
-        while (todo.isNotEmpty()) {
-            val node = todo.iterator().next()
-            todo.remove(node)
-            sorted += node
-            for ((targetNode, e) in node.outgoingEdges()) {
-                if (e !in handledEdges) {
-                    handledEdges += e
-                    if (handledEdges.containsAll(targetNode.incomingEdges().values)) {
-                        todo += targetNode
-                    }
-                }
-            }
-        }
         return if (witnesses==null) {
-            sorted
+            graph.topologicalOrder()
         } else {
-            sorted.filter { vertex -> vertex === graph.start || vertex.witnesses().containsAll(witnesses) }
+            val mask = graph.witnessMask(witnesses)
+            when {
+                mask == null -> listOf(graph.start)
+                mask.isEmpty -> graph.topologicalOrder()
+                // every vertex shared by all witnesses lies on the path of any one of them
+                else -> graph.path(graph.witness(mask.nextSetBit(0))).filter { vertex -> vertex === graph.start || vertex.hasWitnesses(mask) }
+            }
         }
     }
 
@@ -68,5 +57,29 @@ class VariantGraphTraversal private constructor(private val graph: VariantGraph,
         fun of(graph: VariantGraph): VariantGraphTraversal {
             return VariantGraphTraversal(graph, null)
         }
+
+        /**
+         * Sorts the vertices of a graph topologically, visiting vertices in the order they become ready.
+         * Instead of remembering handled edges, the number of handled incoming edges is counted per vertex.
+         */
+        @JvmStatic
+        fun sort(graph: VariantGraph): List<VariantGraph.Vertex> {
+            // https://en.wikipedia.org/wiki/Topological_sorting
+            // Kahn's algorithm
+            val sorted = ArrayList<VariantGraph.Vertex>()
+            val handledIncoming = IntArray(graph.vertexIdBound())
+            val todo = ArrayDeque<VariantGraph.Vertex>()
+            todo.add(graph.start)
+            while (todo.isNotEmpty()) {
+                val node = todo.poll()
+                sorted += node
+                for (targetNode in node.outgoingEdges().keys) {
+                    if (++handledIncoming[targetNode.id()] == targetNode.incomingEdges().size) {
+                        todo += targetNode
+                    }
+                }
+            }
+            return sorted
+        }
     }
 }
\ No newline at end of file
@@ -64,6 +64,24 @@ public abstract class AbstractTest {
         return witnesses;
     }
 
+    /**
+     * @return a text of the given number of words out of a vocabulary of five, in which phrases repeat often
+     */
+    protected static String repetitiveText(int words) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append("w").append(i % 7 == 0 ? i % 5 : i % 3).append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return a comparator ordering tokens like the given one, but without its keys, so tokens are only compared
+     */
+    protected static Comparator<Token> unkeyed(Comparator<Token> comparator) {
+        return comparator::compare;
+    }
+
     protected VariantGraph collate(SimpleWitness... witnesses) {
         final VariantGraph graph = new VariantGraph();
         collate(graph, witnesses);
@@ -0,0 +1,232 @@
+package eu.interedition.collatex;
+
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactVariantGraphTest extends AbstractTest {
+
+    @Test
+    public void emptyGraph() {
+        final VariantGraph graph = collate(createWitnesses());
+        final CompactVariantGraph compact = CompactVariantGraph.of(graph);
+        assertEquals(2, compact.size());
+        assertEquals(1, compact.edgeCount());
+        assertEquals(0, compact.start());
+        assertEquals(1, compact.end());
+        assertEquals(0, compact.witnessCount());
+    }
+
+    @Test
+    public void sameStructure() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final VariantGraph graph = collate(w);
+        final CompactVariantGraph compact = CompactVariantGraph.of(graph);
+
+        assertEquals(graph.getStart(), compact.vertex(compact.start()));
+        assertEquals(graph.getEnd(), compact.vertex(compact.end()));
+        assertEquals(3, compact.witnessCount());
+
+        int vertices = 0, edges = 0;
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            final int v = compact.id(vertex);
+            assertEquals(vertices++, v);
+            assertEquals(vertex, compact.vertex(v));
+            assertEquals(vertex.outgoingEdges().size(), compact.outDegree(v));
+            assertEquals(vertex.incomingEdges().size(), compact.inDegree(v));
+
+            for (int e = compact.firstOutgoingEdge(v); e < compact.firstOutgoingEdge(v + 1); e++, edges++) {
+                final VariantGraph.Vertex target = compact.vertex(compact.target(e));
+                assertTrue(compact.target(e) > v);
+                assertEquals(vertex.outgoing().get(target), new HashSet<>(compact.witnesses(e)));
+            }
+            final Set<VariantGraph.Vertex> sources = new HashSet<>();
+            for (int i = compact.incomingOffset(v); i < compact.incomingOffset(v + 1); i++) {
+                final int source = compact.source(i);
+                sources.add(compact.vertex(source));
+                assertEquals(v, compact.target(compact.incomingEdge(i)));
+            }
+            assertEquals(vertex.incoming().keySet(), sources);
+        }
+        assertEquals(vertices, compact.size());
+        assertEquals(edges, compact.edgeCount());
+    }
+
+    @Test
+    public void frozenSnapshot() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog");
+        final VariantGraph graph = collate(w[0], w[1]);
+        final CompactVariantGraph frozen = graph.freeze();
+        final int size = frozen.size();
+        final int edges = frozen.edgeCount();
+
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            final int v = frozen.id(vertex);
+            assertEquals(graph.rank(vertex), frozen.rank(v));
+            assertEquals(vertex.tokens(), new HashSet<>(frozen.tokens(v)));
+            for (Witness witness : vertex.witnesses()) {
+                assertTrue(frozen.vertexHasWitness(v, graph.witnessOrdinal(witness)));
+            }
+        }
+        assertEquals(graph.transpositions().size(), frozen.transpositionCount());
+
+        collate(graph, createWitnesses("a", "b", "the black cat and a dog")[2]);
+        assertEquals(size, frozen.size());
+        assertEquals(edges, frozen.edgeCount());
+        assertEquals(2, frozen.witnesses().size());
+        assertEquals(2, frozen.witnessCount());
+    }
+
+    /**
+     * Compares the retained size of a graph of six witnesses with 3,000 words each, about the size of a chapter of
+     * the six editions of Darwin's <i>Origin of Species</i>, with the one of its snapshot. Tokens and witnesses are
+     * shared by both and not counted; the vertices the snapshot hands out are counted as references only.
+     */
+    @Test
+    public void footprint() {
+        final Random random = new Random(1859);
+        final List<String> text = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            text.add("w" + random.nextInt(500));
+        }
+        final String[] editions = new String[6];
+        for (int e = 0; e < editions.length; e++) {
+            final StringBuilder edition = new StringBuilder();
+            for (String word : text) {
+                final int change = random.nextInt(100);
+                if (change < 3) {
+                    continue;
+                }
+                edition.append(change < 6 ? "v" + random.nextInt(500) : word).append(' ');
+                if (change == 99) {
+                    edition.append("i").append(random.nextInt(500)).append(' ');
+                }
+            }
+            editions[e] = edition.toString();
+        }
+        final VariantGraph graph = collate(editions);
+        final CompactVariantGraph compact = graph.freeze();
+
+        final long graphSize = retainedSize(graph, VariantGraph.class);
+        final long compactSize = retainedSize(compact, VariantGraph.Vertex.class);
+        LOG.fine(() -> String.format("%s: %,d bytes, snapshot: %,d bytes", compact, graphSize, compactSize));
+        assertTrue(compactSize <= compact.footprint() * 3);
+        assertTrue(graphSize >= compactSize * 4);
+    }
+
+    /**
+     * Estimates the heap retained by an object, assuming a 64-bit VM with compressed references. Objects of this
+     * library are walked field by field; collections of the JDK are estimated from their size, as their internals
+     * are not accessible.
+     */
+    private static long retainedSize(Object root, Class<?> referencedOnly) {
+        final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        long size = 0;
+        while (!pending.isEmpty()) {
+            final Object object = pending.pop();
+            if (!visited.add(object)) {
+                continue;
+            }
+            final Class<?> type = object.getClass();
+            if (type.isArray()) {
+                final int length = Array.getLength(object);
+                final Class<?> component = type.getComponentType();
+                size += align(16 + (long) length * (component.isPrimitive() ? primitiveSize(component) : 4));
+                if (!component.isPrimitive()) {
+                    for (int i = 0; i < length; i++) {
+                        reference(Array.get(object, i), root, referencedOnly, pending);
+                    }
+                }
+            } else if (type.getName().startsWith("eu.interedition.")) {
+                long shallow = 12;
+                for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+                        shallow += (field.getType().isPrimitive() ? primitiveSize(field.getType()) : 4);
+                        if (!field.getType().isPrimitive() && c.getName().startsWith("eu.interedition.")) {
+                            field.setAccessible(true);
+                            try {
+                                reference(field.get(object), root, referencedOnly, pending);
+                            } catch (IllegalAccessException e) {
+                                throw new AssertionError(e);
+                            }
+                        }
+                    }
+                }
+                size += align(shallow);
+            } else if (object instanceof BitSet) {
+                size += 24 + align(16 + ((BitSet) object).size() / 8);
+            } else if (object instanceof Map) {
+                final Map<?, ?> map = (Map<?, ?>) object;
+                size += 48 + hashTableSize(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    reference(entry.getKey(), root, referencedOnly, pending);
+                    reference(entry.getValue(), root, referencedOnly, pending);
+                }
+            } else if (object instanceof Collection) {
+                final Collection<?> collection = (Collection<?>) object;
+                size += (object instanceof Set ? 16 + 48 + hashTableSize(collection.size()) : 24 + align(16 + 4L * collection.size()));
+                for (Object element : collection) {
+                    reference(element, root, referencedOnly, pending);
+                }
+            } else if (object instanceof Integer) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    private static void reference(Object object, Object root, Class<?> referencedOnly, Deque<Object> pending) {
+        if (object == null || object instanceof Token || object instanceof Witness) {
+            return;
+        }
+        if (object != root && referencedOnly.isInstance(object)) {
+            return;
+        }
+        pending.push(object);
+    }
+
+    private static long hashTableSize(int size) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < size) {
+            capacity *= 2;
+        }
+        return (size == 0 ? 0 : align(16 + 4L * capacity)) + 32L * size;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        return (type == short.class || type == char.class ? 2 : 1);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -24,10 +24,19 @@ import eu.interedition.collatex.simple.SimpleWitness;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphTraversal;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
@@ -197,4 +206,131 @@ public class VariantGraphTest extends AbstractTest {
         assertHasWitnesses(edgeBetween(zin2BVertex, nuendanVertex), w[1]);
         //    assertHasWitnesses(edgeBetween(nuendanVertex, voorVertex2), w[1]);
     }
+
+    @Test
+    public void witnessOrdinals() {
+        final SimpleWitness[] w = createWitnesses("a b c", "a c", "b c");
+        final VariantGraph graph = collate(w);
+
+        assertEquals(3, graph.witnessOrdinalBound());
+        for (SimpleWitness witness : w) {
+            assertEquals(witness, graph.witness(graph.witnessOrdinal(witness)));
+        }
+        assertEquals(-1, graph.witnessOrdinal(createWitnesses("d")[0]));
+
+        final VariantGraph.Vertex b = vertexWith(graph, "b", w[0]);
+        assertEquals(new HashSet<>(Arrays.asList(w[0], w[2])), b.witnesses());
+        assertEquals(true, b.hasWitnesses(graph.witnessMask(Arrays.asList(w[0], w[2]))));
+        assertEquals(false, b.hasWitnesses(graph.witnessMask(Arrays.asList(w[0], w[1]))));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void edgeWitnessesAreReadOnly() {
+        final SimpleWitness[] w = createWitnesses("a b c", "a c");
+        final VariantGraph graph = collate(w);
+        final VariantGraph.Vertex a = vertexWith(graph, "a", w[0]);
+        final VariantGraph.Vertex b = vertexWith(graph, "b", w[0]);
+        // witnesses are only added by connecting vertices, which keeps the witnesses of the target vertex in sync
+        a.outgoingEdges().get(b).sigla.add(w[1]);
+    }
+
+    @Test
+    public void cachedTopologicalOrder() {
+        final SimpleWitness[] w = createWitnesses("a b c", "a c");
+        final VariantGraph graph = collate(w);
+
+        final List<VariantGraph.Vertex> order = graph.topologicalOrder();
+        assertSame(order, graph.topologicalOrder());
+        assertEquals(order, StreamUtil.stream(graph.vertices()).collect(Collectors.toList()));
+
+        final VariantGraph.Vertex b = vertexWith(graph, "b", w[0]);
+        final VariantGraph.Vertex d = graph.add(createWitnesses("d")[0].getTokens().get(0));
+        graph.connect(b, d, Collections.singleton(w[0]));
+        graph.connect(d, graph.getEnd(), Collections.singleton(w[0]));
+
+        final List<VariantGraph.Vertex> updated = graph.topologicalOrder();
+        assertNotSame(order, updated);
+        assertEquals(order.size() + 1, updated.size());
+        assertTrue(updated.indexOf(b) < updated.indexOf(d));
+    }
+
+    @Test
+    public void witnessPaths() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final VariantGraph graph = collate(w);
+
+        for (SimpleWitness witness : w) {
+            final List<VariantGraph.Vertex> path = graph.path(witness);
+            assertEquals(graph.topologicalOrder().stream()
+                    .filter(v -> v == graph.getStart() || v.witnesses().contains(witness))
+                    .collect(Collectors.toList()), path);
+            assertSame(graph.getEnd(), path.get(path.size() - 1));
+            for (Token token : witness.getTokens()) {
+                assertTrue(graph.vertex(token).tokens().contains(token));
+            }
+        }
+        assertEquals(Collections.singletonList(graph.getStart()), graph.path(createWitnesses("d")[0]));
+
+        graph.join();
+        final VariantGraph.Vertex the = graph.successor(graph.getStart(), w[0]);
+        assertEquals("the black cat and the black dog", graph.path(w[0]).stream()
+                .filter(v -> !v.tokens().isEmpty())
+                .map(v -> toString(v, w[0]))
+                .collect(Collectors.joining(" ")));
+        assertSame(the, graph.vertex(w[0].getTokens().get(0)));
+    }
+
+    @Test
+    public void vertexTokens() {
+        final List<Token> tokens = createWitnesses("a b c d e f g h i j k l")[0].getTokens();
+        final VariantGraph.Vertex vertex = new VariantGraph().add(tokens.get(0));
+        vertex.add(tokens);
+        vertex.add(tokens.subList(0, 3));
+        assertEquals(new HashSet<>(tokens), vertex.tokens());
+        assertEquals(tokens.size(), vertex.tokens().size());
+
+        vertex.tokens().removeIf(t -> tokens.indexOf(t) % 2 == 0);
+        assertEquals(tokens.size() / 2, vertex.tokens().size());
+        assertTrue(vertex.tokens().contains(tokens.get(1)));
+        assertTrue(!vertex.tokens().contains(tokens.get(0)));
+    }
+
+    @Test
+    public void joinReportsCollapsedVertices() {
+        final SimpleWitness[] w = createWitnesses("the nice black cat shared his food", "the bad white cat spilled his food again");
+        final VariantGraph graph = collate(w);
+
+        // "black" joins "nice", "white" joins "bad" and "food" joins "his"
+        assertEquals(3, graph.join());
+        assetGraphSize(graph, 10, 12);
+        assertEquals(0, graph.join());
+    }
+
+    @Test
+    public void serializerRendersFrozenGraph() throws XMLStreamException, IOException {
+        final SimpleWitness[] w = createWitnesses("voor Zo nu en dan zin2 na voor", "voor zin2 Nu en dan voor", "voor nu en dan zo zin2");
+        final VariantGraph graph = collate(w[0], w[1]);
+        final SimpleVariantGraphSerializer serializer = new SimpleVariantGraphSerializer(graph);
+        final String tei = toTEI(serializer);
+        final String csv = toCsv(serializer);
+
+        collate(graph, w[2]);
+        graph.join();
+        assertEquals(tei, toTEI(serializer));
+        assertEquals(csv, toCsv(serializer));
+    }
+
+    private static String toTEI(SimpleVariantGraphSerializer serializer) throws XMLStreamException {
+        final StringWriter writer = new StringWriter();
+        final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(writer);
+        serializer.toTEI(xml);
+        xml.close();
+        return writer.toString();
+    }
+
+    private static String toCsv(SimpleVariantGraphSerializer serializer) throws IOException {
+        final StringWriter writer = new StringWriter();
+        serializer.toCsv(writer);
+        return writer.toString();
+    }
 }
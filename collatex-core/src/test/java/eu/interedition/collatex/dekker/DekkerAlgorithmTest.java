@@ -6,6 +6,8 @@ import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.island.Coordinate;
 import eu.interedition.collatex.dekker.island.Island;
+import eu.interedition.collatex.dekker.token_index.CandidatePruning;
+import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.simple.SimpleWitness;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -15,7 +17,9 @@ import java.util.*;
 
 import static eu.interedition.collatex.dekker.token_index.VariantGraphMatcher.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class DekkerAlgorithmTest extends AbstractTest {
 
@@ -202,4 +206,174 @@ public class DekkerAlgorithmTest extends AbstractTest {
         assertThat(graph, graph(w[2]).aligned("those to which the parent-species had been exposed under nature . there is also , i think , some probability"));
         assertThat(graph, graph(w[3]).aligned("those to which the parent-species had been exposed under nature . there is , ").aligned(4, "also").aligned(", some probability"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void progressiveAlignment() {
+        final SimpleWitness[] w = createWitnesses("The quick brown fox jumps over the lazy dog", "The fast brown fox jumps over the black dog", "The red fox jumps over the fence");
+        DekkerAlgorithm aligner = new DekkerAlgorithm();
+        VariantGraph graph = new VariantGraph();
+        for (SimpleWitness witness : w) {
+            aligner.collate(graph, witness);
+        }
+        assertThat(graph, graph(w[0]).aligned("the").non_aligned("quick").aligned("brown", "fox", "jumps", "over", "the").non_aligned("lazy").aligned("dog"));
+        assertThat(graph, graph(w[1]).aligned("the").non_aligned("fast").aligned("brown", "fox", "jumps", "over", "the").non_aligned("black").aligned("dog"));
+        assertThat(graph, graph(w[2]).aligned("the").non_aligned("red").aligned("fox", "jumps", "over", "the").non_aligned("fence"));
+    }
+
+    @Test
+    public void progressiveAlignmentOfCollatedGraph() {
+        SimpleWitness[] w = createWitnesses("those to which the parent-species have been exposed under nature. There is, also, I think, some probability", "those to which the parent-species have been exposed under nature. There is also, I think, some probability", "those to which the parent-species had been exposed under nature. There is also, I think, some probability");
+        VariantGraph graph = new VariantGraph();
+        new DekkerAlgorithm().collate(graph, w[0], w[1]);
+        // a new aligner indexes the witnesses already in the graph
+        new DekkerAlgorithm().collate(graph, (Iterable<Token>) w[2]);
+
+        VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, w);
+        List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        List<SortedMap<Witness, Set<Token>>> e = table(expected);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+    }
+
+    @Test
+    public void progressiveAlignmentOfJoinedGraph() {
+        // "black" of the last witness matches a token joined into the vertex of "the old black"
+        final SimpleWitness[] w = createWitnesses("the old black cat sat down", "the old black dog lay down", "black sheep down");
+        DekkerAlgorithm aligner = new DekkerAlgorithm();
+        VariantGraph graph = new VariantGraph();
+        aligner.collate(graph, w[0]);
+        aligner.collate(graph, w[1]);
+        assertTrue(graph.join() > 0);
+        // the vertices the aligner indexed have been joined, so it has to index the graph again
+        aligner.collate(graph, w[2]);
+        assertSame(graph.vertex(w[0].getTokens().get(2)), graph.vertex(w[2].getTokens().get(0)));
+
+        VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, w[0], w[1]);
+        expected.join();
+        new DekkerAlgorithm().collate(expected, (Iterable<Token>) w[2]);
+        List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        List<SortedMap<Witness, Set<Token>>> e = table(expected);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+    }
+
+    @Test
+    public void pruningGraphInstancesOfFrequentBlocks() {
+        final SimpleWitness[] w = createWitnesses("the cat and the dog and the bird, and the fish", "the cat and the dog and the fish and the bird", "a cat and the dog and a bird, and the fish", "the cat and a dog and the bird and the fish");
+        VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, w);
+        List<SortedMap<Witness, Set<Token>>> e = table(expected);
+
+        final DekkerAlgorithm unlimited = new DekkerAlgorithm();
+        unlimited.setCandidatePruning(new CandidatePruning(1000));
+        VariantGraph graph = new VariantGraph();
+        unlimited.collate(graph, w);
+        List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+        assertTrue(unlimited.getCandidatePruning().getCandidates() > 0);
+        assertEquals(0, unlimited.getCandidatePruning().getPrunedCandidates());
+
+        final DekkerAlgorithm limited = new DekkerAlgorithm();
+        limited.setCandidatePruning(new CandidatePruning(2));
+        graph = new VariantGraph();
+        limited.collate(graph, w);
+        t = table(graph);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+        final CandidatePruning pruning = limited.getCandidatePruning();
+        assertEquals(unlimited.getCandidatePruning().getCandidates(), pruning.getCandidates());
+        assertTrue(pruning.getPrunedCandidates() > 0);
+        assertTrue(pruning.getPrunedInstances() > 0);
+        for (Island island : limited.getAllPossibleIslands()) {
+            assertTrue(unlimited.getAllPossibleIslands().contains(island));
+        }
+    }
+
+    @Test
+    public void pruningByDistanceFromDiagonal() {
+        // the first "the" of the second witness is nearer to the second "the" of the first by position, but after
+        // the leading insertion its expected column is nearer to the first
+        final SimpleWitness[] w = createWitnesses("the a b c d e the f g h", "p q r s the x b c d e the y g h");
+        VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, w);
+        List<SortedMap<Witness, Set<Token>>> e = table(expected);
+
+        final DekkerAlgorithm limited = new DekkerAlgorithm();
+        limited.setCandidatePruning(new CandidatePruning(1));
+        VariantGraph graph = new VariantGraph();
+        limited.collate(graph, w);
+        List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+        assertTrue(limited.getCandidatePruning().getPrunedCandidates() > 0);
+    }
+
+    private static void assertAnchoredAlignmentEquals(SimpleWitness... w) {
+        VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, w);
+        List<SortedMap<Witness, Set<Token>>> e = table(expected);
+
+        final DekkerAlgorithm anchored = new DekkerAlgorithm();
+        anchored.setMinimumAnchorSize(2);
+        VariantGraph graph = new VariantGraph();
+        anchored.collate(graph, w);
+        List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        for (SimpleWitness witness : w) {
+            assertEquals(toString(e, witness), toString(t, witness));
+        }
+    }
+
+    @Test
+    public void anchoredAlignment() {
+        assertAnchoredAlignmentEquals(createWitnesses("those to which the parent-species have been exposed under nature. There is, also, I think, some probability", "those to which the parent-species have been exposed under nature. There is also, I think, some probability", "those to which the parent-species had been exposed under nature. There is also, I think, some probability", "those to which the parent-species had been exposed under nature. There is, also, some probability"));
+        assertAnchoredAlignmentEquals(createWitnesses("the cat and the dog and the bird, and the fish", "the cat and the dog and the fish and the bird", "a cat and the dog and a bird, and the fish"));
+    }
+
+    @Test
+    public void anchoredAlignmentOfLongWitnesses() {
+        final Random random = new Random(3);
+        final StringBuilder[] texts = { new StringBuilder(), new StringBuilder(), new StringBuilder() };
+        for (int i = 0; i < 1200; i++) {
+            final String word = (i % 12 == 0 ? "unique" + i : "w" + random.nextInt(30));
+            for (StringBuilder text : texts) {
+                final int edit = random.nextInt(40);
+                if (edit == 0) {
+                    continue;
+                }
+                text.append(edit == 1 ? "variant" : word).append(' ');
+            }
+        }
+        final SimpleWitness[] w = createWitnesses(texts[0].toString(), texts[1].toString(), texts[2].toString());
+        final DekkerAlgorithm anchored = new DekkerAlgorithm();
+        anchored.setMinimumAnchorSize(2);
+        VariantGraph graph = new VariantGraph();
+        anchored.collate(graph, w);
+
+        // words occurring once are aligned across all witnesses
+        final Map<String, Integer> columns = new HashMap<>();
+        final List<SortedMap<Witness, Set<Token>>> t = table(graph);
+        for (int column = 0; column < t.size(); column++) {
+            for (Set<Token> tokens : t.get(column).values()) {
+                for (Token token : tokens) {
+                    final String normalized = ((SimpleToken) token).getNormalized();
+                    if (normalized.startsWith("unique")) {
+                        final Integer previous = columns.put(normalized, column);
+                        if (previous != null) {
+                            assertEquals(normalized, previous.intValue(), column);
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(columns.size() > 90);
+    }
+
+}
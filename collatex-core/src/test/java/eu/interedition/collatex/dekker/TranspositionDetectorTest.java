@@ -0,0 +1,92 @@
+package eu.interedition.collatex.dekker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TranspositionDetectorTest {
+
+    // transposes by recalculating and sorting the distances of all remaining phrase matches every time
+    private static int[] recalculatingTranspositions(int[] graphIndex, int[] size) {
+        final int[] byGraphIndex = new int[graphIndex.length];
+        final List<Integer> remaining = new ArrayList<>();
+        final List<Integer> remainingGraphIndex = new ArrayList<>();
+        final List<Integer> sortedGraphIndex = new ArrayList<>();
+        for (int i = 0; i < graphIndex.length; i++) {
+            byGraphIndex[graphIndex[i]] = i;
+            remaining.add(i);
+            remainingGraphIndex.add(graphIndex[i]);
+            sortedGraphIndex.add(i);
+        }
+        final List<Integer> transpositions = new ArrayList<>();
+        while (true) {
+            final Map<Integer, Integer> distance = new HashMap<>();
+            for (int i = 0; i < remaining.size(); i++) {
+                distance.put(remaining.get(i), Math.abs(remainingGraphIndex.get(i) - sortedGraphIndex.get(i)));
+            }
+            if (distance.isEmpty() || Collections.max(distance.values()) == 0) {
+                break;
+            }
+            final List<Integer> sorted = new ArrayList<>(remaining);
+            sorted.sort(Comparator.<Integer>comparingInt(pm -> -distance.get(pm)).thenComparingInt(pm -> size[pm]));
+            final int transposed = sorted.get(0);
+            final int linked = byGraphIndex[sortedGraphIndex.get(remainingGraphIndex.indexOf(graphIndex[transposed]))];
+            for (int pm : distance.get(transposed) > 1 && distance.get(transposed).equals(distance.get(linked))
+                ? new int[] { transposed, linked } : new int[] { transposed }) {
+                remaining.remove((Integer) pm);
+                remainingGraphIndex.remove((Integer) graphIndex[pm]);
+                sortedGraphIndex.remove((Integer) graphIndex[pm]);
+                transpositions.add(pm);
+            }
+        }
+        return transpositions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void assertSameTranspositions(int[] graphIndex, int[] size) {
+        assertArrayEquals(Arrays.toString(graphIndex), recalculatingTranspositions(graphIndex, size), TranspositionDetector.transpositions(graphIndex, size));
+    }
+
+    @Test
+    public void transposesPhraseMatches() {
+        assertArrayEquals(new int[0], TranspositionDetector.transpositions(new int[] { 0, 1, 2 }, new int[] { 1, 1, 1 }));
+        assertArrayEquals(new int[] { 0 }, TranspositionDetector.transpositions(new int[] { 1, 0 }, new int[] { 1, 2 }));
+        assertArrayEquals(new int[] { 1 }, TranspositionDetector.transpositions(new int[] { 1, 0 }, new int[] { 2, 1 }));
+        assertArrayEquals(new int[] { 0, 2 }, TranspositionDetector.transpositions(new int[] { 2, 1, 0 }, new int[] { 1, 1, 1 }));
+        assertSameTranspositions(new int[] { 3, 0, 1, 2, 6, 4, 5 }, new int[] { 1, 2, 2, 2, 1, 1, 1 });
+    }
+
+    @Test
+    public void transposesLikeRecalculatingDistances() {
+        final Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            final int n = 1 + random.nextInt(round < 1000 ? 8 : 40);
+            final List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                order.add(i);
+            }
+            if (random.nextBoolean()) {
+                Collections.shuffle(order, random);
+            } else {
+                // a few phrase matches moved within an otherwise aligned order
+                for (int moves = random.nextInt(4); moves >= 0; moves--) {
+                    order.add(random.nextInt(n), order.remove(random.nextInt(n)));
+                }
+            }
+            final int[] graphIndex = order.stream().mapToInt(Integer::intValue).toArray();
+            final int[] size = new int[n];
+            for (int i = 0; i < n; i++) {
+                size[i] = 1 + random.nextInt(3);
+            }
+            assertSameTranspositions(graphIndex, size);
+        }
+    }
+}
@@ -26,7 +26,9 @@ import eu.interedition.collatex.util.VariantGraphRanking;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class VariantGraphRankerTest extends AbstractTest {
@@ -72,4 +74,28 @@ public class VariantGraphRankerTest extends AbstractTest {
         assertVertexEquals("so", vertices.get(6));
         assertEquals(6, (long) ranking.apply(vertices.get(6)));
     }
+
+    @Test
+    public void maintainedWhileMerging() {
+        final VariantGraph graph = new VariantGraph();
+        assertEquals(1, graph.rank(graph.getEnd()));
+
+        collate(graph, createWitnesses("the black cat", "the white and black cat", "a cat and a black dog", "the cat"));
+        assertRanksAsComputed(graph);
+
+        VariantGraph.JOIN.apply(graph);
+        assertRanksAsComputed(graph);
+    }
+
+    private static void assertRanksAsComputed(VariantGraph graph) {
+        final Map<VariantGraph.Vertex, Integer> computed = new HashMap<>();
+        for (VariantGraph.Vertex v : graph.vertices()) {
+            computed.put(v, v.incomingEdges().keySet().stream().mapToInt(computed::get).max().orElse(-1) + 1);
+        }
+        final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+        computed.forEach((v, rank) -> {
+            assertEquals((int) rank, graph.rank(v));
+            assertEquals((int) rank, ranking.rank(v.id()));
+        });
+    }
 }
@@ -0,0 +1,112 @@
+package eu.interedition.collatex.dekker.island;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.dekker.legacy.MatchTable;
+import eu.interedition.collatex.dekker.legacy.MatchTableImpl;
+import eu.interedition.collatex.dekker.legacy.MatchTableSelection;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class IslandConflictResolverTest extends AbstractTest {
+
+    // competing islands found by comparing all pairs of islands
+    private static Set<Island> pairwiseCompetingIslands(List<Island> islands) {
+        Set<Island> competingIslands = new HashSet<>();
+        for (int i = 0; i < islands.size(); i++) {
+            for (int j = i + 1; j < islands.size(); j++) {
+                if (islands.get(i).isCompetitor(islands.get(j))) {
+                    competingIslands.add(islands.get(i));
+                    competingIslands.add(islands.get(j));
+                }
+            }
+        }
+        return competingIslands;
+    }
+
+    // the coordinates of the given islands, in order
+    private static List<List<Coordinate>> coordinates(List<Island> islands) {
+        final List<List<Coordinate>> coordinates = new ArrayList<>();
+        for (Island island : islands) {
+            final List<Coordinate> islandCoordinates = new ArrayList<>();
+            island.forEach(islandCoordinates::add);
+            coordinates.add(islandCoordinates);
+        }
+        return coordinates;
+    }
+
+    // a resolver analyzing the conflicts between islands by comparing all pairs of them
+    private static class PairwiseConflictResolver extends IslandConflictResolver {
+        private final IslandSelection selection;
+
+        PairwiseConflictResolver(IslandSelection selection) {
+            super(selection);
+            this.selection = selection;
+        }
+
+        @Override
+        public Map<IslandCompetition, List<Island>> analyzeConflictsBetweenPossibleIslands(List<Island> possibleIslands) {
+            Map<IslandCompetition, List<Island>> conflictMap = new HashMap<>();
+            Set<Island> competingIslands = pairwiseCompetingIslands(possibleIslands);
+            for (Island island : competingIslands) {
+                if (selection.doesCandidateLayOnVectorOfCommittedIsland(island)) {
+                    conflictMap.computeIfAbsent(IslandCompetition.CompetingIslandAndOnIdealIine, c -> new ArrayList<>()).add(island);
+                } else {
+                    conflictMap.computeIfAbsent(IslandCompetition.CompetingIsland, c -> new ArrayList<>()).add(island);
+                }
+            }
+            Set<Island> nonCompetingIslands = new HashSet<>(possibleIslands);
+            nonCompetingIslands.removeAll(competingIslands);
+            for (Island island : nonCompetingIslands) {
+                conflictMap.computeIfAbsent(IslandCompetition.NonCompetingIsland, c -> new ArrayList<>()).add(island);
+            }
+            return conflictMap;
+        }
+    }
+
+    @Test
+    public void competingIslands() {
+        final Island a = new Island(new Coordinate(0, 0), new Coordinate(1, 1));
+        final Island b = new Island(new Coordinate(1, 4), new Coordinate(2, 5));
+        final Island c = new Island(new Coordinate(4, 2), new Coordinate(5, 3));
+        final Island d = new Island(new Coordinate(6, 5), new Coordinate(6, 5));
+        assertEquals(new HashSet<>(Arrays.asList(a, b, d)), IslandConflictResolver.getCompetingIslands(Arrays.asList(a, b, c, d)));
+        assertEquals(new HashSet<>(Arrays.asList(a, b, d)), IslandConflictResolver.getCompetingIslands(Arrays.asList(d, c, b, a)));
+        assertEquals(Collections.emptySet(), IslandConflictResolver.getCompetingIslands(Arrays.asList(a, c)));
+    }
+
+    @Test
+    public void selectsSameIslandsAsPairwiseComparison() {
+        final Random random = new Random(42);
+        final String[] words = { "a", "b", "c", "d", "e", "f" };
+        for (int round = 0; round < 100; round++) {
+            final String[] texts = new String[2];
+            for (int t = 0; t < texts.length; t++) {
+                final StringBuilder text = new StringBuilder();
+                for (int i = 0, length = 1 + random.nextInt(30); i < length; i++) {
+                    text.append(words[random.nextInt(words.length)]).append(' ');
+                }
+                texts[t] = text.toString();
+            }
+            final SimpleWitness[] w = createWitnesses(texts);
+            final VariantGraph graph = collate(w[0]);
+
+            final MatchTable table = MatchTableImpl.create(graph, w[1]);
+            final List<Island> expected = new PairwiseConflictResolver(new MatchTableSelection(table)).createNonConflictingVersion().getIslands();
+            final List<Island> actual = new IslandConflictResolver(new MatchTableSelection(table)).createNonConflictingVersion().getIslands();
+            assertEquals(texts[0] + "/" + texts[1], coordinates(expected), coordinates(actual));
+        }
+    }
+}
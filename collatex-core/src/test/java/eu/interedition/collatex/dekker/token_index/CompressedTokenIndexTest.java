@@ -0,0 +1,93 @@
+package eu.interedition.collatex.dekker.token_index;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedTokenIndexTest extends AbstractTest {
+
+    private static <T> Set<String> occurrences(List<T> occurrences, ToIntFunction<T> position) {
+        final Set<String> result = new TreeSet<>();
+        for (T occurrence : occurrences) {
+            result.add(occurrence + "@" + position.applyAsInt(occurrence));
+        }
+        return result;
+    }
+
+    private static void assertSameAsTokenIndex(Comparator<Token> comparator, int sampleRate, SimpleWitness... w) {
+        final TokenIndex tokenIndex = new TokenIndex(comparator, w);
+        tokenIndex.prepare();
+        final PhraseIndex phraseIndex = new PhraseIndex(tokenIndex);
+        final CompressedTokenIndex compressed = new CompressedTokenIndex(comparator, Arrays.asList(w), sampleRate);
+
+        assertEquals(tokenIndex.size(), compressed.size());
+        assertEquals(w.length, compressed.witnessCount());
+        for (int ordinal = 0; ordinal < w.length; ordinal++) {
+            assertEquals(w[ordinal].getSigil(), compressed.sigil(ordinal));
+        }
+        for (int k = 0; k < tokenIndex.size(); k++) {
+            assertEquals(tokenIndex.suffix_array[k], compressed.suffix(k));
+            assertEquals(tokenIndex.tokenWitness(k), compressed.tokenWitness(k));
+        }
+        for (SimpleWitness witness : w) {
+            assertEquals(tokenIndex.getStartTokenPositionForWitness(witness), compressed.getStartTokenPositionForWitness(witness));
+            assertEquals(tokenIndex.getEndTokenPositionForWitness(witness), compressed.getEndTokenPositionForWitness(witness));
+        }
+
+        final List<String> blocks = new ArrayList<>();
+        compressed.forEachBlock((start, end, length) -> blocks.add(start + ".." + end + ":" + length));
+        final List<String> expected = new ArrayList<>();
+        for (Block block : tokenIndex.getBlocks()) {
+            expected.add(block.start + ".." + block.getEnd() + ":" + block.length);
+        }
+        assertEquals(expected, blocks);
+
+        for (SimpleWitness witness : w) {
+            final List<Token> tokens = witness.getTokens();
+            for (int start = 0; start < tokens.size(); start++) {
+                for (int end = start + 1; end <= Math.min(tokens.size(), start + 4); end++) {
+                    final List<Token> phrase = tokens.subList(start, end);
+                    assertEquals(phraseIndex.count(phrase), compressed.count(phrase));
+                    assertEquals(occurrences(phraseIndex.find(phrase), PhraseIndex.Occurrence::getPosition),
+                        occurrences(compressed.find(phrase), CompressedTokenIndex.Occurrence::getPosition));
+                }
+            }
+        }
+        assertEquals(0, compressed.count(new SimpleWitness("Q", "unknown").getTokens()));
+    }
+
+    @Test
+    public void sameAsTokenIndex() {
+        final SimpleWitness[] w = createWitnesses(
+            "the black cat and the black dog",
+            "the white cat and the dog",
+            "a black cat and a dog",
+            "the black and the white cat and the black and the white dog");
+        assertSameAsTokenIndex(new EqualityTokenComparator(), 1, w);
+        assertSameAsTokenIndex(new EqualityTokenComparator(), 5, w);
+    }
+
+    @Test
+    public void sameAsTokenIndexByComparison() {
+        assertSameAsTokenIndex(unkeyed(new EqualityTokenComparator()), 3, createWitnesses("a b c d e", "a e c d", "a d b", "b c d e a b c", "a"));
+    }
+
+    @Test
+    public void compressesRepetitiveWitnesses() {
+        final String text = repetitiveText(300);
+        final SimpleWitness[] w = createWitnesses(text, text.substring(40), text.replace("w1 w2", "w2"));
+        assertSameAsTokenIndex(new EqualityTokenComparator(), CompressedTokenIndex.DEFAULT_SAMPLE_RATE, w);
+
+        // a fraction of the suffix and LCP arrays alone
+        final CompressedTokenIndex compressed = new CompressedTokenIndex(new EqualityTokenComparator(), Arrays.asList(w));
+        assertTrue(compressed.footprint() < 2L * Integer.BYTES * compressed.size() / 3);
+    }
+}
@@ -0,0 +1,108 @@
+package eu.interedition.collatex.dekker.token_index;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalTokenIndexTest extends AbstractTest {
+
+    // pairs of an instance in the given witness with an instance of the same block in a preceding witness
+    private static Set<String> matches(List<Block.Instance> instances, int witnessStart) {
+        final Set<String> matches = new TreeSet<>();
+        for (Block.Instance instance : instances) {
+            for (int i = 0; i < instance.getBlock().getFrequency(); i++) {
+                final int other = instance.getBlock().instanceToken(i);
+                if (other < witnessStart) {
+                    matches.add(instance.getStart_token() + ":" + other + ":" + instance.length());
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void assertSameBlocks(Comparator<Token> comparator, SimpleWitness... w) {
+        final IncrementalTokenIndex incremental = new IncrementalTokenIndex(comparator);
+        for (int i = 0; i < w.length; i++) {
+            incremental.add(w[i]);
+
+            final TokenIndex tokenIndex = new TokenIndex(comparator, Arrays.copyOf(w, i + 1));
+            tokenIndex.prepare();
+            final int start = tokenIndex.getStartTokenPositionForWitness(w[i]);
+            assertEquals(start, incremental.getStartTokenPositionForWitness(w[i]));
+            assertEquals(tokenIndex.getEndTokenPositionForWitness(w[i]), incremental.getEndTokenPositionForWitness(w[i]));
+            assertEquals(tokenIndex.size(), incremental.size());
+            assertEquals(matches(tokenIndex.getBlockInstancesForWitness(w[i]), start), matches(incremental.getBlockInstancesForWitness(w[i]), start));
+
+            for (Block.Instance instance : incremental.getBlockInstancesForWitness(w[i])) {
+                final Set<Integer> witnesses = new HashSet<>();
+                for (Block.Instance other : instance.getBlock().getAllInstances()) {
+                    witnesses.add(incremental.tokenWitness(other.getStart_token()));
+                    assertEquals(instance.toString(), other.toString());
+                }
+                assertTrue(witnesses.size() <= i + 1);
+                assertEquals(witnesses.size(), instance.getBlock().getDepth());
+            }
+        }
+    }
+
+    @Test
+    public void sameBlocksAsTokenIndex() {
+        assertSameBlocks(new EqualityTokenComparator(), createWitnesses(
+            "the black cat and the black dog",
+            "the white cat and the dog",
+            "a black cat and a dog",
+            "the black and the white cat and the black and the white dog"));
+    }
+
+    @Test
+    public void sameBlocksByComparison() {
+        assertSameBlocks(unkeyed(new EqualityTokenComparator()), createWitnesses("a b c d e", "a e c d", "a d b", "b c d e a b c"));
+    }
+
+    @Test
+    public void blocksReusedUntilNextWitness() {
+        final SimpleWitness[] w = createWitnesses("the black cat", "the black dog", "a black cat");
+        final IncrementalTokenIndex incremental = new IncrementalTokenIndex(new EqualityTokenComparator());
+        incremental.add(w[0]);
+        incremental.add(w[1]);
+        final List<Block.Instance> instances = incremental.getBlockInstancesForWitness(w[1]);
+        final List<Block.Instance> again = incremental.getBlockInstancesForWitness(w[1]);
+        assertEquals(instances.size(), again.size());
+        for (int i = 0; i < instances.size(); i++) {
+            assertSame(instances.get(i).getBlock(), again.get(i).getBlock());
+        }
+
+        // "black" occurs in the third witness too, so its block is renewed
+        incremental.add(w[2]);
+        final Block before = blockOfSecondToken(instances, incremental.getStartTokenPositionForWitness(w[1]));
+        final Block after = blockOfSecondToken(incremental.getBlockInstancesForWitness(w[1]), incremental.getStartTokenPositionForWitness(w[1]));
+        assertEquals(2, before.getDepth());
+        assertEquals(3, after.getDepth());
+        assertNotSame(before, after);
+    }
+
+    // the block of the second token of a witness on its own
+    private static Block blockOfSecondToken(List<Block.Instance> instances, int witnessStart) {
+        for (Block.Instance instance : instances) {
+            if (instance.getStart_token() == witnessStart + 1 && instance.length() == 1) {
+                return instance.getBlock();
+            }
+        }
+        throw new AssertionError();
+    }
+
+    @Test
+    public void repetitiveWitnesses() {
+        final String text = repetitiveText(300);
+        assertSameBlocks(new EqualityTokenComparator(), createWitnesses(text, text.substring(40), text.replace("w1 w2", "w2")));
+    }
+}
@@ -0,0 +1,184 @@
+package eu.interedition.collatex.dekker.token_index;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.dekker.DekkerAlgorithm;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedTokenIndexTest extends AbstractTest {
+
+    private static final String[] CORPUS = {
+        "the black cat and the black dog",
+        "the white cat and the dog",
+        "a black cat and a dog",
+        "the black and the white cat and the black and the white dog"
+    };
+
+    // pairs of instances of the same block by its length and the witnesses and offsets of the instances,
+    // independent of token positions
+    private static Set<String> instancePairs(TokenIndex tokenIndex) {
+        final Set<String> pairs = new TreeSet<>();
+        for (Block block : tokenIndex.getBlocks()) {
+            final List<String> instances = new ArrayList<>();
+            for (Block.Instance instance : block.getAllInstances()) {
+                final Witness witness = instance.getWitness();
+                instances.add(witness.getSigil() + (instance.getStart_token() - tokenIndex.getStartTokenPositionForWitness(witness)));
+            }
+            for (String a : instances) {
+                for (String b : instances) {
+                    if (a.compareTo(b) < 0) {
+                        pairs.add(block.length + ":" + a + ":" + b);
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static MappedTokenIndex write(TokenIndex tokenIndex) throws IOException {
+        final Path file = Files.createTempFile("collatex", ".index");
+        file.toFile().deleteOnExit();
+        MappedTokenIndex.write(tokenIndex, file);
+        return MappedTokenIndex.map(file);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final SimpleWitness[] w = createWitnesses(CORPUS);
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        final MappedTokenIndex mapped = write(tokenIndex);
+
+        assertEquals(w.length, mapped.witnessCount());
+        assertEquals(tokenIndex.size(), mapped.size());
+        assertEquals(tokenIndex.blockCount(), mapped.blockCount());
+        assertEquals(2, mapped.witnessOrdinal("C"));
+        assertEquals(tokenIndex.getStartTokenPositionForWitness(w[2]), mapped.witnessStart(2));
+        assertEquals(tokenIndex.getEndTokenPositionForWitness(w[2]), mapped.witnessEnd(2));
+
+        // the corpus witnesses tokenized anew
+        final TokenIndex reused = mapped.tokenIndex(new EqualityTokenComparator(), Arrays.asList(createWitnesses(CORPUS)));
+        assertArrayEquals(tokenIndex.suffix_array, reused.suffix_array);
+        assertArrayEquals(tokenIndex.LCP_array, reused.LCP_array);
+        assertEquals(instancePairs(tokenIndex), instancePairs(reused));
+        for (int b = 0; b < tokenIndex.blockCount(); b++) {
+            assertEquals(tokenIndex.blockDepth(b), reused.blockDepth(b));
+        }
+    }
+
+    @Test
+    public void witnessSubsets() throws IOException {
+        final SimpleWitness[] w = createWitnesses(CORPUS);
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        final MappedTokenIndex mapped = write(tokenIndex);
+
+        for (SimpleWitness[] subset : Arrays.asList(new SimpleWitness[]{w[1], w[3]}, new SimpleWitness[]{w[3], w[0], w[2]}, new SimpleWitness[]{w[2]})) {
+            final TokenIndex expected = new TokenIndex(new EqualityTokenComparator(), subset);
+            expected.prepare();
+            final TokenIndex view = mapped.tokenIndex(new EqualityTokenComparator(), Arrays.asList(subset));
+            assertEquals(expected.size(), view.size());
+            assertEquals(instancePairs(expected), instancePairs(view));
+            for (SimpleWitness witness : subset) {
+                assertEquals(expected.getStartTokenPositionForWitness(witness), view.getStartTokenPositionForWitness(witness));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void changedWitness() throws IOException {
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), createWitnesses(CORPUS));
+        tokenIndex.prepare();
+        final SimpleWitness changed = new SimpleWitness("B", "the white cat and the cat");
+        write(tokenIndex).tokenIndex(new EqualityTokenComparator(), Collections.singletonList(changed));
+    }
+
+    @Test
+    public void collateFromCorpus() throws IOException {
+        final SimpleWitness[] w = createWitnesses(CORPUS);
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        final DekkerAlgorithm aligner = new DekkerAlgorithm();
+        aligner.setCorpusIndex(write(tokenIndex));
+
+        final SimpleWitness[] subset = {w[3], w[1]};
+        final VariantGraph graph = new VariantGraph();
+        aligner.collate(graph, subset);
+        final VariantGraph expected = new VariantGraph();
+        new DekkerAlgorithm().collate(expected, subset);
+
+        final List<SortedMap<Witness, Set<Token>>> table = table(graph);
+        final List<SortedMap<Witness, Set<Token>>> expectedTable = table(expected);
+        for (SimpleWitness witness : subset) {
+            assertEquals(toString(expectedTable, witness), toString(table, witness));
+        }
+    }
+
+    @Test
+    public void truncatedFile() throws IOException {
+        final byte[] bytes = bytes(CORPUS);
+        assertEquals(CORPUS.length, new MappedTokenIndex(ByteBuffer.wrap(bytes)).witnessCount());
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void corruptHeader() throws IOException {
+        final byte[] bytes = bytes(CORPUS);
+        final int witnessCount = CORPUS.length;
+        final int size = ByteBuffer.wrap(bytes).getInt(12);
+        final int blockCount = ByteBuffer.wrap(bytes).getInt(16);
+        final int siglaOffsets = MappedTokenIndex.HEADER_SIZE + Integer.BYTES * (2 * witnessCount + 3 * size + 3 * blockCount);
+        final List<Integer> fields = new ArrayList<>();
+        for (int field = 2; field < MappedTokenIndex.HEADER_SIZE / Integer.BYTES; field++) {
+            fields.add(field * Integer.BYTES);
+        }
+        // witness start and end positions, sigla offsets
+        for (int w = 0; w < 2 * witnessCount; w++) {
+            fields.add(MappedTokenIndex.HEADER_SIZE + Integer.BYTES * w);
+        }
+        for (int w = 0; w <= witnessCount; w++) {
+            fields.add(siglaOffsets + Integer.BYTES * w);
+        }
+        for (int offset : fields) {
+            for (int value : new int[] { -1, Integer.MAX_VALUE, Integer.MIN_VALUE }) {
+                final ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+                corrupt.putInt(offset, value);
+                assertRejected(corrupt.array());
+            }
+        }
+    }
+
+    private byte[] bytes(String... corpus) throws IOException {
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), createWitnesses(corpus));
+        tokenIndex.prepare();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MappedTokenIndex.write(tokenIndex, out);
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            new MappedTokenIndex(ByteBuffer.wrap(bytes));
+            fail("Accepted " + bytes.length + " bytes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
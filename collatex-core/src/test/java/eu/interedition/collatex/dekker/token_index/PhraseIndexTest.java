@@ -0,0 +1,93 @@
+package eu.interedition.collatex.dekker.token_index;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhraseIndexTest extends AbstractTest {
+
+    // occurrences found by scanning the witnesses
+    private static Set<String> scan(List<Token> phrase, SimpleWitness... witnesses) {
+        final Set<String> occurrences = new TreeSet<>();
+        for (SimpleWitness witness : witnesses) {
+            final List<Token> tokens = witness.getTokens();
+            for (int offset = 0; offset + phrase.size() <= tokens.size(); offset++) {
+                int i = 0;
+                while (i < phrase.size() && ((SimpleToken) phrase.get(i)).getNormalized().equals(((SimpleToken) tokens.get(offset + i)).getNormalized())) {
+                    i++;
+                }
+                if (i == phrase.size()) {
+                    occurrences.add(witness.getSigil() + ":" + offset);
+                }
+            }
+        }
+        return occurrences;
+    }
+
+    private static Set<String> find(PhraseIndex phraseIndex, List<Token> phrase) {
+        final Set<String> occurrences = new TreeSet<>();
+        for (PhraseIndex.Occurrence occurrence : phraseIndex.find(phrase)) {
+            occurrences.add(occurrence.toString());
+        }
+        assertEquals(occurrences.size(), phraseIndex.count(phrase));
+        return occurrences;
+    }
+
+    private static void assertFindsAllPhrases(Comparator<Token> comparator, SimpleWitness... w) {
+        final TokenIndex tokenIndex = new TokenIndex(comparator, w);
+        tokenIndex.prepare();
+        final PhraseIndex phraseIndex = new PhraseIndex(tokenIndex);
+        tokenIndex.releaseLCP();
+
+        for (SimpleWitness witness : w) {
+            final List<Token> tokens = witness.getTokens();
+            for (int start = 0; start < tokens.size(); start++) {
+                for (int end = start + 1; end <= Math.min(tokens.size(), start + 5); end++) {
+                    final List<Token> phrase = tokens.subList(start, end);
+                    assertEquals(phrase.toString(), scan(phrase, w), find(phraseIndex, phrase));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findsPhrases() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        final PhraseIndex phraseIndex = new PhraseIndex(tokenIndex);
+
+        final SimpleWitness query = new SimpleWitness("Q", "black cat and");
+        assertEquals(new TreeSet<>(Arrays.asList("A:1", "C:1")), find(phraseIndex, query.getTokens()));
+        assertEquals(new TreeSet<>(Arrays.asList("A:0", "A:4", "B:0", "B:4")), find(phraseIndex, new SimpleWitness("Q", "The").getTokens()));
+        assertEquals(Collections.emptySet(), find(phraseIndex, new SimpleWitness("Q", "black and").getTokens()));
+        assertEquals(Collections.emptySet(), find(phraseIndex, new SimpleWitness("Q", "red cat").getTokens()));
+        assertEquals(Collections.emptySet(), find(phraseIndex, new SimpleWitness("Q", "and a dog and").getTokens()));
+    }
+
+    @Test
+    public void findsAllPhrases() {
+        assertFindsAllPhrases(new EqualityTokenComparator(), createWitnesses(
+            "the black and the white cat and the black and the white dog",
+            "the white cat and the dog",
+            "a black cat and a dog and the black"));
+    }
+
+    @Test
+    public void findsAllPhrasesByComparison() {
+        assertFindsAllPhrases(unkeyed(new EqualityTokenComparator()), createWitnesses("a b c d e", "a e c d", "a d b", "b c d e a b c", "a"));
+    }
+
+    @Test
+    public void findsRepetitivePhrases() {
+        final String text = repetitiveText(200);
+        assertFindsAllPhrases(new EqualityTokenComparator(), createWitnesses(text, text.substring(40), "w0 w0 w0 w0 w0 w0"));
+    }
+}
@@ -5,11 +5,19 @@ import eu.interedition.collatex.Token;
 import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.suffixarray.AdaptiveSuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.Algorithm;
+import eu.interedition.collatex.suffixarray.ParallelSuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.SuffixData;
+import eu.interedition.collatex.suffixarray.SuffixArrays;
 import org.junit.Test;
 
 import java.util.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by ronald on 4/20/15.
@@ -153,4 +161,136 @@ public class TokenIndexTest extends AbstractTest {
         Arrays.sort(index.token_array, new TokenIndex.MarkerTokenComparator(new MySpecialComparator()));
         assertEquals("[$1, $2, huh, interesting, nice, nice, right, very]", Arrays.toString(index.token_array));
     }
+
+    @Test
+    public void keyedSymbolIds() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final TokenIndex byKey = new TokenIndex(new EqualityTokenComparator(), w);
+        byKey.prepare();
+        final TokenIndex byComparison = new TokenIndex(unkeyed(new EqualityTokenComparator()), w);
+        byComparison.prepare();
+        assertArrayEquals(byComparison.suffix_array, byKey.suffix_array);
+        assertArrayEquals(byComparison.LCP_array, byKey.LCP_array);
+    }
+
+    @Test
+    public void suffixArrayBuilders() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final TokenIndex expected = new TokenIndex(new EqualityTokenComparator(), w);
+        expected.prepare();
+        for (String builder : Arrays.asList("auto", "parallel", "sais", "divsufsort", "qsufsort", "skew", "bpr", "deep-shallow")) {
+            final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), Arrays.asList(w), SuffixArrays.builder(builder));
+            tokenIndex.prepare();
+            assertArrayEquals(builder, expected.suffix_array, tokenIndex.suffix_array);
+            assertArrayEquals(builder, expected.LCP_array, tokenIndex.LCP_array);
+        }
+        assertEquals(Algorithm.QSUFSORT, AdaptiveSuffixArrayBuilder.select(1000, 300));
+        assertEquals(Algorithm.DIVSUFSORT, AdaptiveSuffixArrayBuilder.select(50000, 300));
+        assertEquals(Algorithm.SAIS, AdaptiveSuffixArrayBuilder.select(50000, 5000));
+    }
+
+    @Test
+    public void parallelSuffixArray() {
+        final Random random = new Random(42);
+        final int[] text = new int[20000];
+        for (int i = 0; i < text.length; i++) {
+            // repeated passages with variants, like the concatenated witnesses of a token index
+            text[i] = (random.nextInt(10) == 0 ? random.nextInt(50) : (i % 3000) % 97);
+        }
+        final SuffixData expected = SuffixArrays.createWithLCP(text.clone(), 0, text.length, new AdaptiveSuffixArrayBuilder(Algorithm.SAIS));
+        final SuffixData parallel = SuffixArrays.createWithLCP(text.clone(), 0, text.length, new ParallelSuffixArrayBuilder());
+        assertArrayEquals(expected.getSuffixArray(), parallel.getSuffixArray());
+        assertArrayEquals(expected.getLCP(), parallel.getLCP());
+    }
+
+    @Test
+    public void packedLCP() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append("word").append(i % 41).append(' ');
+        }
+        // common prefixes of more than 255 tokens end up in the overflow table
+        final SimpleWitness[] w = createWitnesses(text.toString(), text.toString(), "the word1 and word2");
+        final TokenIndex expected = new TokenIndex(new EqualityTokenComparator(), w);
+        expected.prepare();
+        final TokenIndex packed = new TokenIndex(new EqualityTokenComparator(), w);
+        packed.setPackLCP(true);
+        packed.prepare();
+
+        assertNull(packed.LCP_array);
+        assertArrayEquals(expected.LCP_array, packed.getCompactLCP().toArray());
+        assertTrue(packed.getCompactLCP().footprint() < 4L * expected.LCP_array.length);
+        assertEquals(expected.getBlocks().size(), packed.getBlocks().size());
+        for (int b = 0; b < expected.getBlocks().size(); b++) {
+            assertEquals(expected.getBlocks().get(b).start, packed.getBlocks().get(b).start);
+            assertEquals(expected.getBlocks().get(b).getEnd(), packed.getBlocks().get(b).getEnd());
+            assertEquals(expected.getBlocks().get(b).length, packed.getBlocks().get(b).length);
+        }
+
+        packed.releaseLCP();
+        assertNull(packed.getCompactLCP());
+        assertEquals(expected.getBlockInstancesForWitness(w[0]).size(), packed.getBlockInstancesForWitness(w[0]).size());
+    }
+
+    @Test
+    public void flattenedBlocks() {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white cat and the dog", "a black cat and a dog");
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        // freshly split blocks compute their depth from their instances
+        final List<Block> blocks = tokenIndex.splitLCP_ArrayIntoIntervals();
+        assertEquals(blocks.size(), tokenIndex.blockCount());
+        for (int b = 0; b < blocks.size(); b++) {
+            assertEquals(blocks.get(b).start, tokenIndex.blockStart(b));
+            assertEquals(blocks.get(b).getEnd(), tokenIndex.blockEnd(b));
+            assertEquals(blocks.get(b).length, tokenIndex.blockLength(b));
+            assertEquals(blocks.get(b).getDepth(), tokenIndex.blockDepth(b));
+        }
+        for (SimpleWitness witness : w) {
+            final int ordinal = tokenIndex.witnessOrdinal(witness);
+            final List<String> expected = new ArrayList<>();
+            for (int b = 0; b < blocks.size(); b++) {
+                for (Block.Instance instance : blocks.get(b).getAllInstances()) {
+                    if (instance.getWitness().equals(witness)) {
+                        expected.add(b + ":" + instance.getStart_token());
+                    }
+                }
+            }
+            final List<String> flattened = new ArrayList<>();
+            for (int i = tokenIndex.firstInstance(ordinal); i < tokenIndex.firstInstance(ordinal + 1); i++) {
+                flattened.add(tokenIndex.instanceBlock(i) + ":" + tokenIndex.instanceToken(i));
+            }
+            assertEquals(expected, flattened);
+            assertEquals(expected.size(), tokenIndex.getBlockInstancesForWitness(witness).size());
+        }
+    }
+
+    @Test
+    public void witnessCoverage() {
+        // more witnesses than bits in a word
+        final SimpleWitness[] w = new SimpleWitness[70];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = new SimpleWitness("W" + i, (i % 3 == 0 ? "a b c" : i % 3 == 1 ? "b c d" : "x " + i));
+        }
+        final TokenIndex tokenIndex = new TokenIndex(new EqualityTokenComparator(), w);
+        tokenIndex.prepare();
+        for (int b = 0; b < tokenIndex.blockCount(); b++) {
+            final Block block = tokenIndex.getBlocks().get(b);
+            final Set<Integer> witnesses = new HashSet<>();
+            for (Block.Instance instance : block.getAllInstances()) {
+                witnesses.add(tokenIndex.witnessOrdinal(instance.getWitness()));
+                assertEquals(tokenIndex.witnessOrdinal(instance.getWitness()), tokenIndex.tokenWitness(instance.getStart_token()));
+            }
+            assertEquals(witnesses.size(), block.getDepth());
+            assertEquals(witnesses.size(), tokenIndex.blockDepth(b));
+            assertEquals(block.getFrequency(), tokenIndex.blockFrequency(b));
+            for (int ordinal = 0; ordinal < w.length; ordinal++) {
+                assertEquals(witnesses.contains(ordinal), block.occursIn(ordinal));
+                assertEquals(witnesses.contains(ordinal), tokenIndex.blockOccursIn(b, ordinal));
+                final int before = ordinal;
+                assertEquals(witnesses.stream().anyMatch(o -> o < before), tokenIndex.blockOccursBefore(b, ordinal));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,117 @@
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CompactVariantGraph;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedVariantGraphTest extends AbstractTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        final SimpleWitness[] w = createWitnesses("the black cat and the black dog", "the white dog and the cat", "a black cat and a dog");
+        final VariantGraph graph = collate(w);
+        final CompactVariantGraph compact = graph.freeze();
+
+        final Path file = Files.createTempFile("collatex", ".graph");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                new SimpleVariantGraphSerializer(graph).toBinary(out);
+            }
+            final MappedVariantGraph mapped = MappedVariantGraph.map(file);
+
+            assertEquals(compact.size(), mapped.size());
+            assertEquals(compact.edgeCount(), mapped.edgeCount());
+            assertEquals(compact.start(), mapped.start());
+            assertEquals(compact.end(), mapped.end());
+            assertEquals(compact.witnessCount(), mapped.witnessCount());
+            for (int wc = 0; wc < compact.witnessCount(); wc++) {
+                assertEquals(compact.witness(wc).getSigil(), mapped.sigil(wc));
+            }
+
+            for (int v = 0; v < compact.size(); v++) {
+                assertEquals(compact.rank(v), mapped.rank(v));
+                assertEquals(compact.outDegree(v), mapped.outDegree(v));
+                assertEquals(compact.inDegree(v), mapped.inDegree(v));
+                for (int e = compact.firstOutgoingEdge(v); e < compact.firstOutgoingEdge(v + 1); e++) {
+                    assertEquals(compact.target(e), mapped.target(e));
+                    for (int wc = 0; wc < compact.witnessCount(); wc++) {
+                        assertEquals(compact.hasWitness(e, wc), mapped.hasWitness(e, wc));
+                    }
+                }
+                for (int i = compact.incomingOffset(v); i < compact.incomingOffset(v + 1); i++) {
+                    assertEquals(compact.source(i), mapped.source(i));
+                    assertEquals(compact.incomingEdge(i), mapped.incomingEdge(i));
+                }
+                for (int wc = 0; wc < compact.witnessCount(); wc++) {
+                    assertEquals(compact.vertexHasWitness(v, wc), mapped.vertexHasWitness(v, wc));
+                }
+
+                int t = mapped.firstToken(v);
+                assertEquals(compact.tokens(v).size(), mapped.firstToken(v + 1) - t);
+                for (Token token : compact.tokens(v)) {
+                    assertEquals(token.getWitness().getSigil(), mapped.sigil(mapped.tokenWitness(t)));
+                    assertEquals(((SimpleToken) token).getContent(), mapped.tokenContent(t));
+                    assertEquals(((SimpleToken) token).getNormalized(), mapped.tokenNormalized(t));
+                    t++;
+                }
+            }
+
+            assertEquals(compact.transpositionCount(), mapped.transpositionCount());
+            for (int t = 0; t < compact.transpositionCount(); t++) {
+                assertEquals(compact.transpositionSize(t), mapped.transpositionSize(t));
+                for (int i = 0; i < compact.transpositionSize(t); i++) {
+                    assertEquals(compact.transposed(t, i), mapped.transposed(t, i));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void truncatedFile() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SimpleVariantGraphSerializer(collate(createWitnesses("the black cat", "the white cat"))).toBinary(out);
+        final byte[] bytes = out.toByteArray();
+        assertEquals(2, new MappedVariantGraph(ByteBuffer.wrap(bytes)).witnessCount());
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void corruptHeader() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SimpleVariantGraphSerializer(collate(createWitnesses("the black cat", "the white cat"))).toBinary(out);
+        final byte[] bytes = out.toByteArray();
+        for (int field = 2; field < MappedVariantGraph.HEADER_SIZE / Integer.BYTES; field++) {
+            for (int value : new int[] { -1, Integer.MAX_VALUE }) {
+                final ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+                corrupt.putInt(field * Integer.BYTES, value);
+                assertRejected(corrupt.array());
+            }
+        }
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            new MappedVariantGraph(ByteBuffer.wrap(bytes));
+            fail("Accepted " + bytes.length + " bytes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -7,6 +7,8 @@ import eu.interedition.collatex.dekker.InspectableCollationAlgorithm;
 import eu.interedition.collatex.matching.EditDistanceTokenComparator;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.*;
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.SuffixArrays;
 
 import javax.json.*;
 import javax.ws.rs.Consumes;
@@ -163,7 +165,18 @@ public class SimpleCollationJSONMessageBodyReader implements MessageBodyReader<S
                 }
             }
             if (collationAlgorithm == null) {
-                collationAlgorithm = CollationAlgorithmFactory.dekker(tokenComparator);
+                ISuffixArrayBuilder suffixArrayBuilder = null;
+                final JsonValue suffixArrayAlgorithmNode = collationObject.get("suffixArrayAlgorithm");
+                if (suffixArrayAlgorithmNode != null && suffixArrayAlgorithmNode.getValueType() == JsonValue.ValueType.STRING) {
+                    try {
+                        suffixArrayBuilder = SuffixArrays.builder(((JsonString) suffixArrayAlgorithmNode).getString());
+                    } catch (IllegalArgumentException e) {
+                        // ignored
+                    }
+                }
+                collationAlgorithm = (suffixArrayBuilder == null
+                        ? CollationAlgorithmFactory.dekker(tokenComparator)
+                        : CollationAlgorithmFactory.dekker(tokenComparator, suffixArrayBuilder));
             }
 
             boolean joined = true;
@@ -87,6 +87,7 @@ public class CollateX {
         OPTIONS.addOption("t", "tokenized", false, "consecutive matches of tokens will *not* be joined to segments");
         OPTIONS.addOption("f", "format", true, "result/output format: 'json', 'csv', 'dot', 'graphml', 'tei'");
         OPTIONS.addOption("s", "script", true, "ECMA/JavaScript resource with functions to be plugged into the alignment algorithm");
+        OPTIONS.addOption("q", "query", true, "print the witness and token offset of every occurrence of the given phrase instead of collating");
 
         OPTIONS.addOption("S", "http", false, "start RESTful HTTP server");
         OPTIONS.addOption("cp", "context-path", true, "URL base/context path of the service, default: '/'");
@@ -23,6 +23,8 @@ import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.CollationAlgorithmFactory;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.dekker.token_index.PhraseIndex;
+import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.*;
 import org.apache.commons.cli.CommandLine;
@@ -149,6 +151,16 @@ public class CollationPipe {
             }
         }
 
+        final String query = commandLine.getOptionValue("q");
+        if (query != null) {
+            final String output = commandLine.getOptionValue("o", "-");
+            final Charset outputCharset = Charset.forName(commandLine.getOptionValue("oe", StandardCharsets.UTF_8.name()));
+            try (PrintWriter out = argumentToOutput(output, outputCharset)) {
+                search(witnesses, new SimpleWitness("query", query, tokenizer, normalizer).getTokens(), comparator, out);
+            }
+            return;
+        }
+
         final VariantGraph variantGraph = new VariantGraph();
         collationAlgorithm.collate(variantGraph, witnesses);
 
@@ -194,6 +206,16 @@ public class CollationPipe {
         }
     }
 
+    private static void search(List<SimpleWitness> witnesses, List<Token> phrase, Comparator<Token> comparator, PrintWriter out) {
+        final TokenIndex tokenIndex = new TokenIndex(comparator, witnesses);
+        tokenIndex.prepare();
+        final List<PhraseIndex.Occurrence> occurrences = new ArrayList<>(new PhraseIndex(tokenIndex).find(phrase));
+        occurrences.sort(Comparator.comparingInt(PhraseIndex.Occurrence::getPosition));
+        for (PhraseIndex.Occurrence occurrence : occurrences) {
+            out.println(occurrence.getWitness().getSigil() + "\t" + occurrence.getOffset());
+        }
+    }
+
     private static URL argumentToInput(String arg) throws MalformedURLException {
         final File witnessFile = new File(arg);
         if (witnessFile.exists()) {
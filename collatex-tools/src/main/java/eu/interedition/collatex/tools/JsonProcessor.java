@@ -31,6 +31,8 @@ import eu.interedition.collatex.simple.SimplePatternTokenizer;
 import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.simple.SimpleTokenNormalizers;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.suffixarray.ISuffixArrayBuilder;
+import eu.interedition.collatex.suffixarray.SuffixArrays;
 import eu.interedition.collatex.util.ParallelSegmentationApparatus;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
@@ -185,7 +187,18 @@ public class JsonProcessor {
                 }
             }
             if (collationAlgorithm == null) {
-                collationAlgorithm = CollationAlgorithmFactory.dekker(tokenComparator);
+                ISuffixArrayBuilder suffixArrayBuilder = null;
+                final JsonValue suffixArrayAlgorithmNode = collationObject.get("suffixArrayAlgorithm");
+                if (suffixArrayAlgorithmNode != null && suffixArrayAlgorithmNode.getValueType() == JsonValue.ValueType.STRING) {
+                    try {
+                        suffixArrayBuilder = SuffixArrays.builder(((JsonString) suffixArrayAlgorithmNode).getString());
+                    } catch (IllegalArgumentException e) {
+                        // ignored
+                    }
+                }
+                collationAlgorithm = (suffixArrayBuilder == null
+                        ? CollationAlgorithmFactory.dekker(tokenComparator)
+                        : CollationAlgorithmFactory.dekker(tokenComparator, suffixArrayBuilder));
             }
 
             boolean joined = true;